@@ -0,0 +1,95 @@
+package org.example.benchmarks;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import org.example.entities.SeatInventory;
+import org.example.entities.SeatPreferences;
+import org.example.entities.Train;
+import org.example.services.TrainRepository;
+import org.example.services.TrainService;
+import org.example.services.UserBookingService;
+
+// UserBookingService.allocateSeats on a run that is already mostly sold
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class AllocationBenchmark {
+    @Param({"24"})
+    public int coaches;
+
+    @Param({"72"})
+    public int seatsPerCoach;
+
+    @Param({"0.5", "0.95"})
+    public double occupancy;
+
+    private Path dir;
+    private Train train;
+    private LocalDate runDate;
+    private UserBookingService bookingService;
+    private final SeatPreferences together = new SeatPreferences(true, false, false);
+    private final SeatPreferences window = new SeatPreferences(false, true, false);
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        BenchmarkData.silenceStdout();
+        dir = BenchmarkData.tempDir();
+        File trainsFile = BenchmarkData.write(dir, "trains.json",
+                BenchmarkData.trains(1, 10, 100, coaches, seatsPerCoach, 3));
+        File usersFile = BenchmarkData.write(dir, "users.json", BenchmarkData.users(1, 4));
+        TrainService trainService = new TrainService(new TrainRepository(trainsFile));
+        bookingService = new UserBookingService(usersFile, trainService);
+        train = trainService.getTrain("train0");
+        runDate = LocalDate.now().plusDays(1);
+        SeatInventory seats = trainService.getInventory(train, runDate);
+        SplittableRandom random = new SplittableRandom(3);
+        for (int row = 0; row < coaches; row++) {
+            for (int seat = 0; seat < seatsPerCoach; seat++) {
+                if (random.nextDouble() < occupancy) {
+                    seats.tryBook(row, seat);
+                }
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        BenchmarkData.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public List<int[]> single() {
+        return bookingService.allocateSeats(train, runDate, null, null, 1, SeatPreferences.NONE);
+    }
+
+    @Benchmark
+    public List<int[]> singleWindow() {
+        return bookingService.allocateSeats(train, runDate, null, null, 1, window);
+    }
+
+    @Benchmark
+    public List<int[]> partyOfFourTogether() {
+        return bookingService.allocateSeats(train, runDate, null, null, 4, together);
+    }
+
+    @Benchmark
+    public List<int[]> partyOfFourAnywhere() {
+        return bookingService.allocateSeats(train, runDate, null, null, 4, SeatPreferences.NONE);
+    }
+}
@@ -0,0 +1,101 @@
+package org.example.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+
+import org.example.entities.Train;
+import org.example.entities.User;
+import org.example.util.UserServiceUtil;
+
+/**
+ * Synthetic datasets for the benchmarks, written in the same shape as localDb/*.json into a
+ * throwaway directory: N trains, each running through M consecutive stations out of a pool
+ * of {@code stationPool}, with C coaches of S seats, and U users.
+ */
+final class BenchmarkData {
+    static final ObjectMapper MAPPER = new ObjectMapper().setPropertyNamingStrategy(PropertyNamingStrategies.SNAKE_CASE);
+
+    private BenchmarkData() {}
+
+    static Path tempDir() throws IOException {
+        // The journal fsyncs would swamp the in-memory costs we want to see
+        System.setProperty("irctc.journal.fsync", "off");
+        System.setProperty("irctc.trains.reloadCheckMillis", String.valueOf(Long.MAX_VALUE / 2));
+        return Files.createTempDirectory("irctc-bench");
+    }
+
+    static String station(int index) {
+        return "station" + index;
+    }
+
+    static List<Train> trains(int count, int stationsPerTrain, int stationPool, int coaches, int seatsPerCoach, long seed) {
+        Random random = new Random(seed);
+        List<Train> trains = new ArrayList<>(count);
+        for (int t = 0; t < count; t++) {
+            int first = random.nextInt(Math.max(1, stationPool - stationsPerTrain));
+            List<String> stations = new ArrayList<>(stationsPerTrain);
+            Map<String, String> times = new LinkedHashMap<>();
+            int minutes = random.nextInt(12 * 60);
+            for (int s = 0; s < stationsPerTrain; s++) {
+                String name = station(first + s);
+                stations.add(name);
+                times.put(name, String.format("%02d:%02d:00", (minutes / 60) % 24, minutes % 60));
+                minutes += 5 + random.nextInt(40);
+            }
+            List<List<Integer>> seats = new ArrayList<>(coaches);
+            for (int c = 0; c < coaches; c++) {
+                List<Integer> coach = new ArrayList<>(seatsPerCoach);
+                for (int s = 0; s < seatsPerCoach; s++) {
+                    coach.add(0);
+                }
+                seats.add(coach);
+            }
+            trains.add(new Train("train" + t, String.valueOf(10000 + t), seats, times, stations));
+        }
+        return trains;
+    }
+
+    // All users share one hash so building a large users file doesn't take minutes of bcrypt
+    static List<User> users(int count, int bcryptCost) {
+        List<User> users = new ArrayList<>(count);
+        String hash = UserServiceUtil.hashPassword("password", bcryptCost);
+        for (int u = 0; u < count; u++) {
+            users.add(new User("user" + u, null, hash, new ArrayList<>(), "id-" + u));
+        }
+        return users;
+    }
+
+    static File write(Path dir, String name, Object value) throws IOException {
+        File file = dir.resolve(name).toFile();
+        MAPPER.writeValue(file, value);
+        return file;
+    }
+
+    static void deleteRecursively(Path dir) throws IOException {
+        if (dir == null || !Files.exists(dir)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    // The services print on every call; keep that out of the measurements
+    static void silenceStdout() {
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+}
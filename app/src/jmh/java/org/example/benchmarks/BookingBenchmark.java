@@ -0,0 +1,127 @@
+package org.example.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import org.example.entities.SeatInventory;
+import org.example.entities.Ticket;
+import org.example.entities.Train;
+import org.example.entities.User;
+import org.example.services.TrainRepository;
+import org.example.services.TrainService;
+import org.example.services.UserBookingService;
+
+/**
+ * Seat booking: the bare CAS claim on the inventory, and the full bookTrainSeat path
+ * (train lock + claim + journal appends + ticket). Each booked seat is released again
+ * right away so the trains never fill up. The *Contended variants run on every core;
+ * compare them with the single-threaded ones to see how booking scales with thread
+ * count (or pass -t to JMH for specific counts).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class BookingBenchmark {
+    @Param({"64"})
+    public int seatsPerCoach;
+
+    @Param({"16"})
+    public int coaches;
+
+    // Few trains = threads fight over the same train locks; many = they spread out
+    @Param({"1", "64"})
+    public int trains;
+
+    private Path dir;
+    private Train[] trainArray;
+    private TrainService trainService;
+    private UserBookingService bookingService;
+    private User owner;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        BenchmarkData.silenceStdout();
+        dir = BenchmarkData.tempDir();
+        File trainsFile = BenchmarkData.write(dir, "trains.json",
+                BenchmarkData.trains(trains, 10, 100, coaches, seatsPerCoach, 7));
+        File usersFile = BenchmarkData.write(dir, "users.json", BenchmarkData.users(1, 4));
+        trainService = new TrainService(new TrainRepository(trainsFile));
+        bookingService = new UserBookingService(usersFile, trainService);
+        owner = bookingService.getUser("id-0");
+        trainArray = new Train[trains];
+        for (int t = 0; t < trains; t++) {
+            trainArray[t] = trainService.getTrain("train" + t);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        BenchmarkData.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public boolean inventoryClaim() {
+        return claimAndRelease();
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public boolean inventoryClaimContended() {
+        return claimAndRelease();
+    }
+
+    @Benchmark
+    public Ticket bookTrainSeat() throws IOException {
+        return bookAndRelease();
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public Ticket bookTrainSeatContended() throws IOException {
+        return bookAndRelease();
+    }
+
+    private boolean claimAndRelease() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        SeatInventory inventory = trainArray[random.nextInt(trains)].getInventory();
+        int row = random.nextInt(coaches);
+        int seat = random.nextInt(seatsPerCoach);
+        boolean claimed = inventory.tryBook(row, seat);
+        if (claimed) {
+            inventory.release(row, seat);
+        }
+        return claimed;
+    }
+
+    private Ticket bookAndRelease() throws IOException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Train train = trainArray[random.nextInt(trains)];
+        int row = random.nextInt(coaches);
+        int seat = random.nextInt(seatsPerCoach);
+        LocalDate today = LocalDate.now();
+        Ticket ticket = bookingService.bookTrainSeat(owner, train, today, row, seat, null, null);
+        if (ticket != null) {
+            trainService.getInventory(train, today).release(row, seat);
+            synchronized (owner) {
+                owner.getTicketsBooked().remove(ticket);
+            }
+        }
+        return ticket;
+    }
+}
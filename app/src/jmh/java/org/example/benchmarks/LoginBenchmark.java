@@ -0,0 +1,63 @@
+package org.example.benchmarks;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import org.example.entities.User;
+import org.example.services.TrainRepository;
+import org.example.services.TrainService;
+import org.example.services.UserBookingService;
+
+/**
+ * loginUser against U users. Hashes use bcrypt cost 4 (the minimum) so the numbers show
+ * the lookup and pool overhead rather than being pure bcrypt; the real cost-10 price is
+ * roughly 64x the bcrypt share of this.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class LoginBenchmark {
+    @Param({"1000", "100000"})
+    public int users;
+
+    private Path dir;
+    private UserBookingService bookingService;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        BenchmarkData.silenceStdout();
+        System.setProperty("irctc.bcrypt.cost", "4");
+        dir = BenchmarkData.tempDir();
+        File trainsFile = BenchmarkData.write(dir, "trains.json", BenchmarkData.trains(1, 3, 3, 1, 1, 1));
+        File usersFile = BenchmarkData.write(dir, "users.json", BenchmarkData.users(users, 4));
+        bookingService = new UserBookingService(usersFile, new TrainService(new TrainRepository(trainsFile)));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        BenchmarkData.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public Boolean loginUser() {
+        return bookingService.loginUser("user" + ThreadLocalRandom.current().nextInt(users), "password");
+    }
+
+    @Benchmark
+    public User authenticateUnknownUser() {
+        return bookingService.authenticate("nobody", "password").join();
+    }
+}
@@ -0,0 +1,78 @@
+package org.example.benchmarks;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import org.example.persistence.Codec;
+import org.example.persistence.SnapshotConverter;
+import org.example.services.TrainRepository;
+import org.example.services.TrainService;
+import org.example.services.UserBookingService;
+
+// Full-file snapshot saves and cold-start loads of trains.json / users.json, in either codec
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PersistenceBenchmark {
+    @Param({"1000", "10000"})
+    public int trains;
+
+    @Param({"10000"})
+    public int users;
+
+    @Param({"json", "smile"})
+    public String format;
+
+    private Path dir;
+    private File trainsFile;
+    private File usersFile;
+    private TrainRepository repository;
+    private TrainService trainService;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        BenchmarkData.silenceStdout();
+        dir = BenchmarkData.tempDir();
+        trainsFile = BenchmarkData.write(dir, "trains.json", BenchmarkData.trains(trains, 20, 2000, 16, 64, 3));
+        usersFile = BenchmarkData.write(dir, "users.json", BenchmarkData.users(users, 4));
+        System.setProperty("irctc.persistence.format", format);
+        Codec codec = Codec.configured();
+        new SnapshotConverter().convert(trainsFile, trainsFile, codec);
+        new SnapshotConverter().convert(usersFile, usersFile, codec);
+        repository = new TrainRepository(trainsFile);
+        trainService = new TrainService(repository);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        System.clearProperty("irctc.persistence.format");
+        BenchmarkData.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public void saveTrains() throws Exception {
+        repository.snapshot();
+    }
+
+    @Benchmark
+    public TrainRepository coldLoadTrains() throws Exception {
+        return new TrainRepository(trainsFile);
+    }
+
+    @Benchmark
+    public UserBookingService coldLoadUsers() throws Exception {
+        return new UserBookingService(usersFile, trainService);
+    }
+}
@@ -0,0 +1,67 @@
+package org.example.benchmarks;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import org.example.entities.Train;
+import org.example.services.TrainRepository;
+import org.example.services.TrainService;
+
+// TrainService.searchTrains over N trains x M stations, random source/destination pairs
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class SearchBenchmark {
+    @Param({"1000", "10000"})
+    public int trains;
+
+    @Param({"20"})
+    public int stationsPerTrain;
+
+    @Param({"2000"})
+    public int stationPool;
+
+    private Path dir;
+    private TrainService trainService;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        BenchmarkData.silenceStdout();
+        dir = BenchmarkData.tempDir();
+        File file = BenchmarkData.write(dir, "trains.json",
+                BenchmarkData.trains(trains, stationsPerTrain, stationPool, 4, 64, 42));
+        trainService = new TrainService(new TrainRepository(file));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        BenchmarkData.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public List<Train> searchRandomPair() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int source = random.nextInt(stationPool);
+        int destination = source + 1 + random.nextInt(stationsPerTrain);
+        return trainService.searchTrains(BenchmarkData.station(source), BenchmarkData.station(destination));
+    }
+
+    @Benchmark
+    public List<Train> searchMiss() {
+        return trainService.searchTrains("nowhere", BenchmarkData.station(1));
+    }
+}
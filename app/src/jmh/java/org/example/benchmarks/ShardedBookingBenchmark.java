@@ -0,0 +1,93 @@
+package org.example.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import org.example.entities.Ticket;
+import org.example.entities.Train;
+import org.example.entities.User;
+import org.example.services.ShardRouter;
+import org.example.services.UserBookingService;
+
+/**
+ * The full booking path on every core against 1, 2 and 4 in-process shards. With fsync on,
+ * one shard's journal is the ceiling; each added shard brings its own journal and fsyncs,
+ * so throughput should grow with the shard count until the disk or the cores run out.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ShardedBookingBenchmark {
+    @Param({"1", "2", "4"})
+    public int shards;
+
+    @Param({"commit", "off"})
+    public String fsync;
+
+    private static final int TRAINS = 64;
+    private static final int COACHES = 16;
+    private static final int SEATS_PER_COACH = 64;
+
+    private Path dir;
+    private Train[] trainArray;
+    private ShardRouter router;
+    private UserBookingService bookingService;
+    private User owner;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        BenchmarkData.silenceStdout();
+        dir = BenchmarkData.tempDir();
+        System.setProperty("irctc.journal.fsync", fsync);
+        File trainsFile = BenchmarkData.write(dir, "trains.json",
+                BenchmarkData.trains(TRAINS, 10, 100, COACHES, SEATS_PER_COACH, 7));
+        File usersFile = BenchmarkData.write(dir, "users.json", BenchmarkData.users(1, 4));
+        router = ShardRouter.open(trainsFile, shards);
+        bookingService = new UserBookingService(usersFile, router);
+        owner = bookingService.getUser("id-0");
+        trainArray = new Train[TRAINS];
+        for (int t = 0; t < TRAINS; t++) {
+            trainArray[t] = router.getTrain("train" + t);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        System.setProperty("irctc.journal.fsync", "off");
+        BenchmarkData.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public Ticket bookTrainSeatContended() throws IOException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Train train = trainArray[random.nextInt(TRAINS)];
+        int row = random.nextInt(COACHES);
+        int seat = random.nextInt(SEATS_PER_COACH);
+        LocalDate today = LocalDate.now();
+        Ticket ticket = bookingService.bookTrainSeat(owner, train, today, row, seat, null, null);
+        if (ticket != null) {
+            router.getInventory(train, today).release(row, seat);
+            synchronized (owner) {
+                owner.getTicketsBooked().remove(ticket);
+            }
+        }
+        return ticket;
+    }
+}
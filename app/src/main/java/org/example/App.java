@@ -1,20 +1,38 @@
 package org.example;
 
 import java.io.IOException;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
 import java.util.UUID;
 
+import org.example.api.BookingHttpServer;
+import org.example.entities.SeatMap;
+import org.example.entities.SeatPreferences;
 import org.example.entities.Train;
 import org.example.entities.User;
 import org.example.services.UserBookingService;
-import org.example.util.UserServiceUtil;
+import org.example.util.Log;
+import org.example.util.PasswordVerificationPool;
 
 public class App {
 
+    // Leg picked in the last search; bookings are made for this leg only
+    private static String searchedSource;
+    private static String searchedDestination;
+    private static LocalDate searchedDate;
+
     public static void main(String[] args) {
+        // "--http [port]" serves the booking API instead of the single-user console menu
+        if (args.length > 0 && args[0].equals("--http")) {
+            int port = args.length > 1 ? Integer.parseInt(args[1]) : Integer.getInteger("irctc.http.port", 8080);
+            runHttpServer(port);
+            return;
+        }
+
         System.out.println("Running Train Booking System");
         
         // Add memory monitoring
@@ -31,6 +49,7 @@ public class App {
             trainSelectedForBooking = new Train();
             // System.out.println("MAIN: Initial UserBookingService created - " + 
             //     userBookingService.hashCode()); // Debug
+            Log.flush();
             System.out.println("UserBookingService initialized successfully");
         } catch (IOException ex) {
             System.out.println("Error initializing UserBookingService: " + ex.getMessage());
@@ -44,12 +63,9 @@ public class App {
         while (option != 7 && loopCount < MAX_LOOPS) {
             loopCount++;
             
-            // Add garbage collection hint occasionally
-            if (loopCount % 50 == 0) {
-                System.gc();
-            }
-            
             try {
+                // Service messages go through the async log; let them out before the next prompt
+                Log.flush();
                 System.out.println("\n=== Menu (Loop: " + loopCount + ") ===");
                 System.out.println("1. Sign up");
                 System.out.println("2. Login");
@@ -99,7 +115,7 @@ public class App {
                         handleBookSeat(scanner, userBookingService, trainSelectedForBooking);
                         break;
                     case 6:
-                        handleCancelBooking();
+                        handleCancelBooking(scanner, userBookingService);
                         break;
                     case 7:
                         System.out.println("Exiting the application. Goodbye!");
@@ -121,11 +137,25 @@ public class App {
         }
         
         scanner.close();
+        Log.flush();
         System.out.println("Application closed successfully.");
         
         // Final memory stats
         long usedMemory = (runtime.totalMemory() - runtime.freeMemory()) / (1024 * 1024);
         System.out.println("Final memory usage: " + usedMemory + "MB");
+        System.out.println(PasswordVerificationPool.getInstance().stats());
+        System.out.println(userBookingService.waitlistStats());
+    }
+    
+    private static void runHttpServer(int port) {
+        try {
+            BookingHttpServer server = new BookingHttpServer(port, new UserBookingService());
+            Runtime.getRuntime().addShutdownHook(new Thread(server::stop, "http-shutdown"));
+            server.start();
+        } catch (IOException ex) {
+            System.out.println("Error starting booking API: " + ex.getMessage());
+            ex.printStackTrace();
+        }
     }
     
     private static void handleSignUp(Scanner scanner, UserBookingService userBookingService) {
@@ -141,7 +171,7 @@ public class App {
         }
         
         User userToSignup = new User(nameToSignUp, passwordToSignUp, 
-                UserServiceUtil.hashPassword(passwordToSignUp), 
+                PasswordVerificationPool.getInstance().hash(passwordToSignUp).join(), 
                 new ArrayList<>(), UUID.randomUUID().toString());
         userBookingService.signUp(userToSignup);
     }
@@ -160,6 +190,7 @@ public class App {
         
         try {
             Boolean loginSuccess = userBookingService.loginUser(nameToLogin, passwordToLogin);
+            Log.flush();
             if (loginSuccess) {
                 System.out.println("Login successful!");
             } else {
@@ -183,13 +214,24 @@ public class App {
         String source = scanner.nextLine().trim();
         System.out.print("Enter destination station: ");
         String dest = scanner.nextLine().trim();
+        System.out.print("Enter travel date (yyyy-mm-dd, blank for today): ");
+        String date = scanner.nextLine().trim();
         
         if (source.isEmpty() || dest.isEmpty()) {
             System.out.println("Source and destination cannot be empty.");
             return null;
         }
+        try {
+            searchedDate = date.isEmpty() ? LocalDate.now() : LocalDate.parse(date);
+        } catch (DateTimeParseException e) {
+            System.out.println("Please enter the date as yyyy-mm-dd.");
+            return null;
+        }
         
         List<Train> trains = userBookingService.getTrains(source, dest);
+        Log.flush();
+        searchedSource = source;
+        searchedDestination = dest;
         
         if (trains == null || trains.isEmpty()) {
             System.out.println("No trains found for the given route.");
@@ -231,30 +273,58 @@ public class App {
         }
         
         System.out.println("=== Book a Seat ===");
-        System.out.println("Available seats for Train " + train.getTrainId() + ":");
+        System.out.println("Available seats for Train " + train.getTrainId() + " from " + searchedSource + " to " + searchedDestination + " on " + searchedDate + ":");
         
-        List<List<Integer>> seats = userBookingService.fetchSeats(train);
-        if (seats == null || seats.isEmpty()) {
+        SeatMap seats = userBookingService.seatMap(train, searchedDate, searchedSource, searchedDestination);
+        if (seats == null || seats.rows() == 0) {
             System.out.println("No seats available or error fetching seats.");
             return;
         }
+        if (seats.freeSeats() == 0) {
+            System.out.print("This leg is sold out. Join the waitlist? (y/n): ");
+            if (scanner.nextLine().trim().equalsIgnoreCase("y")) {
+                userBookingService.joinWaitlist(train, searchedDate, searchedSource, searchedDestination);
+            }
+            return;
+        }
         
-        for (int i = 0; i < seats.size(); i++) {
-            System.out.print("Row " + i + ": ");
-            for (Integer val : seats.get(i)) {
-                System.out.print(val + " ");
+        // One line per row, built without boxing a value per seat
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < seats.rows(); i++) {
+            out.append("Row ").append(i).append(": ");
+            for (int seat = 0; seat < seats.seatsInRow(i); seat++) {
+                out.append(seats.isFree(i, seat) ? '0' : '1').append(' ');
             }
-            System.out.println();
+            out.append(" (").append(seats.freeInRow(i)).append(" free)\n");
         }
+        System.out.print(out);
         
         try {
-            System.out.print("Enter row number: ");
-            int row = Integer.parseInt(scanner.nextLine().trim());
-            System.out.print("Enter column number: ");
-            int col = Integer.parseInt(scanner.nextLine().trim());
+            System.out.print("Enter row number (blank for the best available seat): ");
+            String rowInput = scanner.nextLine().trim();
+            int row;
+            int col;
+            if (rowInput.isEmpty()) {
+                System.out.print("Window seat? (y/n): ");
+                boolean window = scanner.nextLine().trim().equalsIgnoreCase("y");
+                List<int[]> best = userBookingService.allocateSeats(train, searchedDate, searchedSource, searchedDestination,
+                        1, new SeatPreferences(false, window, false));
+                if (best == null) {
+                    System.out.println("No free seat left on this leg.");
+                    return;
+                }
+                row = best.get(0)[0];
+                col = best.get(0)[1];
+                System.out.println("Best available: row " + row + ", column " + col);
+            } else {
+                row = Integer.parseInt(rowInput);
+                System.out.print("Enter column number: ");
+                col = Integer.parseInt(scanner.nextLine().trim());
+            }
             
             System.out.println("Booking your seat....");
-            Boolean booked = userBookingService.bookTrainSeat(train, row, col);
+            Boolean booked = userBookingService.bookTrainSeat(train, searchedDate, row, col, searchedSource, searchedDestination);
+            Log.flush();
             if (booked.equals(Boolean.TRUE)) {
                 System.out.println("Booked! Enjoy your journey");
             } else {
@@ -267,8 +337,10 @@ public class App {
         }
     }
     
-    private static void handleCancelBooking() {
+    private static void handleCancelBooking(Scanner scanner, UserBookingService userBookingService) {
         System.out.println("=== Cancel Booking ===");
-        System.out.println("This feature is not implemented yet.");
+        System.out.print("Enter the ticket id to cancel: ");
+        String ticketId = scanner.nextLine().trim();
+        userBookingService.cancelBooking(ticketId);
     }
 }
\ No newline at end of file
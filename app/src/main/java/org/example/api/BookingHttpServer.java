@@ -0,0 +1,559 @@
+package org.example.api;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.example.entities.BookingRequest;
+import org.example.entities.SeatHold;
+import org.example.entities.SeatMap;
+import org.example.entities.SeatPreferences;
+import org.example.entities.Ticket;
+import org.example.entities.Train;
+import org.example.entities.User;
+import org.example.entities.WaitlistEntry;
+import org.example.services.UserBookingService;
+import org.example.util.Metrics;
+import org.example.util.Log;
+import org.example.util.PasswordVerificationPool;
+
+/**
+ * JSON-over-HTTP front end on the JDK's built-in server, one virtual thread per request.
+ * All clients share one {@link UserBookingService}; who is calling comes from the bearer
+ * token handed out by {@code /login}, never from the service's console-session user.
+ *
+ * <pre>
+ * POST   /signup                      {"name", "password"}
+ * POST   /login                       {"name", "password"} -> {"token", "user_id"}
+ * POST   /logout                      (auth)
+ * GET    /trains?source=&amp;destination=
+ * GET    /trains/{trainId}/seats?source=&amp;destination=&amp;date=yyyy-mm-dd
+ * GET    /trains/{trainId}/allocation?party=&amp;together=&amp;window=&amp;same_coach=  (+ source, destination, date)
+ * GET    /journeys?source=&amp;destination=&amp;after=HH:mm&amp;transfers=2
+ * GET    /bookings                    (auth)
+ * POST   /bookings                    (auth) {"train_id", "row", "seat", "source", "destination", "date"} -> ticket
+ * POST   /bookings/batch              (auth) {"bookings": [same fields as above, ...]} -> tickets, all or nothing
+ * DELETE /bookings/{ticketId}         (auth)
+ * POST   /holds                       (auth) same body as /bookings -> hold, seat kept until it expires
+ * POST   /holds/{holdId}/confirm      (auth) -> ticket
+ * DELETE /holds/{holdId}              (auth)
+ * GET    /waitlist                    (auth)
+ * POST   /waitlist                    (auth) {"train_id", "source", "destination", "date"} -> entry, only when sold out
+ * DELETE /waitlist/{entryId}          (auth)
+ * GET    /metrics                     Prometheus text format
+ * </pre>
+ */
+public class BookingHttpServer {
+    private static final Log LOG = Log.get(BookingHttpServer.class);
+    private static final int MAX_BODY_BYTES = Integer.getInteger("irctc.http.maxBodyBytes", 64 * 1024);
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final UserBookingService bookingService;
+    private final SessionStore sessions = new SessionStore();
+    private final ScheduledExecutorService housekeeping = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "http-sessions");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ObjectMapper objectMapper = new ObjectMapper().setPropertyNamingStrategy(PropertyNamingStrategies.SNAKE_CASE);
+
+    public BookingHttpServer(int port, UserBookingService bookingService) throws IOException {
+        this.bookingService = bookingService;
+        this.server = HttpServer.create(new InetSocketAddress(port), Integer.getInteger("irctc.http.backlog", 1024));
+        server.setExecutor(executor);
+        server.createContext("/signup", exchange -> handle(exchange, this::signUp));
+        server.createContext("/login", exchange -> handle(exchange, this::login));
+        server.createContext("/logout", exchange -> handle(exchange, this::logout));
+        server.createContext("/trains", exchange -> handle(exchange, this::trains));
+        server.createContext("/bookings", exchange -> handle(exchange, this::bookings));
+        server.createContext("/journeys", exchange -> handle(exchange, this::journeys));
+        server.createContext("/holds", exchange -> handle(exchange, this::holds));
+        server.createContext("/waitlist", exchange -> handle(exchange, this::waitlist));
+        server.createContext("/metrics", this::metrics);
+    }
+
+    public void start() {
+        server.start();
+        housekeeping.scheduleWithFixedDelay(sessions::evictExpired, 1, 1, TimeUnit.MINUTES);
+        LOG.info("Booking API listening on port {}", getPort());
+    }
+
+    public void stop() {
+        server.stop(1);
+        executor.shutdown();
+        housekeeping.shutdownNow();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private Response signUp(HttpExchange exchange) throws IOException {
+        requireMethod(exchange, "POST");
+        JsonNode body = readBody(exchange);
+        String name = text(body, "name");
+        String password = text(body, "password");
+        if (name.isEmpty() || password.isEmpty()) {
+            return Response.error(400, "name and password are required");
+        }
+        String hashed = PasswordVerificationPool.getInstance().hash(password).join();
+        // Unlike the console, the API never keeps the plain password
+        User user = new User(name, null, hashed, new ArrayList<>(), UUID.randomUUID().toString());
+        if (!bookingService.signUp(user)) {
+            return Response.error(409, "user " + name + " already exists");
+        }
+        return new Response(201, Map.of("user_id", user.getUserId()));
+    }
+
+    private Response login(HttpExchange exchange) throws IOException {
+        requireMethod(exchange, "POST");
+        JsonNode body = readBody(exchange);
+        User user = bookingService.authenticate(text(body, "name"), text(body, "password")).join();
+        if (user == null) {
+            return Response.error(401, "invalid name or password");
+        }
+        return new Response(200, Map.of("token", sessions.create(user.getUserId()), "user_id", user.getUserId()));
+    }
+
+    private Response logout(HttpExchange exchange) {
+        requireMethod(exchange, "POST");
+        sessions.remove(bearerToken(exchange));
+        return new Response(200, Map.of("logged_out", true));
+    }
+
+    private Response trains(HttpExchange exchange) {
+        requireMethod(exchange, "GET");
+        Map<String, String> query = query(exchange);
+        String source = query.getOrDefault("source", "");
+        String destination = query.getOrDefault("destination", "");
+        String[] path = pathSegments(exchange);
+
+        // /trains/{trainId}/seats
+        if (path.length == 3 && path[2].equals("seats")) {
+            Train train = bookingService.getTrain(path[1]);
+            if (train == null) {
+                return Response.error(404, "no train " + path[1]);
+            }
+            LocalDate runDate = runDate(query.getOrDefault("date", ""));
+            SeatMap seats = source.isEmpty() || destination.isEmpty()
+                    ? bookingService.seatMap(train, runDate, null, null)
+                    : bookingService.seatMap(train, runDate, source, destination);
+            if (seats == null) {
+                return new Response(200, Map.of("train_id", train.getTrainId(), "date", runDate.toString(), "seats", List.of()));
+            }
+            Map<String, Object> body = new LinkedHashMap<>();
+            body.put("train_id", train.getTrainId());
+            body.put("date", runDate.toString());
+            body.put("version", seats.getVersion());
+            body.put("free", seats.freeSeats());
+            body.put("free_per_coach", seats.freePerRow());
+            body.put("waitlist", bookingService.waitlistDepth(train, runDate));
+            body.put("seats", seats.toMatrix());
+            return new Response(200, body);
+        }
+        // /trains/{trainId}/allocation: best free seats for a party, nothing is held
+        if (path.length == 3 && path[2].equals("allocation")) {
+            Train train = bookingService.getTrain(path[1]);
+            if (train == null) {
+                return Response.error(404, "no train " + path[1]);
+            }
+            int party;
+            try {
+                party = Integer.parseInt(query.getOrDefault("party", "1"));
+            } catch (NumberFormatException e) {
+                return Response.error(400, "party must be a number");
+            }
+            SeatPreferences preferences = new SeatPreferences(Boolean.parseBoolean(query.get("together")),
+                    Boolean.parseBoolean(query.get("window")), Boolean.parseBoolean(query.get("same_coach")));
+            boolean wholeRoute = source.isEmpty() || destination.isEmpty();
+            List<int[]> seats = bookingService.allocateSeats(train, runDate(query.getOrDefault("date", "")),
+                    wholeRoute ? null : source, wholeRoute ? null : destination, party, preferences);
+            if (seats == null) {
+                return Response.error(409, "no seats for a party of " + party + " as asked");
+            }
+            List<Map<String, Integer>> body = new ArrayList<>();
+            for (int[] seat : seats) {
+                body.add(Map.of("row", seat[0], "seat", seat[1]));
+            }
+            return new Response(200, Map.of("train_id", train.getTrainId(), "seats", body));
+        }
+        if (path.length != 1) {
+            return Response.error(404, "not found");
+        }
+        if (source.isEmpty() || destination.isEmpty()) {
+            return Response.error(400, "source and destination are required");
+        }
+        List<Map<String, Object>> results = new ArrayList<>();
+        for (Train train : bookingService.getTrains(source, destination)) {
+            Map<String, Object> summary = new LinkedHashMap<>();
+            summary.put("train_id", train.getTrainId());
+            summary.put("train_no", train.getTrainNo());
+            summary.put("stations", train.getStations());
+            summary.put("station_times", train.getStationTimes());
+            results.add(summary);
+        }
+        return new Response(200, results);
+    }
+
+    private Response journeys(HttpExchange exchange) {
+        requireMethod(exchange, "GET");
+        Map<String, String> query = query(exchange);
+        String source = query.getOrDefault("source", "");
+        String destination = query.getOrDefault("destination", "");
+        if (source.isEmpty() || destination.isEmpty()) {
+            return Response.error(400, "source and destination are required");
+        }
+        LocalTime after;
+        int transfers;
+        try {
+            after = query.containsKey("after") ? LocalTime.parse(query.get("after")) : LocalTime.MIDNIGHT;
+            transfers = Integer.parseInt(query.getOrDefault("transfers", "2"));
+        } catch (RuntimeException e) {
+            return Response.error(400, "after must be HH:mm and transfers a number");
+        }
+        return new Response(200, bookingService.planJourney(source, destination, after, transfers));
+    }
+
+    private Response bookings(HttpExchange exchange) throws IOException {
+        User user = authenticatedUser(exchange);
+        if (user == null) {
+            return Response.error(401, "login required");
+        }
+        String[] path = pathSegments(exchange);
+        String method = exchange.getRequestMethod();
+
+        if (method.equals("GET") && path.length == 1) {
+            synchronized (user) {
+                return new Response(200, new ArrayList<>(user.getTicketsBooked()));
+            }
+        }
+        if (method.equals("POST") && path.length == 1) {
+            SeatRequest request = seatRequest(exchange, true);
+            Ticket ticket = bookingService.bookTrainSeat(user, request.train, request.runDate, request.row, request.seat,
+                    request.source, request.destination);
+            return ticket != null
+                    ? new Response(201, ticket)
+                    : Response.error(409, "seat " + request.row + "/" + request.seat + " is not available");
+        }
+        if (method.equals("POST") && path.length == 2 && path[1].equals("batch")) {
+            JsonNode bookings = readBody(exchange).path("bookings");
+            if (!bookings.isArray() || bookings.isEmpty()) {
+                throw new ApiException(400, "bookings must be a non-empty array");
+            }
+            // Checked before binding: a null item can't be bound, and a missing row or seat would bind as 0
+            for (JsonNode item : bookings) {
+                if (!item.isObject() || !item.hasNonNull("row") || !item.hasNonNull("seat")) {
+                    throw new ApiException(400, "every booking must be an object with a row and a seat");
+                }
+            }
+            List<BookingRequest> requests = List.of(objectMapper.treeToValue(bookings, BookingRequest[].class));
+            for (BookingRequest request : requests) {
+                checkBatchItem(request);
+            }
+            List<Ticket> tickets = bookingService.bookSeats(user, requests);
+            return tickets != null
+                    ? new Response(201, tickets)
+                    : Response.error(409, "not every seat could be booked, nothing was booked");
+        }
+        if (method.equals("DELETE") && path.length == 2) {
+            return bookingService.cancelBooking(user, path[1])
+                    ? new Response(200, Map.of("cancelled", path[1]))
+                    : Response.error(404, "no ticket " + path[1]);
+        }
+        throw new ApiException(405, "method not allowed");
+    }
+
+    private Response holds(HttpExchange exchange) throws IOException {
+        User user = authenticatedUser(exchange);
+        if (user == null) {
+            return Response.error(401, "login required");
+        }
+        String[] path = pathSegments(exchange);
+        String method = exchange.getRequestMethod();
+
+        if (method.equals("POST") && path.length == 1) {
+            SeatRequest request = seatRequest(exchange, true);
+            SeatHold hold = bookingService.holdSeat(user, request.train, request.runDate, request.row, request.seat,
+                    request.source, request.destination);
+            return hold != null
+                    ? new Response(201, hold)
+                    : Response.error(409, "seat " + request.row + "/" + request.seat + " is not available");
+        }
+        if (method.equals("POST") && path.length == 3 && path[2].equals("confirm")) {
+            Ticket ticket = bookingService.confirmHold(user, path[1]);
+            return ticket != null
+                    ? new Response(201, ticket)
+                    : Response.error(410, "hold " + path[1] + " has expired or does not exist");
+        }
+        if (method.equals("DELETE") && path.length == 2) {
+            return bookingService.releaseHold(user, path[1])
+                    ? new Response(200, Map.of("released", path[1]))
+                    : Response.error(404, "no hold " + path[1]);
+        }
+        throw new ApiException(405, "method not allowed");
+    }
+
+    private Response waitlist(HttpExchange exchange) throws IOException {
+        User user = authenticatedUser(exchange);
+        if (user == null) {
+            return Response.error(401, "login required");
+        }
+        String[] path = pathSegments(exchange);
+        String method = exchange.getRequestMethod();
+
+        if (method.equals("GET") && path.length == 1) {
+            return new Response(200, bookingService.waitlist(user));
+        }
+        if (method.equals("POST") && path.length == 1) {
+            SeatRequest request = seatRequest(exchange, false);
+            WaitlistEntry entry = bookingService.joinWaitlist(user, request.train, request.runDate,
+                    request.source, request.destination);
+            return entry != null
+                    ? new Response(201, entry)
+                    : Response.error(409, "seats are still available on this leg");
+        }
+        if (method.equals("DELETE") && path.length == 2) {
+            return bookingService.leaveWaitlist(user, path[1])
+                    ? new Response(200, Map.of("left", path[1]))
+                    : Response.error(404, "no waitlist entry " + path[1]);
+        }
+        throw new ApiException(405, "method not allowed");
+    }
+
+    // Body shared by POST /bookings, POST /holds and, without a seat, POST /waitlist
+    private SeatRequest seatRequest(HttpExchange exchange, boolean withSeat) throws IOException {
+        JsonNode body = readBody(exchange);
+        if (text(body, "train_id").isEmpty()) {
+            throw new ApiException(400, "train_id is required");
+        }
+        Train train = bookingService.getTrain(text(body, "train_id"));
+        if (train == null) {
+            throw new ApiException(404, "no train " + text(body, "train_id"));
+        }
+        LocalDate runDate = runDate(text(body, "date"));
+        if (runDate.isBefore(LocalDate.now())) {
+            throw new ApiException(400, "the " + runDate + " run has already departed");
+        }
+        String source = text(body, "source");
+        String destination = text(body, "destination");
+        boolean wholeRoute = source.isEmpty() || destination.isEmpty();
+        checkLeg(train, wholeRoute ? null : source, wholeRoute ? null : destination);
+        int row = body.path("row").asInt(-1);
+        int seat = body.path("seat").asInt(-1);
+        if (withSeat && !train.getInventory().isValidSeat(row, seat)) {
+            throw new ApiException(400, "no seat " + row + "/" + seat + " on train " + train.getTrainId());
+        }
+        return new SeatRequest(train, runDate, row, seat, wholeRoute ? null : source, wholeRoute ? null : destination);
+    }
+
+    // Anything the service would fail on as a bad seat or leg, rather than a taken one
+    private void checkBatchItem(BookingRequest request) {
+        if (request.getTrainId() == null || request.getTrainId().isBlank()) {
+            throw new ApiException(400, "train_id is required");
+        }
+        Train train = bookingService.getTrain(request.getTrainId());
+        if (train == null) {
+            throw new ApiException(404, "no train " + request.getTrainId());
+        }
+        LocalDate runDate = runDate(request.getDate() == null ? "" : request.getDate().trim());
+        if (runDate.isBefore(LocalDate.now())) {
+            throw new ApiException(400, "the " + runDate + " run has already departed");
+        }
+        boolean wholeRoute = request.getSource() == null || request.getSource().isBlank()
+                || request.getDestination() == null || request.getDestination().isBlank();
+        checkLeg(train, wholeRoute ? null : request.getSource().trim(), wholeRoute ? null : request.getDestination().trim());
+        if (!train.getInventory().isValidSeat(request.getRow(), request.getSeat())) {
+            throw new ApiException(400, "no seat " + request.getRow() + "/" + request.getSeat() + " on train " + train.getTrainId());
+        }
+    }
+
+    private static void checkLeg(Train train, String source, String destination) {
+        if (source == null) {
+            return;
+        }
+        int from = train.stationIndex(source);
+        int to = train.stationIndex(destination);
+        if (from < 0 || to <= from) {
+            throw new ApiException(400, "train " + train.getTrainId() + " does not run from " + source + " to " + destination);
+        }
+    }
+
+    private User authenticatedUser(HttpExchange exchange) {
+        return bookingService.getUser(sessions.resolve(bearerToken(exchange)));
+    }
+
+    // Plain text for scrapers, so it skips the JSON handling in handle()
+    private void metrics(HttpExchange exchange) throws IOException {
+        if (!"GET".equals(exchange.getRequestMethod())) {
+            handle(exchange, e -> Response.error(405, "method not allowed"));
+            return;
+        }
+        byte[] bytes = Metrics.getInstance().prometheus().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private void handle(HttpExchange exchange, Route route) throws IOException {
+        Response response;
+        try {
+            response = route.handle(exchange);
+        } catch (ApiException e) {
+            response = Response.error(e.status, e.getMessage());
+        } catch (JsonParseException e) {
+            response = Response.error(400, "body is not valid JSON");
+        } catch (JsonProcessingException e) {
+            response = Response.error(400, "malformed request: " + e.getOriginalMessage());
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RejectedExecutionException || e.getCause() instanceof TimeoutException) {
+                // The bcrypt pool is full or timed out: tell the client to back off
+                response = Response.error(503, "busy, try again: " + e.getCause().getMessage());
+            } else {
+                LOG.error("{} {} failed", exchange.getRequestMethod(), exchange.getRequestURI(), e.getCause());
+                response = Response.error(500, "internal error");
+            }
+        } catch (Exception e) {
+            LOG.error("{} {} failed", exchange.getRequestMethod(), exchange.getRequestURI(), e);
+            response = Response.error(500, "internal error");
+        }
+        byte[] bytes = objectMapper.writeValueAsBytes(response.body);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(response.status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private JsonNode readBody(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] bytes = in.readNBytes(MAX_BODY_BYTES + 1);
+            if (bytes.length > MAX_BODY_BYTES) {
+                throw new ApiException(413, "request body is over " + MAX_BODY_BYTES + " bytes");
+            }
+            JsonNode body = objectMapper.readTree(bytes);
+            if (body == null || !body.isObject()) {
+                throw new ApiException(400, "expected a JSON object body");
+            }
+            return body;
+        }
+    }
+
+    private static void requireMethod(HttpExchange exchange, String method) {
+        if (!exchange.getRequestMethod().equals(method)) {
+            throw new ApiException(405, "use " + method);
+        }
+    }
+
+    private static String text(JsonNode body, String field) {
+        return body.path(field).asText("").trim();
+    }
+
+    // Blank means today's run
+    private static LocalDate runDate(String date) {
+        try {
+            return date.isEmpty() ? LocalDate.now() : LocalDate.parse(date);
+        } catch (RuntimeException e) {
+            throw new ApiException(400, "date must be yyyy-mm-dd");
+        }
+    }
+
+    private static String bearerToken(HttpExchange exchange) {
+        String header = exchange.getRequestHeaders().getFirst("Authorization");
+        return header != null && header.startsWith("Bearer ") ? header.substring(7).trim() : null;
+    }
+
+    private static String[] pathSegments(HttpExchange exchange) {
+        String path = exchange.getRequestURI().getPath();
+        return path.replaceAll("^/+|/+$", "").split("/+");
+    }
+
+    private static Map<String, String> query(HttpExchange exchange) {
+        Map<String, String> params = new HashMap<>();
+        String raw = exchange.getRequestURI().getRawQuery();
+        if (raw == null) {
+            return params;
+        }
+        for (String pair : raw.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) {
+                params.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8).trim());
+            }
+        }
+        return params;
+    }
+
+    private interface Route {
+        Response handle(HttpExchange exchange) throws IOException;
+    }
+
+    private static final class Response {
+        final int status;
+        final Object body;
+
+        Response(int status, Object body) {
+            this.status = status;
+            this.body = body;
+        }
+
+        static Response error(int status, String message) {
+            return new Response(status, Map.of("error", message));
+        }
+    }
+
+    private static final class SeatRequest {
+        final Train train;
+        final LocalDate runDate;
+        final int row;
+        final int seat;
+        final String source; // null = whole route
+        final String destination;
+
+        SeatRequest(Train train, LocalDate runDate, int row, int seat, String source, String destination) {
+            this.train = train;
+            this.runDate = runDate;
+            this.row = row;
+            this.seat = seat;
+            this.source = source;
+            this.destination = destination;
+        }
+    }
+
+    private static final class ApiException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        final int status;
+
+        ApiException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+}
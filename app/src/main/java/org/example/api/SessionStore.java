@@ -0,0 +1,62 @@
+package org.example.api;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Login sessions for the HTTP API: an opaque bearer token maps to the logged-in userId.
+ * Replaces the single {@code user} field of the console app, so every client has its own
+ * login. Sessions expire after {@code irctc.http.sessionTtlMinutes} (default 30) of inactivity.
+ */
+public class SessionStore {
+    private static final long TTL_MILLIS = Long.getLong("irctc.http.sessionTtlMinutes", 30) * 60_000L;
+
+    private final SecureRandom random = new SecureRandom();
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+
+    public String create(String userId) {
+        byte[] bytes = new byte[24];
+        random.nextBytes(bytes);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        sessions.put(token, new Session(userId, System.currentTimeMillis() + TTL_MILLIS));
+        return token;
+    }
+
+    // userId for a live token, sliding its expiry forward; null if unknown or expired
+    public String resolve(String token) {
+        if (token == null) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        Session session = sessions.computeIfPresent(token,
+                (key, current) -> current.expiresAt < now ? null : new Session(current.userId, now + TTL_MILLIS));
+        return session == null ? null : session.userId;
+    }
+
+    public void remove(String token) {
+        if (token != null) {
+            sessions.remove(token);
+        }
+    }
+
+    public void evictExpired() {
+        long now = System.currentTimeMillis();
+        sessions.values().removeIf(session -> session.expiresAt < now);
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    private static final class Session {
+        final String userId;
+        final long expiresAt;
+
+        Session(String userId, long expiresAt) {
+            this.userId = userId;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
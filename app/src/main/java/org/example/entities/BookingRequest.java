@@ -0,0 +1,73 @@
+package org.example.entities;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+// One seat of a batch booking; no source/destination means the whole route, no date means today
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class BookingRequest {
+    private String trainId;
+    private String date;
+    private int row;
+    private int seat;
+    private String source;
+    private String destination;
+
+    public BookingRequest() {}
+
+    public BookingRequest(String trainId, String date, int row, int seat, String source, String destination) {
+        this.trainId = trainId;
+        this.date = date;
+        this.row = row;
+        this.seat = seat;
+        this.source = source;
+        this.destination = destination;
+    }
+
+    public String getTrainId() {
+        return trainId;
+    }
+
+    public void setTrainId(String trainId) {
+        this.trainId = trainId;
+    }
+
+    public String getDate() {
+        return date;
+    }
+
+    public void setDate(String date) {
+        this.date = date;
+    }
+
+    public int getRow() {
+        return row;
+    }
+
+    public void setRow(int row) {
+        this.row = row;
+    }
+
+    public int getSeat() {
+        return seat;
+    }
+
+    public void setSeat(int seat) {
+        this.seat = seat;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public void setSource(String source) {
+        this.source = source;
+    }
+
+    public String getDestination() {
+        return destination;
+    }
+
+    public void setDestination(String destination) {
+        this.destination = destination;
+    }
+}
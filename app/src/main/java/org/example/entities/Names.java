@@ -0,0 +1,64 @@
+package org.example.entities;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+/**
+ * Shared instances of the strings every entity repeats. Station names go into a dictionary
+ * with a dense int id each, so a train's route and a ticket's ends are ints and every copy
+ * of "delhi" in the heap is the same String. Train and user ids are interned weakly, so an
+ * id nobody refers to any more can still be collected.
+ *
+ * <p>Ids are only good for the life of the process; files always hold the names. Only train
+ * routes add stations, so the dictionary never holds more than the timetable's stops (old
+ * ones included, as nothing is taken out); everything else just looks names up.
+ */
+public final class Names {
+    private static final Map<String, Integer> STATION_IDS = new ConcurrentHashMap<>();
+    private static final Interner<String> IDS = Interners.newWeakInterner();
+    private static volatile String[] stationNames = new String[64];
+    private static int stationCount; // guarded by Names.class
+
+    private Names() {
+    }
+
+    // Id of the station, added to the dictionary if new; names are kept as given, case included
+    public static int stationId(String name) {
+        Integer id = STATION_IDS.get(name);
+        return id != null ? id : addStation(name);
+    }
+
+    // Id of a station already in the dictionary, or -1
+    public static int findStation(String name) {
+        Integer id = name == null ? null : STATION_IDS.get(name);
+        return id == null ? -1 : id;
+    }
+
+    public static String stationName(int id) {
+        return stationNames[id];
+    }
+
+    public static String id(String id) {
+        return id == null ? null : IDS.intern(id);
+    }
+
+    private static synchronized int addStation(String name) {
+        Integer id = STATION_IDS.get(name);
+        if (id != null) {
+            return id;
+        }
+        String[] names = stationNames;
+        if (stationCount == names.length) {
+            names = Arrays.copyOf(names, names.length * 2);
+        }
+        names[stationCount] = name;
+        // Publish the array before the id, so a reader holding the id always finds the name
+        stationNames = names;
+        STATION_IDS.put(name, stationCount);
+        return stationCount++;
+    }
+}
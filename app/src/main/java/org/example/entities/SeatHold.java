@@ -0,0 +1,124 @@
+package org.example.entities;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+// A seat taken out of a run's inventory while the user pays; becomes a ticket on confirm or goes back on expiry
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class SeatHold {
+    private String holdId;
+    private String userId;
+    private String trainId;
+    private String runDate;
+    private String source;
+    private String destination;
+    private int row;
+    private int seat;
+    private int fromSegment;
+    private int toSegment;
+    private long expiresAt; // epoch millis
+
+    public SeatHold() {}
+
+    public SeatHold(String holdId, String userId, String trainId, String runDate, String source, String destination,
+                    int row, int seat, int fromSegment, int toSegment, long expiresAt) {
+        this.holdId = holdId;
+        this.userId = userId;
+        this.trainId = trainId;
+        this.runDate = runDate;
+        this.source = source;
+        this.destination = destination;
+        this.row = row;
+        this.seat = seat;
+        this.fromSegment = fromSegment;
+        this.toSegment = toSegment;
+        this.expiresAt = expiresAt;
+    }
+
+    public String getHoldId() {
+        return holdId;
+    }
+
+    public void setHoldId(String holdId) {
+        this.holdId = holdId;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public void setUserId(String userId) {
+        this.userId = userId;
+    }
+
+    public String getTrainId() {
+        return trainId;
+    }
+
+    public void setTrainId(String trainId) {
+        this.trainId = trainId;
+    }
+
+    public String getRunDate() {
+        return runDate;
+    }
+
+    public void setRunDate(String runDate) {
+        this.runDate = runDate;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public void setSource(String source) {
+        this.source = source;
+    }
+
+    public String getDestination() {
+        return destination;
+    }
+
+    public void setDestination(String destination) {
+        this.destination = destination;
+    }
+
+    public int getRow() {
+        return row;
+    }
+
+    public void setRow(int row) {
+        this.row = row;
+    }
+
+    public int getSeat() {
+        return seat;
+    }
+
+    public void setSeat(int seat) {
+        this.seat = seat;
+    }
+
+    public int getFromSegment() {
+        return fromSegment;
+    }
+
+    public void setFromSegment(int fromSegment) {
+        this.fromSegment = fromSegment;
+    }
+
+    public int getToSegment() {
+        return toSegment;
+    }
+
+    public void setToSegment(int toSegment) {
+        this.toSegment = toSegment;
+    }
+
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+
+    public void setExpiresAt(long expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+}
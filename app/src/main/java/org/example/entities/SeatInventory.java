@@ -0,0 +1,523 @@
+package org.example.entities;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Packed seat bitmap for one train. Every row of the legacy {@code seats} matrix is
+ * stored as a run of 64-bit words (bit set = booked) and seats are claimed with CAS,
+ * so two bookers can never both get the same seat.
+ *
+ * <p>Occupancy is kept per station segment (segment {@code s} runs from station
+ * {@code s} to station {@code s + 1}), one bitmap per segment, so a seat sold for
+ * the first half of the route can be resold for the second half. There is no limit on
+ * the number of segments; only the per-seat masks ({@link #toSegmentMasks}) take one more
+ * long for every 64.
+ *
+ * <p>The words normally live on the heap; {@link #overBuffer} puts them in a direct
+ * (e.g. memory-mapped) buffer instead, so a booking flips the bits in place.
+ */
+public class SeatInventory {
+    private final int[] rowLengths;
+    private final int[] rowOffsets; // first word index of every row inside a segment
+    private final int segments;
+    private final int stride; // words per segment
+    private final Words words;
+
+    public SeatInventory(int[] rowLengths) {
+        this(rowLengths, 1);
+    }
+
+    public SeatInventory(int[] rowLengths, int segments) {
+        this(rowLengths, segments, null);
+    }
+
+    private SeatInventory(int[] rowLengths, int segments, ByteBuffer buffer) {
+        if (segments < 1) {
+            throw new IllegalArgumentException("Segments must be at least 1: " + segments);
+        }
+        this.rowLengths = rowLengths.clone();
+        this.rowOffsets = new int[rowLengths.length];
+        int totalWords = 0;
+        for (int row = 0; row < rowLengths.length; row++) {
+            rowOffsets[row] = totalWords;
+            totalWords += wordsFor(rowLengths[row]);
+        }
+        this.segments = segments;
+        this.stride = totalWords;
+        this.words = buffer == null ? new HeapWords(totalWords * segments) : new BufferWords(buffer, totalWords * segments);
+    }
+
+    /**
+     * Inventory whose words are the first {@link #wordCount} longs of the buffer, little-endian,
+     * read and CASed in place. The buffer must be direct and 8-byte aligned.
+     */
+    public static SeatInventory overBuffer(int[] rowLengths, int segments, ByteBuffer buffer) {
+        if (!buffer.isDirect()) {
+            throw new IllegalArgumentException("Seat words need a direct buffer");
+        }
+        return new SeatInventory(rowLengths, segments, buffer);
+    }
+
+    // Longs needed to hold a layout's bitmaps
+    public static int wordCount(int[] rowLengths, int segments) {
+        int total = 0;
+        for (int length : rowLengths) {
+            total += wordsFor(length);
+        }
+        return total * segments;
+    }
+
+    public static SeatInventory fromMatrix(List<List<Integer>> seats) {
+        return fromMatrix(seats, 1);
+    }
+
+    // A non-zero entry in the legacy matrix means the seat is taken for the whole route
+    public static SeatInventory fromMatrix(List<List<Integer>> seats, int segments) {
+        SeatInventory inventory = new SeatInventory(rowLengthsOf(seats), segments);
+        for (int row = 0; seats != null && row < seats.size(); row++) {
+            List<Integer> rowSeats = seats.get(row);
+            for (int seat = 0; seat < rowSeats.size(); seat++) {
+                Integer value = rowSeats.get(seat);
+                if (value != null && value != 0) {
+                    inventory.tryBook(row, seat);
+                }
+            }
+        }
+        return inventory;
+    }
+
+    // Rebuilds from per-seat interval masks (bit s set = segment s taken) as written by toSegmentMasks
+    public static SeatInventory fromSegmentMasks(List<List<Long>> masks, int segments) {
+        int maskWords = maskWords(segments);
+        int[] rowLengths = new int[masks.size()];
+        for (int row = 0; row < rowLengths.length; row++) {
+            rowLengths[row] = masks.get(row).size() / maskWords;
+        }
+        SeatInventory inventory = new SeatInventory(rowLengths, segments);
+        for (int row = 0; row < rowLengths.length; row++) {
+            List<Long> rowMasks = masks.get(row);
+            for (int seat = 0; seat < rowLengths[row]; seat++) {
+                for (int s = 0; s < segments; s++) {
+                    Long mask = rowMasks.get(seat * maskWords + (s >>> 6));
+                    if (mask != null && (mask & (1L << (s & 63))) != 0) {
+                        inventory.setBit(s, inventory.wordIndex(row, seat), bit(seat));
+                    }
+                }
+            }
+        }
+        return inventory;
+    }
+
+    // Longs per seat in the segment masks: one for every 64 segments
+    public static int maskWords(int segments) {
+        return (segments + 63) >>> 6;
+    }
+
+    // Independent heap copy with the same layout and bookings
+    public SeatInventory copy() {
+        SeatInventory copy = new SeatInventory(rowLengths, segments);
+        copy.copyFrom(this);
+        return copy;
+    }
+
+    // Overwrites every booking with the source's; the layouts must match
+    public void copyFrom(SeatInventory source) {
+        if (source.segments != segments || !Arrays.equals(source.rowLengths, rowLengths)) {
+            throw new IllegalArgumentException("Seat layouts differ");
+        }
+        for (int i = 0; i < words.length(); i++) {
+            words.set(i, source.words.get(i));
+        }
+    }
+
+    // Same layout, with the same seats taken on the same segments
+    public boolean sameBookings(SeatInventory other) {
+        if (other.segments != segments || !Arrays.equals(other.rowLengths, rowLengths)) {
+            return false;
+        }
+        for (int i = 0; i < words.length(); i++) {
+            if (words.get(i) != other.words.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int[] rowLengths() {
+        return rowLengths.clone();
+    }
+
+    public List<List<Integer>> toMatrix() {
+        return toMatrix(0, segments);
+    }
+
+    // 1 = seat is taken somewhere on segments [from, to)
+    public List<List<Integer>> toMatrix(int from, int to) {
+        checkSegments(from, to);
+        List<List<Integer>> seats = new ArrayList<>(rowLengths.length);
+        for (int row = 0; row < rowLengths.length; row++) {
+            List<Integer> rowSeats = new ArrayList<>(rowLengths[row]);
+            for (int seat = 0; seat < rowLengths[row]; seat++) {
+                rowSeats.add(isFree(row, seat, from, to) ? 0 : 1);
+            }
+            seats.add(rowSeats);
+        }
+        return seats;
+    }
+
+    // Immutable view of which seats are free on all of [from, to), labelled with the caller's version
+    public SeatMap snapshot(int from, int to, long version) {
+        checkSegments(from, to);
+        long[] free = new long[stride];
+        for (int row = 0; row < rowLengths.length; row++) {
+            int rowWords = wordsFor(rowLengths[row]);
+            for (int w = 0; w < rowWords; w++) {
+                free[rowOffsets[row] + w] = freeWord(row, w, from, to);
+            }
+        }
+        return new SeatMap(version, from, to, rowLengths, rowOffsets, free);
+    }
+
+    // One list per row holding maskWords(segments) longs per seat, in seat order; for routes of up
+    // to 64 segments that is a single mask per seat
+    public List<List<Long>> toSegmentMasks() {
+        int maskWords = maskWords(segments);
+        List<List<Long>> masks = new ArrayList<>(rowLengths.length);
+        for (int row = 0; row < rowLengths.length; row++) {
+            List<Long> rowMasks = new ArrayList<>(rowLengths[row] * maskWords);
+            for (int seat = 0; seat < rowLengths[row]; seat++) {
+                for (int w = 0; w < maskWords; w++) {
+                    rowMasks.add(segmentMask(row, seat, w));
+                }
+            }
+            masks.add(rowMasks);
+        }
+        return masks;
+    }
+
+    // True when some seat is taken on only part of the route, i.e. the plain matrix would lose information
+    public boolean hasPartialBookings() {
+        for (int row = 0; row < rowLengths.length; row++) {
+            for (int seat = 0; seat < rowLengths[row]; seat++) {
+                int taken = bookedSegments(row, seat);
+                if (taken != 0 && taken != segments) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    public int rows() {
+        return rowLengths.length;
+    }
+
+    public int seatsInRow(int row) {
+        return rowLengths[row];
+    }
+
+    public int segments() {
+        return segments;
+    }
+
+    public boolean isValidSeat(int row, int seat) {
+        return row >= 0 && row < rowLengths.length && seat >= 0 && seat < rowLengths[row];
+    }
+
+    public boolean isBooked(int row, int seat) {
+        return !isFree(row, seat, 0, segments);
+    }
+
+    public boolean isFree(int row, int seat, int from, int to) {
+        checkSeat(row, seat);
+        checkSegments(from, to);
+        int index = wordIndex(row, seat);
+        long mask = bit(seat);
+        for (int s = from; s < to; s++) {
+            if ((words.get(s * stride + index) & mask) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public boolean tryBook(int row, int seat) {
+        return tryBook(row, seat, 0, segments);
+    }
+
+    // Atomically claims the seat on every segment in [from, to). If any segment is already
+    // taken the segments claimed so far are handed back and nothing changes.
+    public boolean tryBook(int row, int seat, int from, int to) {
+        checkSeat(row, seat);
+        checkSegments(from, to);
+        int index = wordIndex(row, seat);
+        long mask = bit(seat);
+        for (int s = from; s < to; s++) {
+            if (!setBit(s, index, mask)) {
+                for (int claimed = from; claimed < s; claimed++) {
+                    clearBit(claimed, index, mask);
+                }
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Sets the seat on every segment in [from, to) whether or not some already were; for
+    // replaying a booking that was logged, where the bits may already be ahead of the log
+    public void markBooked(int row, int seat, int from, int to) {
+        checkSeat(row, seat);
+        checkSegments(from, to);
+        int index = wordIndex(row, seat);
+        long mask = bit(seat);
+        for (int s = from; s < to; s++) {
+            setBit(s, index, mask);
+        }
+    }
+
+    public boolean release(int row, int seat) {
+        return release(row, seat, 0, segments);
+    }
+
+    // Frees the seat on segments [from, to); returns false if none of them was booked.
+    public boolean release(int row, int seat, int from, int to) {
+        checkSeat(row, seat);
+        checkSegments(from, to);
+        int index = wordIndex(row, seat);
+        long mask = bit(seat);
+        boolean released = false;
+        for (int s = from; s < to; s++) {
+            released |= clearBit(s, index, mask);
+        }
+        return released;
+    }
+
+    /**
+     * Finds the first seat that is free on every segment in [from, to). Returns the seat
+     * packed as {@code row << 32 | seat} (see {@link #rowOf} / {@link #seatOf}) or -1.
+     */
+    public long firstFreeSeat(int from, int to) {
+        checkSegments(from, to);
+        for (int row = 0; row < rowLengths.length; row++) {
+            int seat = firstFreeSeatInRow(row, from, to);
+            if (seat >= 0) {
+                return ((long) row << 32) | seat;
+            }
+        }
+        return -1;
+    }
+
+    public int firstFreeSeatInRow(int row, int from, int to) {
+        checkSegments(from, to);
+        int rowWords = wordsFor(rowLengths[row]);
+        for (int w = 0; w < rowWords; w++) {
+            long free = freeWord(row, w, from, to);
+            if (free != 0) {
+                return (w << 6) + Long.numberOfTrailingZeros(free);
+            }
+        }
+        return -1;
+    }
+
+    // Bits of the 64 seats in word w of the row that are free on all of [from, to)
+    public long freeWord(int row, int w, int from, int to) {
+        int index = rowOffsets[row] + w;
+        long occupied = 0;
+        for (int s = from; s < to; s++) {
+            occupied |= words.get(s * stride + index);
+        }
+        return ~occupied & validMask(row, w);
+    }
+
+    public static int rowOf(long packedSeat) {
+        return (int) (packedSeat >>> 32);
+    }
+
+    public static int seatOf(long packedSeat) {
+        return (int) packedSeat;
+    }
+
+    public int freeSeats() {
+        return freeSeats(0, segments);
+    }
+
+    public int freeSeats(int from, int to) {
+        checkSegments(from, to);
+        int free = 0;
+        for (int row = 0; row < rowLengths.length; row++) {
+            for (int w = 0; w < wordsFor(rowLengths[row]); w++) {
+                free += Long.bitCount(freeWord(row, w, from, to));
+            }
+        }
+        return free;
+    }
+
+    public int totalSeats() {
+        int total = 0;
+        for (int length : rowLengths) {
+            total += length;
+        }
+        return total;
+    }
+
+    // Bits of segments [64w, 64w + 64) the seat is taken on
+    private long segmentMask(int row, int seat, int w) {
+        int index = wordIndex(row, seat);
+        long bit = bit(seat);
+        long mask = 0;
+        for (int s = w << 6; s < Math.min(segments, (w + 1) << 6); s++) {
+            if ((words.get(s * stride + index) & bit) != 0) {
+                mask |= 1L << (s & 63);
+            }
+        }
+        return mask;
+    }
+
+    private int bookedSegments(int row, int seat) {
+        int index = wordIndex(row, seat);
+        long bit = bit(seat);
+        int taken = 0;
+        for (int s = 0; s < segments; s++) {
+            if ((words.get(s * stride + index) & bit) != 0) {
+                taken++;
+            }
+        }
+        return taken;
+    }
+
+    private boolean setBit(int segment, int index, long mask) {
+        int slot = segment * stride + index;
+        while (true) {
+            long current = words.get(slot);
+            if ((current & mask) != 0) {
+                return false;
+            }
+            if (words.compareAndSet(slot, current, current | mask)) {
+                return true;
+            }
+        }
+    }
+
+    private boolean clearBit(int segment, int index, long mask) {
+        int slot = segment * stride + index;
+        while (true) {
+            long current = words.get(slot);
+            if ((current & mask) == 0) {
+                return false;
+            }
+            if (words.compareAndSet(slot, current, current & ~mask)) {
+                return true;
+            }
+        }
+    }
+
+    private long validMask(int row, int w) {
+        int remaining = rowLengths[row] - (w << 6);
+        return remaining >= 64 ? -1L : (1L << remaining) - 1;
+    }
+
+    private int wordIndex(int row, int seat) {
+        return rowOffsets[row] + (seat >>> 6);
+    }
+
+    private static long bit(int seat) {
+        return 1L << (seat & 63);
+    }
+
+    private static int wordsFor(int seats) {
+        return (seats + 63) >>> 6;
+    }
+
+    private static int[] rowLengthsOf(List<List<Integer>> seats) {
+        int[] rowLengths = new int[seats == null ? 0 : seats.size()];
+        for (int row = 0; row < rowLengths.length; row++) {
+            rowLengths[row] = seats.get(row).size();
+        }
+        return rowLengths;
+    }
+
+    private void checkSeat(int row, int seat) {
+        if (!isValidSeat(row, seat)) {
+            throw new IndexOutOfBoundsException("No seat at row " + row + ", seat " + seat);
+        }
+    }
+
+    private void checkSegments(int from, int to) {
+        if (from < 0 || to > segments || from >= to) {
+            throw new IndexOutOfBoundsException("Invalid segment range [" + from + ", " + to + ") of " + segments);
+        }
+    }
+
+    private interface Words {
+        long get(int index);
+
+        void set(int index, long value);
+
+        boolean compareAndSet(int index, long expected, long value);
+
+        int length();
+    }
+
+    private static final class HeapWords implements Words {
+        private final AtomicLongArray words;
+
+        HeapWords(int length) {
+            this.words = new AtomicLongArray(length);
+        }
+
+        public long get(int index) {
+            return words.get(index);
+        }
+
+        public void set(int index, long value) {
+            words.set(index, value);
+        }
+
+        public boolean compareAndSet(int index, long expected, long value) {
+            return words.compareAndSet(index, expected, value);
+        }
+
+        public int length() {
+            return words.length();
+        }
+    }
+
+    // Volatile reads and CAS straight on the buffer's memory, no copying in or out
+    private static final class BufferWords implements Words {
+        private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+        private final ByteBuffer buffer;
+        private final int length;
+
+        BufferWords(ByteBuffer buffer, int length) {
+            if (buffer.capacity() < (long) length * Long.BYTES) {
+                throw new IllegalArgumentException("Buffer holds " + buffer.capacity() + " bytes, need " + length * Long.BYTES);
+            }
+            this.buffer = buffer;
+            this.length = length;
+        }
+
+        public long get(int index) {
+            return (long) LONGS.getVolatile(buffer, index << 3);
+        }
+
+        public void set(int index, long value) {
+            LONGS.setVolatile(buffer, index << 3, value);
+        }
+
+        public boolean compareAndSet(int index, long expected, long value) {
+            return LONGS.compareAndSet(buffer, index << 3, expected, value);
+        }
+
+        public int length() {
+            return length;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package org.example.entities;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable availability of one leg (segments {@code [from, to)}) of a seat inventory, taken
+ * at some inventory version. Built once and shared by every reader until the next booking
+ * on the run commits, so browsing never touches the live bitmaps.
+ */
+public final class SeatMap {
+    private final long version;
+    private final int from;
+    private final int to;
+    private final int[] rowLengths;
+    private final int[] rowOffsets;
+    private final long[] free; // bit set = seat free on the whole leg
+    private final int[] freeInRow;
+    private final int[] longestRun; // longest stretch of adjacent free seats per row
+    private final int freeSeats;
+
+    SeatMap(long version, int from, int to, int[] rowLengths, int[] rowOffsets, long[] free) {
+        this.version = version;
+        this.from = from;
+        this.to = to;
+        this.rowLengths = rowLengths;
+        this.rowOffsets = rowOffsets;
+        this.free = free;
+        this.freeInRow = new int[rowLengths.length];
+        int total = 0;
+        for (int row = 0; row < rowLengths.length; row++) {
+            int end = row + 1 < rowOffsets.length ? rowOffsets[row + 1] : free.length;
+            for (int w = rowOffsets[row]; w < end; w++) {
+                freeInRow[row] += Long.bitCount(free[w]);
+            }
+            total += freeInRow[row];
+        }
+        this.freeSeats = total;
+        this.longestRun = new int[rowLengths.length];
+        for (int row = 0; row < rowLengths.length; row++) {
+            for (int start = nextFree(row, 0); start >= 0; ) {
+                int end = nextTaken(row, start);
+                longestRun[row] = Math.max(longestRun[row], end - start);
+                start = nextFree(row, end);
+            }
+        }
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public int getFromSegment() {
+        return from;
+    }
+
+    public int getToSegment() {
+        return to;
+    }
+
+    public int rows() {
+        return rowLengths.length;
+    }
+
+    public int seatsInRow(int row) {
+        return rowLengths[row];
+    }
+
+    public boolean isFree(int row, int seat) {
+        return (free[rowOffsets[row] + (seat >>> 6)] & (1L << (seat & 63))) != 0;
+    }
+
+    // Free seats in the coach, precomputed
+    public int freeInRow(int row) {
+        return freeInRow[row];
+    }
+
+    public int longestFreeRun(int row) {
+        return longestRun[row];
+    }
+
+    // First free seat at or after fromSeat, or -1; skips a full word of taken seats at a time
+    public int nextFree(int row, int fromSeat) {
+        if (fromSeat >= rowLengths[row]) {
+            return -1;
+        }
+        int first = rowOffsets[row];
+        int last = first + ((rowLengths[row] + 63) >>> 6);
+        int w = first + (fromSeat >>> 6);
+        long bits = free[w] & (-1L << (fromSeat & 63));
+        while (bits == 0) {
+            if (++w >= last) {
+                return -1;
+            }
+            bits = free[w];
+        }
+        return ((w - first) << 6) + Long.numberOfTrailingZeros(bits);
+    }
+
+    // First taken seat at or after fromSeat, or the row length if the rest of the row is free
+    public int nextTaken(int row, int fromSeat) {
+        if (fromSeat >= rowLengths[row]) {
+            return rowLengths[row];
+        }
+        int first = rowOffsets[row];
+        int last = first + ((rowLengths[row] + 63) >>> 6);
+        int w = first + (fromSeat >>> 6);
+        long bits = ~free[w] & (-1L << (fromSeat & 63));
+        while (bits == 0) {
+            if (++w >= last) {
+                return rowLengths[row];
+            }
+            bits = ~free[w];
+        }
+        return Math.min(rowLengths[row], ((w - first) << 6) + Long.numberOfTrailingZeros(bits));
+    }
+
+    public int freeSeats() {
+        return freeSeats;
+    }
+
+    // Same shape as SeatInventory.toMatrix: 1 = taken somewhere on the leg. Unmodifiable.
+    public List<List<Integer>> toMatrix() {
+        List<List<Integer>> seats = new ArrayList<>(rowLengths.length);
+        for (int row = 0; row < rowLengths.length; row++) {
+            Integer[] rowSeats = new Integer[rowLengths[row]];
+            for (int seat = 0; seat < rowSeats.length; seat++) {
+                rowSeats[seat] = isFree(row, seat) ? 0 : 1;
+            }
+            seats.add(List.of(rowSeats));
+        }
+        return Collections.unmodifiableList(seats);
+    }
+
+    // Free seats per coach, for clients that only need counts
+    public List<Integer> freePerRow() {
+        Integer[] counts = new Integer[freeInRow.length];
+        for (int row = 0; row < counts.length; row++) {
+            counts[row] = freeInRow[row];
+        }
+        return List.of(counts);
+    }
+}
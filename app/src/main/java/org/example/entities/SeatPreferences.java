@@ -0,0 +1,36 @@
+package org.example.entities;
+
+/**
+ * What a party asks of the seats the allocator picks. Rows are coaches; the first and last
+ * seat of a row count as window seats.
+ */
+public class SeatPreferences {
+    public static final SeatPreferences NONE = new SeatPreferences(false, false, false);
+
+    private final boolean together;
+    private final boolean window;
+    private final boolean sameCoach;
+
+    /**
+     * @param together  adjacent seats in one row, or nothing
+     * @param window    prefer a block that includes a window seat (never fails because of it)
+     * @param sameCoach all seats in one row, adjacent or not
+     */
+    public SeatPreferences(boolean together, boolean window, boolean sameCoach) {
+        this.together = together;
+        this.window = window;
+        this.sameCoach = sameCoach;
+    }
+
+    public boolean isTogether() {
+        return together;
+    }
+
+    public boolean isWindow() {
+        return window;
+    }
+
+    public boolean isSameCoach() {
+        return sameCoach || together;
+    }
+}
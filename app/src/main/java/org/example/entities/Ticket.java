@@ -1,44 +1,96 @@
 package org.example.entities;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.UUID;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
 
+// Points at its train by id rather than carrying a copy; look the Train up in the train store.
+// Kept small, there is one per seat sold: a UUID id is two longs, stations are ids (see
+// Names) when some train stops there, the date an epoch day, and -1 stands for a missing
+// row, seat or segment.
 @JsonIgnoreProperties(ignoreUnknown = true)
-public class Ticket {
-    private String ticketId; 
-    private String userId; 
-    private String source; 
-    private String destination; 
-    private String dateOfTravel;
-    private Train train; 
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@JsonPropertyOrder({"ticket_id", "user_id", "source", "destination", "date_of_travel", "train_id", "row", "seat", "from_segment", "to_segment"})
+public final class Ticket {
+    private static final int NO_DAY = Integer.MIN_VALUE;
+
+    private long idHigh;
+    private long idLow;
+    private String otherId; // ids that aren't UUIDs, and null ones
+    private String userId;
+    private int source = -1;
+    private int destination = -1;
+    private String otherSource; // names no train stops at, kept as written
+    private String otherDestination;
+    private int travelDay = NO_DAY;
+    private String otherDate; // dates that aren't yyyy-MM-dd, and null ones
+    private String trainId;
+    private int row = -1; // coach
+    private int seat = -1;
+    private int fromSegment = -1;
+    private int toSegment = -1;
 
     public Ticket(){}
 
-    public Ticket(String ticketId, String userId, String source, String destination, String dateOfTravel, Train train){
-        this.ticketId = ticketId;
-        this.userId = userId;
-        this.source = source;
-        this.destination = destination;
-        this.dateOfTravel = dateOfTravel;
-        this.train = train;
+    public Ticket(String ticketId, String userId, String source, String destination, String dateOfTravel,
+                  String trainId, int row, int seat, int fromSegment, int toSegment){
+        setTicketId(ticketId);
+        setUserId(userId);
+        setSource(source);
+        setDestination(destination);
+        setDateOfTravel(dateOfTravel);
+        setTrainId(trainId);
+        this.row = row;
+        this.seat = seat;
+        this.fromSegment = fromSegment;
+        this.toSegment = toSegment;
     }
 
+    @JsonIgnore
     public String getTicketInfo(){
-        return String.format("Ticket ID: %s belongs to User %s from %s to %s on %s", ticketId, userId, source, destination, dateOfTravel);
+        String info = String.format("Ticket ID: %s belongs to User %s from %s to %s on %s", getTicketId(), userId, getSource(), getDestination(), getDateOfTravel());
+        if (trainId != null && row >= 0 && seat >= 0) {
+            info += String.format(" (train %s, row %d, seat %d)", trainId, row, seat);
+        }
+        return info;
     }
 
     public String getTicketId(){
-        return ticketId;
+        return otherId != null || (idHigh == 0 && idLow == 0) ? otherId : new UUID(idHigh, idLow).toString();
     }
 
     public void setTicketId(String ticketId){
-        this.ticketId = ticketId;
+        UUID uuid = null;
+        try {
+            uuid = ticketId == null ? null : UUID.fromString(ticketId);
+        } catch (IllegalArgumentException e) {
+            // e.g. "your_ticket_id" in old files
+        }
+        // fromString also takes odd spellings ("1-1-1-1-1", upper case); only pack what comes back the same
+        if (uuid != null && (uuid.getMostSignificantBits() != 0 || uuid.getLeastSignificantBits() != 0)
+                && uuid.toString().equals(ticketId)) {
+            this.idHigh = uuid.getMostSignificantBits();
+            this.idLow = uuid.getLeastSignificantBits();
+            this.otherId = null;
+        } else {
+            this.idHigh = 0;
+            this.idLow = 0;
+            this.otherId = ticketId;
+        }
     }
 
     public String getSource(){
-        return source;
+        return source < 0 ? otherSource : Names.stationName(source);
     }
 
+    // Only looks the name up: tickets from old or hand-edited files must not grow the dictionary
     public void setSource(String source){
-        this.source = source;
+        this.source = Names.findStation(source);
+        this.otherSource = this.source < 0 ? source : null;
     }
 
     public String getUserId(){
@@ -46,29 +98,87 @@ public class Ticket {
     }
 
     public void setUserId(String userId){
-        this.userId = userId;
+        this.userId = Names.id(userId);
     }
     public String getDestination(){
-        return destination;
+        return destination < 0 ? otherDestination : Names.stationName(destination);
     }
 
     public void setDestination(String destination){
-        this.destination = destination;
+        this.destination = Names.findStation(destination);
+        this.otherDestination = this.destination < 0 ? destination : null;
     }
 
     public String getDateOfTravel(){
-        return dateOfTravel;
+        return travelDay == NO_DAY ? otherDate : LocalDate.ofEpochDay(travelDay).toString();
     }
 
     public void setDateOfTravel(String dateOfTravel){
-        this.dateOfTravel = dateOfTravel;
+        LocalDate date = null;
+        try {
+            date = dateOfTravel == null ? null : LocalDate.parse(dateOfTravel);
+        } catch (DateTimeParseException e) {
+            // e.g. "2023-12-08T18:30:00Z" in old files, kept as written
+        }
+        if (date != null && date.toString().equals(dateOfTravel)) {
+            this.travelDay = (int) date.toEpochDay();
+            this.otherDate = null;
+        } else {
+            this.travelDay = NO_DAY;
+            this.otherDate = dateOfTravel;
+        }
+    }
+
+    // The run the ticket is for, or null if its date isn't a plain yyyy-MM-dd
+    @JsonIgnore
+    public LocalDate getTravelDate(){
+        return travelDay == NO_DAY ? null : LocalDate.ofEpochDay(travelDay);
+    }
+
+    public String getTrainId(){
+        return trainId;
     }
 
-    public Train getTrain(){
-        return train;
+    public void setTrainId(String trainId){
+        this.trainId = Names.id(trainId);
     }
 
+    // Older users.json files embed the whole train here; keep only its id
     public void setTrain(Train train){
-        this.train = train;
+        if (train != null && trainId == null) {
+            this.trainId = train.getTrainId();
+        }
+    }
+
+    public Integer getRow(){
+        return row < 0 ? null : row;
+    }
+
+    public void setRow(Integer row){
+        this.row = row == null ? -1 : row;
+    }
+
+    public Integer getSeat(){
+        return seat < 0 ? null : seat;
+    }
+
+    public void setSeat(Integer seat){
+        this.seat = seat == null ? -1 : seat;
+    }
+
+    public Integer getFromSegment(){
+        return fromSegment < 0 ? null : fromSegment;
+    }
+
+    public void setFromSegment(Integer fromSegment){
+        this.fromSegment = fromSegment == null ? -1 : fromSegment;
+    }
+
+    public Integer getToSegment(){
+        return toSegment < 0 ? null : toSegment;
+    }
+
+    public void setToSegment(Integer toSegment){
+        this.toSegment = toSegment == null ? -1 : toSegment;
     }
 }
@@ -1,37 +1,142 @@
 package org.example.entities;
 
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import org.example.util.Log;
 
 @JsonIgnoreProperties(ignoreUnknown = true)
-public class Train{
+public final class Train{
+    private static final Log LOG = Log.get(Train.class);
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("HH:mm:ss");
+
     private String trainId; 
     private String trainNo; 
-    private List<List<Integer>> seats; 
+    // Jackson may hand us seats, seat_segments and stations in any order, so the raw
+    // values are parked here and turned into the inventory on first use
+    private List<List<Integer>> seatMatrix;
+    private List<List<Long>> seatSegments;
+    private volatile SeatInventory inventory;
+    // station_times as read, kept only while there is no route to lay it on yet, or when
+    // it wouldn't come back out of departures as it went in (other spellings, names off
+    // the route, times not in HH:mm:ss)
     private Map<String, String> stationTimes;
-    private List<String> stations;
+    // The route as station ids (see Names), and the time at each stop in seconds since
+    // midnight, -1 where there is none
+    private int[] stations;
+    private int[] departures;
 
     public Train(){}
 
     public Train(String trainId, String trainNo, List<List<Integer>> seats, Map<String, String> stationTimes, List<String> stations){
-        this.trainId = trainId;
+        this.trainId = Names.id(trainId);
         this.trainNo = trainNo;
-        this.seats = seats;
-        this.stationTimes = stationTimes;
-        this.stations = stations;
+        this.seatMatrix = seats;
+        setStations(stations);
+        setStationTimes(stationTimes);
     }
 
     public List<String> getStations(){
-        return stations;
+        int[] route = stations;
+        if (route == null) {
+            return null;
+        }
+        String[] names = new String[route.length];
+        for (int i = 0; i < route.length; i++) {
+            names[i] = Names.stationName(route[i]);
+        }
+        return Collections.unmodifiableList(Arrays.asList(names));
+    }
+
+    public int stationCount() {
+        int[] route = stations;
+        return route == null ? 0 : route.length;
+    }
+
+    public int stationId(int index) {
+        return stations[index];
+    }
+
+    public String stationName(int index) {
+        return Names.stationName(stations[index]);
+    }
+
+    // Clock time of the stop in seconds since midnight, or -1 if it has none
+    public int departureSecond(int index) {
+        int[] times = departures;
+        return times == null ? -1 : times[index];
     }
 
+    // The seats matrix is only a JSON view; the live state lives in the inventory bitmap.
+    // A seat shows as 1 if it is taken on any segment of the route.
     public List<List<Integer>> getSeats() {
-        return seats;
+        return getInventory().toMatrix();
     }
 
     public void setSeats(List<List<Integer>> seats){
-       this.seats = seats;
+        synchronized (this) {
+            this.seatMatrix = seats;
+            this.inventory = null;
+        }
+    }
+
+    // Per-seat segment masks, only written when some seat is sold for part of the route
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public List<List<Long>> getSeatSegments() {
+        SeatInventory current = getInventory();
+        return current.hasPartialBookings() ? current.toSegmentMasks() : null;
+    }
+
+    public void setSeatSegments(List<List<Long>> seatSegments) {
+        synchronized (this) {
+            this.seatSegments = seatSegments;
+            this.inventory = null;
+        }
+    }
+
+    @JsonIgnore
+    public SeatInventory getInventory() {
+        SeatInventory current = inventory;
+        if (current != null) {
+            return current;
+        }
+        synchronized (this) {
+            if (inventory == null) {
+                inventory = seatSegments != null
+                        ? SeatInventory.fromSegmentMasks(seatSegments, segmentCount())
+                        : SeatInventory.fromMatrix(seatMatrix, segmentCount());
+                seatMatrix = null;
+                seatSegments = null;
+            }
+            return inventory;
+        }
+    }
+
+    // Replaces the seats wholesale, e.g. with ones read back from a seat file
+    @JsonIgnore
+    public void setInventory(SeatInventory inventory) {
+        synchronized (this) {
+            this.inventory = inventory;
+            this.seatMatrix = null;
+            this.seatSegments = null;
+        }
+    }
+
+    // Segment i runs from stations[i] to stations[i + 1]
+    @JsonIgnore
+    public int segmentCount() {
+        int[] route = stations;
+        return route == null || route.length < 2 ? 1 : route.length - 1;
+    }
+
+    public int stationIndex(String station) {
+        int[] route = stations;
+        return route == null || station == null ? -1 : indexOf(route, Names.findStation(station.toLowerCase()));
     }
 
     public String getTrainId(){
@@ -39,7 +144,22 @@ public class Train{
     }
 
     public Map<String, String> getStationTimes(){
-        return stationTimes;
+        Map<String, String> raw = stationTimes;
+        if (raw != null) {
+            return raw;
+        }
+        int[] route = stations;
+        int[] times = departures;
+        if (route == null || times == null) {
+            return null;
+        }
+        Map<String, String> view = new LinkedHashMap<>();
+        for (int i = 0; i < route.length; i++) {
+            if (times[i] >= 0) {
+                view.putIfAbsent(Names.stationName(route[i]), TIME.format(LocalTime.ofSecondOfDay(times[i])));
+            }
+        }
+        return view;
     }
 
     public String getTrainNo(){
@@ -51,15 +171,94 @@ public class Train{
     }
 
     public void setTrainId(String trainId){
-        this.trainId = trainId;
+        this.trainId = Names.id(trainId);
     }
 
     public void setStationTimes(Map<String, String> stationTimes){
-        this.stationTimes = stationTimes;
+        synchronized (this) {
+            this.stationTimes = stationTimes;
+            this.departures = null;
+            layOutTimes();
+        }
     }
 
     public void setStations(List<String> stations){
-        this.stations = stations;
+        synchronized (this) {
+            // A built inventory is sized for the old route; rebuild it whole-route for the new one
+            if (inventory != null && stations != null && Math.max(1, stations.size() - 1) != inventory.segments()) {
+                seatMatrix = inventory.toMatrix();
+                inventory = null;
+            }
+            // The times hang off the old route's stops; take them along by name
+            if (stationTimes == null) {
+                stationTimes = getStationTimes();
+            }
+            departures = null;
+            if (stations == null) {
+                this.stations = null;
+                return;
+            }
+            int[] route = new int[stations.size()];
+            for (int i = 0; i < route.length; i++) {
+                route[i] = Names.stationId(stations.get(i));
+            }
+            this.stations = route;
+            layOutTimes();
+        }
+    }
+
+    // Turns stationTimes into departures once there is a route, and drops the map if
+    // getStationTimes() can rebuild it exactly: keys are stops in route order, times HH:mm:ss
+    private void layOutTimes() {
+        int[] route = stations;
+        Map<String, String> raw = stationTimes;
+        if (route == null || raw == null) {
+            return;
+        }
+        int[] times = new int[route.length];
+        Arrays.fill(times, -1);
+        boolean exact = true;
+        int previous = -1;
+        for (Map.Entry<String, String> entry : raw.entrySet()) {
+            int stop = indexOf(route, Names.findStation(entry.getKey()));
+            if (stop < 0) {
+                // Not spelled as on the route; match it ignoring case, but keep the map
+                exact = false;
+                stop = indexIgnoringCase(route, entry.getKey());
+                if (stop < 0 || times[stop] >= 0) {
+                    continue;
+                }
+            }
+            exact &= stop > previous;
+            previous = stop;
+            try {
+                times[stop] = LocalTime.parse(entry.getValue()).toSecondOfDay();
+                exact &= TIME.format(LocalTime.ofSecondOfDay(times[stop])).equals(entry.getValue());
+            } catch (RuntimeException e) {
+                exact = false;
+                LOG.info("Ignoring bad time {} for {} on train {}", entry.getValue(), entry.getKey(), trainId);
+            }
+        }
+        departures = times;
+        stationTimes = exact ? null : raw;
+    }
+
+    private static int indexIgnoringCase(int[] route, String name) {
+        for (int i = 0; i < route.length; i++) {
+            if (Names.stationName(route[i]).equalsIgnoreCase(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int indexOf(int[] route, int id) {
+        for (int i = 0; id >= 0 && i < route.length; i++) {
+            if (route[i] == id) {
+                return i;
+            }
+        }
+        return -1;
     }
 
     public String getTrainInfo(){
@@ -1,7 +1,9 @@
 package org.example.entities;
 
 import java.util.List;
+import java.util.concurrent.Callable;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 
 @JsonIgnoreProperties(ignoreUnknown = true)
@@ -11,13 +13,16 @@ public class User {
     private String hashedPassword; 
     private List<Ticket> ticketsBooked; 
     private String userId; 
+    // Tickets still on disk (see UsersSnapshot); read on the first getTicketsBooked()
+    @JsonIgnore
+    private volatile Callable<List<Ticket>> deferredTickets;
 
     public User(String name, String password, String hashedPassword, List<Ticket> ticketsBooked, String userId) {
         this.name = name; 
         this.password = password; 
         this.hashedPassword = hashedPassword; 
         this.ticketsBooked = ticketsBooked; 
-        this.userId = userId; 
+        this.userId = Names.id(userId); 
     }
 
     public User(){} // default constructor 
@@ -35,10 +40,32 @@ public class User {
     }
 
     public List<Ticket> getTicketsBooked() {
+        if (deferredTickets != null) {
+            synchronized (this) {
+                if (deferredTickets != null) {
+                    try {
+                        ticketsBooked = deferredTickets.call();
+                    } catch (Exception e) {
+                        throw new IllegalStateException("Could not load tickets for user " + name, e);
+                    }
+                    deferredTickets = null;
+                }
+            }
+        }
         return ticketsBooked;
     }
 
+    @JsonIgnore
+    public Callable<List<Ticket>> getDeferredTickets() {
+        return deferredTickets;
+    }
+
+    public void deferTickets(Callable<List<Ticket>> loader) {
+        this.deferredTickets = loader;
+    }
+
     public void printTickets(){
+        List<Ticket> ticketsBooked = getTicketsBooked();
         if(ticketsBooked.isEmpty()) {
             System.out.println("NO Booking Present");
         }
@@ -55,15 +82,20 @@ public class User {
         this.name = name;
     }
 
+    public void setPassword(String password) {
+        this.password = password;
+    }
+
     public void setHashedPassword(String hashedPassword) {
         this.hashedPassword = hashedPassword;
     }
 
     public void setTicketsBooked(List<Ticket> ticketsBooked) {
         this.ticketsBooked = ticketsBooked;
+        this.deferredTickets = null;
     }
 
     public void setUserId(String userId) {
-        this.userId = userId;
+        this.userId = Names.id(userId);
     }
 }
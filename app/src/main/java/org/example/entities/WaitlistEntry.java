@@ -0,0 +1,131 @@
+package org.example.entities;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+// A passenger queued for a sold-out leg of a run; row, seat and ticketId are set once a freed seat is handed to them
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class WaitlistEntry {
+    private String entryId;
+    private String userId;
+    private String trainId;
+    private String runDate;
+    private String source;
+    private String destination;
+    private int fromSegment;
+    private int toSegment;
+    private long joinedAt; // epoch millis
+    private Integer row;
+    private Integer seat;
+    private String ticketId;
+
+    public WaitlistEntry() {}
+
+    public WaitlistEntry(String entryId, String userId, String trainId, String runDate, String source, String destination,
+                         int fromSegment, int toSegment, long joinedAt) {
+        this.entryId = entryId;
+        this.userId = userId;
+        this.trainId = trainId;
+        this.runDate = runDate;
+        this.source = source;
+        this.destination = destination;
+        this.fromSegment = fromSegment;
+        this.toSegment = toSegment;
+        this.joinedAt = joinedAt;
+    }
+
+    public String getEntryId() {
+        return entryId;
+    }
+
+    public void setEntryId(String entryId) {
+        this.entryId = entryId;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public void setUserId(String userId) {
+        this.userId = userId;
+    }
+
+    public String getTrainId() {
+        return trainId;
+    }
+
+    public void setTrainId(String trainId) {
+        this.trainId = trainId;
+    }
+
+    public String getRunDate() {
+        return runDate;
+    }
+
+    public void setRunDate(String runDate) {
+        this.runDate = runDate;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public void setSource(String source) {
+        this.source = source;
+    }
+
+    public String getDestination() {
+        return destination;
+    }
+
+    public void setDestination(String destination) {
+        this.destination = destination;
+    }
+
+    public int getFromSegment() {
+        return fromSegment;
+    }
+
+    public void setFromSegment(int fromSegment) {
+        this.fromSegment = fromSegment;
+    }
+
+    public int getToSegment() {
+        return toSegment;
+    }
+
+    public void setToSegment(int toSegment) {
+        this.toSegment = toSegment;
+    }
+
+    public long getJoinedAt() {
+        return joinedAt;
+    }
+
+    public void setJoinedAt(long joinedAt) {
+        this.joinedAt = joinedAt;
+    }
+
+    public Integer getRow() {
+        return row;
+    }
+
+    public void setRow(Integer row) {
+        this.row = row;
+    }
+
+    public Integer getSeat() {
+        return seat;
+    }
+
+    public void setSeat(Integer seat) {
+        this.seat = seat;
+    }
+
+    public String getTicketId() {
+        return ticketId;
+    }
+
+    public void setTicketId(String ticketId) {
+        this.ticketId = ticketId;
+    }
+}
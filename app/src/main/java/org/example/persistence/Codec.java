@@ -0,0 +1,103 @@
+package org.example.persistence;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.function.Supplier;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+
+import org.example.entities.Train;
+
+/**
+ * Encoding of the snapshot files (users.json, trains.json, holds.json) and of journal
+ * records. {@code irctc.persistence.format} picks what gets written: {@code json} (default,
+ * readable) or {@code smile}, Jackson's binary JSON, which drops the quoting and repeats of
+ * field names and station names, and stores seat matrices as bitmaps
+ * ({@link SeatMatrixBitmap}); it is smaller and faster to parse.
+ *
+ * <p>Reading never depends on the setting: every file and record is recognised by its
+ * first bytes, so switching format only takes effect as files are rewritten, and old files
+ * keep loading. File names stay the same either way. {@link SnapshotConverter} converts
+ * files by hand.
+ */
+public enum Codec {
+    JSON(Codec::jsonMapper),
+    SMILE(Codec::smileMapper);
+
+    // Every Smile document starts with ":)\n"; a JSON array or object never does
+    private static final byte[] SMILE_HEADER = {':', ')', '\n'};
+
+    private final ObjectMapper mapper;
+
+    Codec(Supplier<ObjectMapper> mapper) {
+        this.mapper = mapper.get();
+    }
+
+    // Thread-safe and shared, configure it here only
+    public ObjectMapper mapper() {
+        return mapper;
+    }
+
+    public static Codec configured() {
+        String format = System.getProperty("irctc.persistence.format", "json");
+        try {
+            return valueOf(format.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown irctc.persistence.format " + format + ", expected json or smile");
+        }
+    }
+
+    // Missing and empty files count as JSON
+    public static Codec of(File file) throws IOException {
+        if (!file.exists()) {
+            return JSON;
+        }
+        byte[] start = new byte[SMILE_HEADER.length];
+        int read = 0;
+        try (InputStream in = new FileInputStream(file)) {
+            int n;
+            while (read < start.length && (n = in.read(start, read, start.length - read)) > 0) {
+                read += n;
+            }
+        }
+        return of(start, read);
+    }
+
+    public static Codec of(byte[] bytes) {
+        return of(bytes, bytes.length);
+    }
+
+    private static Codec of(byte[] bytes, int length) {
+        if (length < SMILE_HEADER.length) {
+            return JSON;
+        }
+        for (int i = 0; i < SMILE_HEADER.length; i++) {
+            if (bytes[i] != SMILE_HEADER[i]) {
+                return JSON;
+            }
+        }
+        return SMILE;
+    }
+
+    private static ObjectMapper jsonMapper() {
+        return new ObjectMapper().setPropertyNamingStrategy(PropertyNamingStrategies.SNAKE_CASE);
+    }
+
+    private static ObjectMapper smileMapper() {
+        SmileFactory factory = SmileFactory.builder()
+                // Station names, dates and train ids repeat from record to record
+                .enable(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES)
+                // Binary values (see UsersSnapshot) are stored as is, so their bytes can be read back by offset
+                .disable(SmileGenerator.Feature.ENCODE_BINARY_AS_7BIT)
+                .build();
+        return new ObjectMapper(factory)
+                .setPropertyNamingStrategy(PropertyNamingStrategies.SNAKE_CASE)
+                .addMixIn(Train.class, SeatMatrixBitmap.TrainMixin.class);
+    }
+}
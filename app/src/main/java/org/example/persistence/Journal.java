@@ -0,0 +1,405 @@
+package org.example.persistence;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import org.example.util.Log;
+
+/**
+ * Append-only write-ahead log next to a snapshot file. Each change is one small framed
+ * record ({@code [length][crc32][event]}, the event in JSON or Smile, see {@link Codec})
+ * appended through a {@link FileChannel}; the snapshot is only rewritten on
+ * {@link #compact}, after which the log segments it covers are deleted. On startup the
+ * owner reads the snapshot and {@link #replay}s the log tail on top of it.
+ *
+ * <p>The log lives in segments {@code <snapshot>.wal-000001, -000002, ...}. Compaction
+ * rolls to a fresh segment before writing the snapshot, so a crash at any point leaves
+ * either the old snapshot plus all segments, or the new snapshot plus segments whose
+ * events are already in it - which is why replayed events must be idempotent.
+ */
+public class Journal implements Closeable {
+    private static final Log LOG = Log.get(Journal.class);
+    private static final String SEGMENT_MARKER = ".wal-";
+    private static final int HEADER_BYTES = 8;
+    private static final int MAX_RECORD_BYTES = 64 * 1024 * 1024;
+    private static final Map<Path, Journal> OPEN = new HashMap<>();
+
+    private final Path snapshot;
+    private final JournalConfig config;
+    private final Codec codec = Codec.configured(); // for appends; replay reads whatever each record is in
+
+    // Lock order: compactLock -> syncLock -> appendLock
+    private final Object compactLock = new Object();
+    private final Object syncLock = new Object();
+    private final Object appendLock = new Object();
+
+    private FileChannel channel;
+    private long segment;
+    private long segmentBytes; // length of the current segment, where a failed write is cut back to
+    private long written; // bytes appended since open, used as the log sequence number
+    private volatile long durable;
+    private int sinceSnapshot;
+    private boolean broken; // a failed write couldn't be cut back off, so nothing more may follow it
+    private ScheduledExecutorService flusher;
+
+    private Journal(Path snapshot, JournalConfig config) {
+        this.snapshot = snapshot;
+        this.config = config;
+    }
+
+    // One journal per snapshot file per process, so every writer shares the same log
+    public static synchronized Journal open(Path snapshot) {
+        return OPEN.computeIfAbsent(snapshot.toAbsolutePath().normalize(),
+                path -> new Journal(path, JournalConfig.fromSystemProperties()));
+    }
+
+    public static synchronized void closeAll() {
+        for (Journal journal : OPEN.values()) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                LOG.error("Error closing journal {}", journal.getSnapshotPath(), e);
+            }
+        }
+        OPEN.clear();
+    }
+
+    public Path getSnapshotPath() {
+        return snapshot;
+    }
+
+    // Feeds every intact record after the snapshot to the consumer, oldest first. Fails if
+    // a segment other than the last is damaged, since the records after it can't be trusted.
+    public void replay(Consumer<JournalEvent> apply) throws IOException {
+        synchronized (syncLock) {
+            synchronized (appendLock) {
+                List<Path> segments = segments();
+                for (int i = 0; i < segments.size(); i++) {
+                    replaySegment(segments.get(i), apply, i == segments.size() - 1);
+                }
+            }
+        }
+    }
+
+    public void append(JournalEvent event) throws IOException {
+        appendAll(List.of(event));
+    }
+
+    // One write and, in commit mode, one fsync for the whole batch. A crash can still keep
+    // only a prefix of it, so the owner must be able to replay a partial batch. A write that
+    // fails is cut back off the segment; if even that fails, the journal refuses all appends.
+    public void appendAll(List<JournalEvent> events) throws IOException {
+        List<byte[]> payloads = new ArrayList<>(events.size());
+        int size = 0;
+        for (JournalEvent event : events) {
+            byte[] payload = codec.mapper().writeValueAsBytes(event);
+            payloads.add(payload);
+            size += HEADER_BYTES + payload.length;
+        }
+        ByteBuffer frames = ByteBuffer.allocate(size);
+        for (byte[] payload : payloads) {
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            frames.putInt(payload.length).putInt((int) crc.getValue()).put(payload);
+        }
+        frames.flip();
+
+        long lsn;
+        synchronized (appendLock) {
+            if (broken) {
+                throw new IOException("Journal " + snapshot.getFileName() + " has a part-written record; restart to repair it");
+            }
+            ensureOpen();
+            try {
+                while (frames.hasRemaining()) {
+                    channel.write(frames);
+                }
+            } catch (IOException e) {
+                rollBack(e);
+                throw e;
+            }
+            segmentBytes += frames.limit();
+            written += frames.limit();
+            sinceSnapshot += events.size();
+            lsn = written;
+        }
+        if (config.getFsyncPolicy() == JournalConfig.FsyncPolicy.COMMIT) {
+            sync(lsn);
+        }
+    }
+
+    // Group commit: whoever holds syncLock forces everything appended so far, so the
+    // threads queued behind it usually find their record already durable
+    public void sync(long lsn) throws IOException {
+        synchronized (syncLock) {
+            if (durable >= lsn) {
+                return;
+            }
+            if (config.getGroupCommitMicros() > 0) {
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(config.getGroupCommitMicros()));
+            }
+            long target;
+            FileChannel current;
+            synchronized (appendLock) {
+                target = written;
+                current = channel;
+            }
+            if (current != null) {
+                current.force(false);
+            }
+            durable = target;
+        }
+    }
+
+    public boolean shouldCompact() {
+        synchronized (appendLock) {
+            return sinceSnapshot >= config.getSnapshotEvery();
+        }
+    }
+
+    /**
+     * Writes a fresh snapshot through the given writer and drops the log it replaces.
+     * The writer must capture state that includes every event appended before this call.
+     */
+    public void compact(SnapshotWriter writer) throws IOException {
+        synchronized (compactLock) {
+            long covered;
+            synchronized (syncLock) {
+                synchronized (appendLock) {
+                    ensureOpen();
+                    channel.force(false);
+                    channel.close();
+                    covered = segment;
+                    segment++;
+                    channel = openSegment(segment);
+                    segmentBytes = channel.size();
+                    durable = written;
+                    sinceSnapshot = 0;
+                }
+            }
+
+            Path tmp = snapshot.resolveSibling(snapshot.getFileName() + ".tmp");
+            Files.createDirectories(snapshot.toAbsolutePath().getParent());
+            try (FileOutputStream file = new FileOutputStream(tmp.toFile())) {
+                OutputStream out = new BufferedOutputStream(file, 64 * 1024);
+                writer.write(new UnclosableOutputStream(out));
+                out.flush();
+                file.getFD().sync();
+            }
+            Files.move(tmp, snapshot, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            writer.installed(snapshot);
+
+            for (Path old : segments()) {
+                if (segmentNumber(old) <= covered) {
+                    Files.deleteIfExists(old);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (syncLock) {
+            synchronized (appendLock) {
+                if (flusher != null) {
+                    flusher.shutdownNow();
+                    flusher = null;
+                }
+                if (channel != null && channel.isOpen()) {
+                    channel.force(false);
+                    channel.close();
+                }
+                channel = null;
+            }
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (channel != null) {
+            // An interrupt during a write or force closes the channel; carry on in the same segment
+            if (!channel.isOpen()) {
+                channel = openSegment(segment);
+            }
+            return;
+        }
+        List<Path> existing = segments();
+        segment = existing.isEmpty() ? 1 : segmentNumber(existing.get(existing.size() - 1));
+        channel = openSegment(segment);
+        segmentBytes = channel.size();
+        if (config.getFsyncPolicy() == JournalConfig.FsyncPolicy.INTERVAL && flusher == null) {
+            flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "journal-fsync-" + snapshot.getFileName());
+                thread.setDaemon(true);
+                return thread;
+            });
+            long interval = config.getFsyncIntervalMillis();
+            flusher.scheduleWithFixedDelay(this::syncQuietly, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // Called under appendLock. An interrupted write closes the channel, so reopen it to truncate,
+    // with the interrupt held back until the truncate is done.
+    private void rollBack(IOException cause) {
+        boolean interrupted = Thread.interrupted();
+        try {
+            if (!channel.isOpen()) {
+                channel = openSegment(segment);
+            }
+            channel.truncate(segmentBytes);
+        } catch (IOException e) {
+            broken = true;
+            cause.addSuppressed(e);
+            LOG.error("Could not cut a failed write off journal {}, refusing further appends", snapshot.getFileName(), e);
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void syncQuietly() {
+        try {
+            long lsn;
+            synchronized (appendLock) {
+                lsn = written;
+            }
+            sync(lsn);
+        } catch (IOException e) {
+            LOG.error("Error syncing journal {}", snapshot, e);
+        }
+    }
+
+    private FileChannel openSegment(long number) throws IOException {
+        Files.createDirectories(snapshot.toAbsolutePath().getParent());
+        return FileChannel.open(segmentPath(number), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private void replaySegment(Path path, Consumer<JournalEvent> apply, boolean last) throws IOException {
+        try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = in.size();
+            long position = 0;
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            while (position + HEADER_BYTES <= size) {
+                header.clear();
+                readFully(in, header, position);
+                header.flip();
+                int length = header.getInt();
+                int checksum = header.getInt();
+                if (length < 0 || length > MAX_RECORD_BYTES || position + HEADER_BYTES + length > size) {
+                    break;
+                }
+                ByteBuffer payload = ByteBuffer.allocate(length);
+                readFully(in, payload, position + HEADER_BYTES);
+                CRC32 crc = new CRC32();
+                crc.update(payload.array());
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                apply.accept(Codec.of(payload.array()).mapper().readValue(payload.array(), JournalEvent.class));
+                position += HEADER_BYTES + length;
+            }
+            if (position < size && !last) {
+                // Only the segment being appended to when the process died can end in a torn record
+                throw new IOException("Journal segment " + path.getFileName() + " is damaged at byte " + position
+                        + " of " + size + " and later segments follow it");
+            }
+            // Cut a torn tail off before the first append lands after it
+            if (position < size && channel == null) {
+                LOG.warn("Discarding torn journal tail in {} at byte {}", path.getFileName(), position);
+                in.truncate(position);
+                in.force(true);
+            }
+        }
+    }
+
+    private static void readFully(FileChannel in, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (in.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of journal");
+            }
+        }
+    }
+
+    private List<Path> segments() throws IOException {
+        Path dir = snapshot.toAbsolutePath().getParent();
+        String prefix = snapshot.getFileName() + SEGMENT_MARKER;
+        List<Path> segments = new ArrayList<>();
+        if (!Files.isDirectory(dir)) {
+            return segments;
+        }
+        try (Stream<Path> files = Files.list(dir)) {
+            files.filter(file -> file.getFileName().toString().startsWith(prefix)).forEach(segments::add);
+        }
+        segments.sort((a, b) -> Long.compare(segmentNumber(a), segmentNumber(b)));
+        return segments;
+    }
+
+    private Path segmentPath(long number) {
+        return snapshot.resolveSibling(snapshot.getFileName() + SEGMENT_MARKER + String.format("%06d", number));
+    }
+
+    private static long segmentNumber(Path path) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(name.lastIndexOf(SEGMENT_MARKER) + SEGMENT_MARKER.length()));
+    }
+
+    public interface SnapshotWriter {
+        void write(OutputStream out) throws IOException;
+
+        // Called once the new snapshot has replaced the old one, still inside the compaction
+        default void installed(Path snapshot) throws IOException {}
+    }
+
+    // Jackson closes the target when it's done; the journal still has to fsync it afterwards
+    private static final class UnclosableOutputStream extends OutputStream {
+        private final OutputStream out;
+
+        UnclosableOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.flush();
+        }
+    }
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(Journal::closeAll, "journal-shutdown"));
+    }
+}
@@ -0,0 +1,53 @@
+package org.example.persistence;
+
+/**
+ * Journal tuning, read from system properties so it can be set with -D on the command line:
+ * <ul>
+ *   <li>{@code irctc.journal.fsync} - {@code commit} (default): every append is on disk before it
+ *       returns, concurrent appends share one fsync; {@code interval}: fsync in the background every
+ *       {@code irctc.journal.fsyncIntervalMillis}; {@code off}: leave it to the OS.</li>
+ *   <li>{@code irctc.journal.groupCommitMicros} - in commit mode, how long the syncing thread waits
+ *       for more appends to join its fsync (default 0).</li>
+ *   <li>{@code irctc.journal.snapshotEvery} - records appended before the owner takes a compacted
+ *       snapshot and drops the old log (default 10000).</li>
+ * </ul>
+ */
+public class JournalConfig {
+    public enum FsyncPolicy { COMMIT, INTERVAL, OFF }
+
+    private final FsyncPolicy fsyncPolicy;
+    private final long fsyncIntervalMillis;
+    private final long groupCommitMicros;
+    private final int snapshotEvery;
+
+    public JournalConfig(FsyncPolicy fsyncPolicy, long fsyncIntervalMillis, long groupCommitMicros, int snapshotEvery) {
+        this.fsyncPolicy = fsyncPolicy;
+        this.fsyncIntervalMillis = fsyncIntervalMillis;
+        this.groupCommitMicros = groupCommitMicros;
+        this.snapshotEvery = snapshotEvery;
+    }
+
+    public static JournalConfig fromSystemProperties() {
+        return new JournalConfig(
+                FsyncPolicy.valueOf(System.getProperty("irctc.journal.fsync", "commit").toUpperCase()),
+                Long.getLong("irctc.journal.fsyncIntervalMillis", 50),
+                Long.getLong("irctc.journal.groupCommitMicros", 0),
+                Integer.getInteger("irctc.journal.snapshotEvery", 10000));
+    }
+
+    public FsyncPolicy getFsyncPolicy() {
+        return fsyncPolicy;
+    }
+
+    public long getFsyncIntervalMillis() {
+        return fsyncIntervalMillis;
+    }
+
+    public long getGroupCommitMicros() {
+        return groupCommitMicros;
+    }
+
+    public int getSnapshotEvery() {
+        return snapshotEvery;
+    }
+}
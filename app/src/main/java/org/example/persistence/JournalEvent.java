@@ -0,0 +1,267 @@
+package org.example.persistence;
+
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import org.example.entities.SeatHold;
+import org.example.entities.Ticket;
+import org.example.entities.Train;
+import org.example.entities.User;
+
+/**
+ * One record of the write-ahead log. Only the fields relevant to the event type are set,
+ * so a seat booking is a handful of numbers rather than a copy of the train.
+ * Replaying an event that is already reflected in the snapshot must be a no-op.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class JournalEvent {
+    public enum Type { BOOK, RELEASE, CANCEL, SIGNUP, TRAIN_UPDATE, PASSWORD_REHASH, TICKET, HOLD, CONFIRM, TICKETS }
+
+    private Type type;
+    private String trainId;
+    private String runDate; // travel date of the run a BOOK/RELEASE applies to; null for the train's own seats
+    private Integer row;
+    private Integer seat;
+    private Integer fromSegment;
+    private Integer toSegment;
+    private String userId;
+    private String ticketId; // also set on BOOK and CONFIRM, which are only good once their TICKET or TICKETS is logged
+    private String hashedPassword;
+    private User user;
+    private Train train;
+    private Ticket ticket;
+    private List<Ticket> tickets;
+    private String holdId; // set on HOLD, CONFIRM and on the RELEASE of an expired hold
+    private SeatHold hold;
+
+    public JournalEvent() {}
+
+    public static JournalEvent booking(String trainId, String runDate, int row, int seat, int fromSegment, int toSegment) {
+        JournalEvent event = new JournalEvent();
+        event.type = Type.BOOK;
+        event.trainId = trainId;
+        event.runDate = runDate;
+        event.row = row;
+        event.seat = seat;
+        event.fromSegment = fromSegment;
+        event.toSegment = toSegment;
+        return event;
+    }
+
+    // Gives a booked seat back: the ticket could not be issued, or was cancelled
+    public static JournalEvent release(String trainId, String runDate, int row, int seat, int fromSegment, int toSegment) {
+        JournalEvent event = booking(trainId, runDate, row, seat, fromSegment, toSegment);
+        event.type = Type.RELEASE;
+        return event;
+    }
+
+    // Takes the seat like BOOK, but only until the hold is confirmed or expires
+    public static JournalEvent hold(SeatHold hold) {
+        JournalEvent event = booking(hold.getTrainId(), hold.getRunDate(), hold.getRow(), hold.getSeat(),
+                hold.getFromSegment(), hold.getToSegment());
+        event.type = Type.HOLD;
+        event.holdId = hold.getHoldId();
+        event.hold = hold;
+        return event;
+    }
+
+    // The held seat is now booked for good, for the ticket with that id
+    public static JournalEvent holdConfirmed(SeatHold hold, String ticketId) {
+        JournalEvent event = booking(hold.getTrainId(), hold.getRunDate(), hold.getRow(), hold.getSeat(),
+                hold.getFromSegment(), hold.getToSegment());
+        event.type = Type.CONFIRM;
+        event.holdId = hold.getHoldId();
+        event.userId = hold.getUserId();
+        event.ticketId = ticketId;
+        return event;
+    }
+
+    // The held seat goes back to the pool
+    public static JournalEvent holdReleased(SeatHold hold) {
+        JournalEvent event = release(hold.getTrainId(), hold.getRunDate(), hold.getRow(), hold.getSeat(),
+                hold.getFromSegment(), hold.getToSegment());
+        event.holdId = hold.getHoldId();
+        return event;
+    }
+
+    public static JournalEvent ticketIssued(Ticket ticket) {
+        JournalEvent event = new JournalEvent();
+        event.type = Type.TICKET;
+        event.userId = ticket.getUserId();
+        event.ticketId = ticket.getTicketId();
+        event.ticket = ticket;
+        return event;
+    }
+
+    // Every ticket of a batch in one record, so replay gets all of them or none
+    public static JournalEvent ticketsIssued(String userId, List<Ticket> tickets) {
+        JournalEvent event = new JournalEvent();
+        event.type = Type.TICKETS;
+        event.userId = userId;
+        event.tickets = tickets;
+        return event;
+    }
+
+    public static JournalEvent cancellation(String userId, String ticketId) {
+        JournalEvent event = new JournalEvent();
+        event.type = Type.CANCEL;
+        event.userId = userId;
+        event.ticketId = ticketId;
+        return event;
+    }
+
+    public static JournalEvent signUp(User user) {
+        JournalEvent event = new JournalEvent();
+        event.type = Type.SIGNUP;
+        event.userId = user.getUserId();
+        event.user = user;
+        return event;
+    }
+
+    public static JournalEvent passwordRehash(String userId, String hashedPassword) {
+        JournalEvent event = new JournalEvent();
+        event.type = Type.PASSWORD_REHASH;
+        event.userId = userId;
+        event.hashedPassword = hashedPassword;
+        return event;
+    }
+
+    public static JournalEvent trainUpdate(Train train) {
+        JournalEvent event = new JournalEvent();
+        event.type = Type.TRAIN_UPDATE;
+        event.trainId = train.getTrainId();
+        event.train = train;
+        return event;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public void setType(Type type) {
+        this.type = type;
+    }
+
+    public String getTrainId() {
+        return trainId;
+    }
+
+    public void setTrainId(String trainId) {
+        this.trainId = trainId;
+    }
+
+    public String getRunDate() {
+        return runDate;
+    }
+
+    public void setRunDate(String runDate) {
+        this.runDate = runDate;
+    }
+
+    public Integer getRow() {
+        return row;
+    }
+
+    public void setRow(Integer row) {
+        this.row = row;
+    }
+
+    public Integer getSeat() {
+        return seat;
+    }
+
+    public void setSeat(Integer seat) {
+        this.seat = seat;
+    }
+
+    public Integer getFromSegment() {
+        return fromSegment;
+    }
+
+    public void setFromSegment(Integer fromSegment) {
+        this.fromSegment = fromSegment;
+    }
+
+    public Integer getToSegment() {
+        return toSegment;
+    }
+
+    public void setToSegment(Integer toSegment) {
+        this.toSegment = toSegment;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public void setUserId(String userId) {
+        this.userId = userId;
+    }
+
+    public String getTicketId() {
+        return ticketId;
+    }
+
+    public void setTicketId(String ticketId) {
+        this.ticketId = ticketId;
+    }
+
+    public String getHashedPassword() {
+        return hashedPassword;
+    }
+
+    public void setHashedPassword(String hashedPassword) {
+        this.hashedPassword = hashedPassword;
+    }
+
+    public User getUser() {
+        return user;
+    }
+
+    public void setUser(User user) {
+        this.user = user;
+    }
+
+    public Train getTrain() {
+        return train;
+    }
+
+    public void setTrain(Train train) {
+        this.train = train;
+    }
+
+    public Ticket getTicket() {
+        return ticket;
+    }
+
+    public void setTicket(Ticket ticket) {
+        this.ticket = ticket;
+    }
+
+    public List<Ticket> getTickets() {
+        return tickets;
+    }
+
+    public void setTickets(List<Ticket> tickets) {
+        this.tickets = tickets;
+    }
+
+    public String getHoldId() {
+        return holdId;
+    }
+
+    public void setHoldId(String holdId) {
+        this.holdId = holdId;
+    }
+
+    public SeatHold getHold() {
+        return hold;
+    }
+
+    public void setHold(SeatHold hold) {
+        this.hold = hold;
+    }
+}
@@ -0,0 +1,336 @@
+package org.example.persistence;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.example.entities.SeatInventory;
+
+/**
+ * Seat bitmaps of many trains in one memory-mapped file. Inventories handed out by
+ * {@link #get} and {@link #add} read and CAS their words directly in the mapping, so a
+ * booking costs no serialization; {@link #force} makes the changed pages durable.
+ *
+ * <p>Layout, all little-endian:
+ * <pre>
+ *   header   64 bytes   magic "IRSEATS1", version, table capacity, train count, end of data,
+ *                       offset of the first table extent (0 = none)
+ *   table    capacity x 64 bytes, one entry per train:
+ *            id length (2), id bytes (up to 40), rows (4), segments (4), region offset (8)
+ *   regions  one per train, each starting on a page boundary:
+ *            row lengths (4 bytes each, padded to 8), then segments x words-per-segment longs
+ *   extents  when the table is full, another one on a page boundary among the regions:
+ *            64 bytes of capacity, train count and next extent offset, then its entries
+ * </pre>
+ * Each extent holds as many entries as all the tables before it, so a file with n trains
+ * has about log2(n / 1024) of them. A train is only counted once its region and table
+ * entry are on disk, and an extent is only linked in once it is, so a crash while adding
+ * either leaves the file as it was before.
+ */
+public class SeatFile implements Closeable {
+    private static final long MAGIC = 0x3153544145535249L; // "IRSEATS1"
+    private static final int VERSION = 2; // 1 had no extents; its header is the same with no link
+    private static final int HEADER_BYTES = 64;
+    private static final int ENTRY_BYTES = 64;
+    public static final int MAX_ID_BYTES = 40;
+    private static final int PAGE_BYTES = 4096;
+    private static final int DEFAULT_CAPACITY = Integer.getInteger("irctc.seats.tableEntries", 1024);
+
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer meta;
+    private final List<Table> tables = new ArrayList<>(); // the header's table, then its extents in order
+    private final Map<String, Entry> entries = new HashMap<>(); // lower-cased trainId -> entry
+
+    private SeatFile(Path path, FileChannel channel, MappedByteBuffer meta) {
+        this.path = path;
+        this.channel = channel;
+        this.meta = meta;
+    }
+
+    // Throws if a seat file can't store the id; call it before the train is taken on
+    public static void checkTrainId(String trainId) {
+        String problem = idProblem(trainId);
+        if (problem != null) {
+            throw new IllegalArgumentException(problem);
+        }
+    }
+
+    private static String idProblem(String trainId) {
+        if (trainId == null || trainId.isEmpty()) {
+            return "A train needs an id";
+        }
+        int length = trainId.getBytes(StandardCharsets.UTF_8).length;
+        return length <= MAX_ID_BYTES ? null
+                : "Train id " + trainId + " is " + length + " bytes in UTF-8, at most " + MAX_ID_BYTES + " fit in a seat file";
+    }
+
+    // Opens the file, creating an empty one if it doesn't exist yet
+    public static SeatFile open(Path path) throws IOException {
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            boolean fresh = channel.size() == 0;
+            int capacity = DEFAULT_CAPACITY;
+            if (!fresh) {
+                MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+                header.order(ByteOrder.LITTLE_ENDIAN);
+                if (header.getLong(0) != MAGIC || header.getInt(8) < 1 || header.getInt(8) > VERSION) {
+                    throw new IOException(path + " is not a seat file");
+                }
+                capacity = header.getInt(12);
+            }
+            MappedByteBuffer meta = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + (long) capacity * ENTRY_BYTES);
+            meta.order(ByteOrder.LITTLE_ENDIAN);
+            SeatFile file = new SeatFile(path, channel, meta);
+            if (fresh) {
+                meta.putLong(0, MAGIC);
+                meta.putInt(8, VERSION);
+                meta.putInt(12, capacity);
+                meta.putInt(16, 0);
+                meta.putLong(24, pageAlign(HEADER_BYTES + (long) capacity * ENTRY_BYTES));
+                meta.putLong(32, 0);
+                meta.force();
+            }
+            file.tables.add(new Table(meta, 12, 16, 32));
+            if (!fresh) {
+                file.readTables();
+            }
+            return file;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    // The train's seats, mapped in place, or null if the file doesn't hold the train
+    public synchronized SeatInventory get(String trainId) throws IOException {
+        Entry entry = entries.get(key(trainId));
+        if (entry == null) {
+            return null;
+        }
+        if (entry.inventory == null) {
+            map(entry);
+        }
+        return entry.inventory;
+    }
+
+    // Adds the train with a copy of the given seats and returns the mapped inventory
+    public synchronized SeatInventory add(String trainId, SeatInventory initial) throws IOException {
+        if (entries.containsKey(key(trainId))) {
+            throw new IOException("Train " + trainId + " is already in " + path);
+        }
+        String problem = idProblem(trainId);
+        if (problem != null) {
+            throw new IOException(problem);
+        }
+        byte[] id = trainId.getBytes(StandardCharsets.UTF_8);
+        Table table = tables.get(tables.size() - 1);
+        if (table.count() >= table.capacity()) {
+            table = addTable();
+        }
+        int count = table.count();
+
+        Entry entry = new Entry(trainId, initial.rowLengths(), initial.segments(), meta.getLong(24));
+        map(entry);
+        for (int row = 0; row < entry.rowLengths.length; row++) {
+            entry.region.putInt(row * 4, entry.rowLengths[row]);
+        }
+        entry.inventory.copyFrom(initial);
+        entry.region.force();
+
+        MappedByteBuffer buffer = table.buffer;
+        int slot = HEADER_BYTES + count * ENTRY_BYTES;
+        buffer.putShort(slot, (short) id.length);
+        buffer.put(slot + 2, id);
+        buffer.putInt(slot + 44, entry.rowLengths.length);
+        buffer.putInt(slot + 48, entry.segments);
+        buffer.putLong(slot + 56, entry.offset);
+        buffer.force();
+        // Space first, then the count: a crash in between only leaves the region unused
+        meta.putLong(24, pageAlign(entry.offset + regionBytes(entry.rowLengths, entry.segments)));
+        meta.force();
+        buffer.putInt(table.countAt, count + 1);
+        buffer.force();
+
+        entries.put(key(trainId), entry);
+        return entry.inventory;
+    }
+
+    public synchronized List<String> trainIds() {
+        List<String> ids = new ArrayList<>(entries.size());
+        for (Entry entry : entries.values()) {
+            ids.add(entry.trainId);
+        }
+        return ids;
+    }
+
+    // Writes the train's changed pages to disk
+    public void force(String trainId) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key(trainId));
+        }
+        if (entry != null && entry.region != null) {
+            entry.region.force();
+        }
+    }
+
+    public synchronized void force() {
+        for (Entry entry : entries.values()) {
+            if (entry.region != null) {
+                entry.region.force();
+            }
+        }
+    }
+
+    // Inventories already handed out stay usable; the mapping lives until they are collected
+    @Override
+    public synchronized void close() throws IOException {
+        force();
+        channel.close();
+    }
+
+    // Appends an empty extent twice the size of the tables so far; written and counted in before it is linked
+    private Table addTable() throws IOException {
+        int capacity = 0;
+        for (Table table : tables) {
+            capacity += table.capacity();
+        }
+        long offset = meta.getLong(24);
+        long size = HEADER_BYTES + (long) capacity * ENTRY_BYTES;
+        Table extent = new Table(mapTable(offset, size), 0, 4, 8);
+        extent.buffer.putInt(0, capacity);
+        extent.buffer.putInt(4, 0);
+        extent.buffer.putLong(8, 0);
+        extent.buffer.force();
+        meta.putLong(24, pageAlign(offset + size));
+        meta.putInt(8, VERSION);
+        meta.force();
+        Table last = tables.get(tables.size() - 1);
+        last.buffer.putLong(last.nextAt, offset);
+        last.buffer.force();
+        tables.add(extent);
+        return extent;
+    }
+
+    private void readTables() throws IOException {
+        Table table = tables.get(0);
+        while (true) {
+            readEntries(table);
+            long next = table.buffer.getLong(table.nextAt);
+            if (next == 0) {
+                return;
+            }
+            MappedByteBuffer header = mapTable(next, HEADER_BYTES);
+            table = new Table(mapTable(next, HEADER_BYTES + (long) header.getInt(0) * ENTRY_BYTES), 0, 4, 8);
+            tables.add(table);
+        }
+    }
+
+    private MappedByteBuffer mapTable(long offset, long size) throws IOException {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, offset, size);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return buffer;
+    }
+
+    private void readEntries(Table table) throws IOException {
+        MappedByteBuffer buffer = table.buffer;
+        int count = table.count();
+        for (int i = 0; i < count; i++) {
+            int slot = HEADER_BYTES + i * ENTRY_BYTES;
+            byte[] id = new byte[buffer.getShort(slot)];
+            buffer.get(slot + 2, id);
+            int rows = buffer.getInt(slot + 44);
+            int segments = buffer.getInt(slot + 48);
+            long offset = buffer.getLong(slot + 56);
+            int[] rowLengths = new int[rows];
+            MappedByteBuffer lengths = channel.map(FileChannel.MapMode.READ_ONLY, offset, rows * 4L);
+            lengths.order(ByteOrder.LITTLE_ENDIAN);
+            for (int row = 0; row < rows; row++) {
+                rowLengths[row] = lengths.getInt(row * 4);
+            }
+            String trainId = new String(id, StandardCharsets.UTF_8);
+            entries.put(key(trainId), new Entry(trainId, rowLengths, segments, offset));
+        }
+    }
+
+    private void map(Entry entry) throws IOException {
+        long size = regionBytes(entry.rowLengths, entry.segments);
+        entry.region = channel.map(FileChannel.MapMode.READ_WRITE, entry.offset, size);
+        entry.region.order(ByteOrder.LITTLE_ENDIAN);
+        int wordsStart = lengthsBytes(entry.rowLengths.length);
+        entry.inventory = SeatInventory.overBuffer(entry.rowLengths, entry.segments,
+                entry.region.slice(wordsStart, (int) size - wordsStart));
+    }
+
+    private static long regionBytes(int[] rowLengths, int segments) {
+        return lengthsBytes(rowLengths.length) + (long) SeatInventory.wordCount(rowLengths, segments) * Long.BYTES;
+    }
+
+    private static int lengthsBytes(int rows) {
+        return (rows * 4 + 7) & ~7;
+    }
+
+    private static long pageAlign(long offset) {
+        return (offset + PAGE_BYTES - 1) & -PAGE_BYTES;
+    }
+
+    private static String key(String trainId) {
+        return trainId.toLowerCase(Locale.ROOT);
+    }
+
+    // The header's own table or an extent: entries start HEADER_BYTES into the buffer either way
+    private static final class Table {
+        final MappedByteBuffer buffer;
+        final int capacityAt;
+        final int countAt;
+        final int nextAt;
+
+        Table(MappedByteBuffer buffer, int capacityAt, int countAt, int nextAt) {
+            this.buffer = buffer;
+            this.capacityAt = capacityAt;
+            this.countAt = countAt;
+            this.nextAt = nextAt;
+        }
+
+        int capacity() {
+            return buffer.getInt(capacityAt);
+        }
+
+        int count() {
+            return buffer.getInt(countAt);
+        }
+    }
+
+    private static final class Entry {
+        final String trainId;
+        final int[] rowLengths;
+        final int segments;
+        final long offset;
+        MappedByteBuffer region;
+        SeatInventory inventory;
+
+        Entry(String trainId, int[] rowLengths, int segments, long offset) {
+            this.trainId = trainId;
+            this.rowLengths = rowLengths;
+            this.segments = segments;
+            this.offset = offset;
+        }
+    }
+}
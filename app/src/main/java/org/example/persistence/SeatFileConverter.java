@@ -0,0 +1,85 @@
+package org.example.persistence;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.example.entities.SeatInventory;
+import org.example.entities.Train;
+
+/**
+ * Moves seat state between the {@code seats} / {@code seat_segments} arrays of trains.json
+ * and a {@link SeatFile}:
+ * <pre>
+ *   SeatFileConverter import trains.json seats.bin   # adds every train's seats to the seat file
+ *   SeatFileConverter export seats.bin trains.json   # writes the seat file's seats back into trains.json
+ * </pre>
+ * Stop the app first; trains.json is rewritten in place on export.
+ */
+public class SeatFileConverter {
+    // Returns the number of trains added; trains the seat file already holds are skipped
+    public int importTrains(File trainsFile, Path seatPath) throws IOException {
+        try (SeatFile seatFile = SeatFile.open(seatPath)) {
+            int[] added = {0};
+            try {
+                new StreamingLoader().readArray(trainsFile, Train.class, train -> {
+                    try {
+                        if (seatFile.get(train.getTrainId()) == null) {
+                            seatFile.add(train.getTrainId(), train.getInventory());
+                            added[0]++;
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            return added[0];
+        }
+    }
+
+    // Returns the number of trains whose seats were replaced
+    public int exportTrains(Path seatPath, File trainsFile) throws IOException {
+        List<Train> trains = new ArrayList<>();
+        new StreamingLoader().readArray(trainsFile, Train.class, trains::add);
+        int updated = 0;
+        try (SeatFile seatFile = SeatFile.open(seatPath)) {
+            for (Train train : trains) {
+                SeatInventory seats = seatFile.get(train.getTrainId());
+                if (seats != null) {
+                    train.setInventory(seats.copy());
+                    updated++;
+                }
+            }
+        }
+        Path target = trainsFile.toPath();
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        // Stays in the format it was in
+        Codec.of(trainsFile).mapper().writeValue(tmp.toFile(), trains);
+        Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        return updated;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3 || !(args[0].equals("import") || args[0].equals("export"))) {
+            System.out.println("Usage: SeatFileConverter import <trains.json> <seat file>");
+            System.out.println("       SeatFileConverter export <seat file> <trains.json>");
+            System.exit(2);
+        }
+        SeatFileConverter converter = new SeatFileConverter();
+        if (args[0].equals("import")) {
+            int added = converter.importTrains(new File(args[1]), Paths.get(args[2]));
+            System.out.println("Added " + added + " trains to " + args[2]);
+        } else {
+            int updated = converter.exportTrains(Paths.get(args[1]), new File(args[2]));
+            System.out.println("Wrote seats of " + updated + " trains to " + args[2]);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package org.example.persistence;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+
+/**
+ * A train's {@code seats} matrix as one bit per seat, for Smile snapshots only: as a list of
+ * lists every 0 and 1 is a token of its own, which makes the matrix most of trains.json.
+ * Layout: {@code [rows:int]} then per row {@code [seats:int][ceil(seats / 8) bytes]}, seat
+ * {@code i} in bit {@code i % 8} of byte {@code i / 8}. Reading also takes the plain array.
+ */
+final class SeatMatrixBitmap {
+    private static final TypeReference<List<List<Integer>>> MATRIX = new TypeReference<List<List<Integer>>>() {};
+
+    private SeatMatrixBitmap() {
+    }
+
+    // Mixed into Train on the Smile mapper (see Codec)
+    abstract static class TrainMixin {
+        @JsonSerialize(using = Serializer.class)
+        public abstract List<List<Integer>> getSeats();
+
+        @JsonDeserialize(using = Deserializer.class)
+        public abstract void setSeats(List<List<Integer>> seats);
+    }
+
+    static byte[] encode(List<List<Integer>> matrix) {
+        int size = 4;
+        for (List<Integer> row : matrix) {
+            size += 4 + (row.size() + 7) / 8;
+        }
+        ByteBuffer out = ByteBuffer.allocate(size).putInt(matrix.size());
+        for (List<Integer> row : matrix) {
+            out.putInt(row.size());
+            byte[] bits = new byte[(row.size() + 7) / 8];
+            for (int i = 0; i < row.size(); i++) {
+                Integer seat = row.get(i);
+                if (seat != null && seat != 0) {
+                    bits[i >> 3] |= (byte) (1 << (i & 7));
+                }
+            }
+            out.put(bits);
+        }
+        return out.array();
+    }
+
+    static List<List<Integer>> decode(byte[] bitmap) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(bitmap);
+        try {
+            int rows = in.getInt();
+            List<List<Integer>> matrix = new ArrayList<>(rows);
+            for (int r = 0; r < rows; r++) {
+                int seats = in.getInt();
+                byte[] bits = new byte[(seats + 7) / 8];
+                in.get(bits);
+                List<Integer> row = new ArrayList<>(seats);
+                for (int i = 0; i < seats; i++) {
+                    row.add((bits[i >> 3] >> (i & 7)) & 1);
+                }
+                matrix.add(row);
+            }
+            return matrix;
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupt seat bitmap", e);
+        }
+    }
+
+    static final class Serializer extends JsonSerializer<List<List<Integer>>> {
+        @Override
+        public void serialize(List<List<Integer>> matrix, JsonGenerator generator, SerializerProvider provider) throws IOException {
+            generator.writeBinary(encode(matrix));
+        }
+    }
+
+    static final class Deserializer extends JsonDeserializer<List<List<Integer>>> {
+        @Override
+        public List<List<Integer>> deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+            if (parser.currentToken() == JsonToken.START_ARRAY) {
+                return parser.readValueAs(MATRIX);
+            }
+            return decode(parser.getBinaryValue());
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package org.example.persistence;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.example.entities.SeatHold;
+import org.example.entities.Train;
+import org.example.entities.User;
+
+/**
+ * Rewrites a snapshot file as JSON or Smile (see {@link Codec}), whichever it is now:
+ * <pre>
+ *   SnapshotConverter smile users.json               # in place
+ *   SnapshotConverter json trains.json trains-debug.json
+ * </pre>
+ * What the file holds is told by its name: {@code users*}, {@code holds*}, anything else
+ * is trains. Journal segments need no converting, each record says what it is in. Stop
+ * the app first, or set {@code irctc.persistence.format} and let the next compaction do it.
+ */
+public class SnapshotConverter {
+
+    // Returns the number of records written
+    public long convert(File in, File out, Codec to) throws IOException {
+        Path target = out.toPath();
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        String name = in.getName().toLowerCase(Locale.ROOT);
+        long records;
+        if (name.startsWith("users")) {
+            List<User> users = new ArrayList<>();
+            try (UsersSnapshot snapshot = new UsersSnapshot(to)) {
+                records = snapshot.read(in, users::add);
+                try (OutputStream stream = new FileOutputStream(tmp.toFile())) {
+                    snapshot.writer(users).write(stream);
+                }
+            }
+        } else if (name.startsWith("holds")) {
+            SeatHold[] holds = in.length() == 0 ? new SeatHold[0] : Codec.of(in).mapper().readValue(in, SeatHold[].class);
+            to.mapper().writeValue(tmp.toFile(), holds);
+            records = holds.length;
+        } else {
+            List<Train> trains = new ArrayList<>();
+            records = new StreamingLoader().readArray(in, Train.class, trains::add);
+            to.mapper().writeValue(tmp.toFile(), trains);
+        }
+        Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        return records;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || args.length > 3 || !(args[0].equals("json") || args[0].equals("smile"))) {
+            System.out.println("Usage: SnapshotConverter <json|smile> <snapshot file> [<output file>]");
+            System.exit(2);
+        }
+        File in = new File(args[1]);
+        File out = args.length == 3 ? new File(args[2]) : in;
+        long before = in.length();
+        long records = new SnapshotConverter().convert(in, out, Codec.valueOf(args[0].toUpperCase(Locale.ROOT)));
+        System.out.println("Wrote " + records + " records to " + out + " as " + args[0] + ": "
+                + before + " -> " + out.length() + " bytes");
+    }
+}
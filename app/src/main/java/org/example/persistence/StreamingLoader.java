@@ -0,0 +1,67 @@
+package org.example.persistence;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.function.Consumer;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.example.util.Log;
+
+/**
+ * Reads a top-level JSON array one element at a time with Jackson's streaming parser, so
+ * only the current record is ever materialized as JSON; what the caller keeps from it is
+ * up to the caller. The file may be JSON or Smile (see {@link Codec}). Progress is logged every {@code irctc.load.progressMillis} (default
+ * 2000) for files that take longer than that.
+ */
+public class StreamingLoader {
+    private static final Log LOG = Log.get(StreamingLoader.class);
+    private static final long PROGRESS_MILLIS = Long.getLong("irctc.load.progressMillis", 2000);
+
+    // Binds each element to type; returns the number of records read
+    public <T> long readArray(File file, Class<T> type, Consumer<? super T> sink) throws IOException {
+        return readArray(file, parser -> sink.accept(parser.readValueAs(type)));
+    }
+
+    public long readArray(File file, RecordReader reader) throws IOException {
+        long total = file.length();
+        long records = 0;
+        long started = System.currentTimeMillis();
+        long nextReport = started + PROGRESS_MILLIS;
+        ObjectMapper objectMapper = Codec.of(file).mapper();
+        try (JsonParser parser = objectMapper.getFactory().createParser(file)) {
+            JsonToken first = parser.nextToken();
+            if (first == null) {
+                return 0;
+            }
+            if (first != JsonToken.START_ARRAY) {
+                throw new IOException(file + " does not hold an array");
+            }
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                if (parser.currentToken() == null) {
+                    throw new IOException(file + " ends in the middle of the array");
+                }
+                reader.read(parser);
+                records++;
+                if ((records & 1023) == 0 && System.currentTimeMillis() >= nextReport) {
+                    long offset = parser.getCurrentLocation().getByteOffset();
+                    LOG.info("Loading {}: {} records, {}% of {} KB",
+                            file.getName(), records, total == 0 ? 100 : offset * 100 / total, total / 1024);
+                    nextReport = System.currentTimeMillis() + PROGRESS_MILLIS;
+                }
+            }
+        }
+        LOG.info("Loaded {} records from {} in {} ms", records, file.getName(), System.currentTimeMillis() - started);
+        return records;
+    }
+
+    /**
+     * Consumes one array element. The parser is on the element's first token and must be
+     * left on its last one (what {@code readValue} and {@code skipChildren} do).
+     */
+    public interface RecordReader {
+        void read(JsonParser parser) throws IOException;
+    }
+}
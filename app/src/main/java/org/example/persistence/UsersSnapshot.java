@@ -0,0 +1,316 @@
+package org.example.persistence;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.function.Consumer;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileParser;
+
+import org.example.entities.Ticket;
+import org.example.entities.User;
+
+/**
+ * Streams users.json in and out. Loading keeps each user's name, id and password hash but
+ * leaves a non-empty {@code tickets_booked} array where it is in the file, remembering only
+ * its byte range; the tickets are parsed the first time someone asks the user for them.
+ * So startup cost and heap follow the users that are actually used, not the file size.
+ *
+ * <p>Writing a snapshot copies the bytes of still-unread ticket arrays straight across
+ * and re-points them at the new file once the journal has installed it.
+ *
+ * <p>In a Smile file ({@link Codec}) each non-empty ticket list is a Smile document of its
+ * own, embedded as a binary value: Smile back-references earlier names and strings, so a
+ * slice of the outer document could not be read on its own.
+ */
+public class UsersSnapshot implements Closeable {
+    private static final TypeReference<List<Ticket>> TICKET_LIST = new TypeReference<List<Ticket>>() {};
+
+    private final Codec writeAs;
+    private final StreamingLoader loader = new StreamingLoader();
+    private Source source;
+    private final List<Move> pending = new ArrayList<>();
+    private long legacyUsers;
+
+    // Reads either format; snapshots are written as writeAs
+    public UsersSnapshot(Codec writeAs) {
+        this.writeAs = writeAs;
+    }
+
+    public synchronized long read(File file, Consumer<User> sink) throws IOException {
+        Source opened = new Source(file.toPath());
+        try {
+            long records = loader.readArray(file, parser -> sink.accept(readUser(parser, opened)));
+            replaceSource(opened);
+            return records;
+        } catch (IOException | RuntimeException e) {
+            opened.close();
+            throw e;
+        }
+    }
+
+    // Users read so far whose tickets embed whole Train copies (files from before train references)
+    public synchronized long getLegacyUsers() {
+        return legacyUsers;
+    }
+
+    // Hand to Journal.compact; users must not change order or membership while it runs
+    public Journal.SnapshotWriter writer(List<User> users) {
+        return new Journal.SnapshotWriter() {
+            @Override
+            public void write(OutputStream out) throws IOException {
+                writeUsers(out, users);
+            }
+
+            @Override
+            public void installed(Path snapshot) throws IOException {
+                install(snapshot);
+            }
+        };
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        replaceSource(null);
+    }
+
+    private User readUser(JsonParser parser, Source from) throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            throw new IOException("Expected a user object at " + parser.getCurrentLocation());
+        }
+        User user = new User();
+        user.setTicketsBooked(new ArrayList<>());
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            switch (field) {
+                case "name":
+                    user.setName(parser.getValueAsString());
+                    break;
+                case "password":
+                    user.setPassword(parser.getValueAsString());
+                    break;
+                case "hashed_password":
+                    user.setHashedPassword(parser.getValueAsString());
+                    break;
+                case "user_id":
+                    user.setUserId(parser.getValueAsString());
+                    break;
+                case "tickets_booked":
+                    if (value == JsonToken.VALUE_EMBEDDED_OBJECT) {
+                        // Smile: the raw bytes end where the parser now stands
+                        long length = parser.readBinaryValue(OutputStream.nullOutputStream());
+                        long end = parser.getCurrentLocation().getByteOffset();
+                        user.deferTickets(new DeferredTickets(from, end - length, Math.toIntExact(length)));
+                    } else if (value == JsonToken.START_ARRAY && parser instanceof SmileParser) {
+                        // Only written for empty lists, but any inline array is fine
+                        user.setTicketsBooked(parser.readValueAs(TICKET_LIST));
+                    } else if (value == JsonToken.START_ARRAY) {
+                        long start = parser.getTokenLocation().getByteOffset();
+                        boolean empty = parser.nextToken() == JsonToken.END_ARRAY;
+                        boolean legacy = skipTickets(parser);
+                        if (!empty) {
+                            long end = parser.getCurrentLocation().getByteOffset();
+                            DeferredTickets tickets = new DeferredTickets(from, start, Math.toIntExact(end - start));
+                            if (legacy) {
+                                // Parsed now so the next snapshot writes them in the compact form
+                                user.setTicketsBooked(tickets.call());
+                                legacyUsers++;
+                            } else {
+                                user.deferTickets(tickets);
+                            }
+                        }
+                    }
+                    break;
+                default:
+                    parser.skipChildren();
+                    break;
+            }
+        }
+        return user;
+    }
+
+    // Skips to the end of a tickets_booked array, noting whether any ticket embeds a whole train
+    private static boolean skipTickets(JsonParser parser) throws IOException {
+        boolean legacy = false;
+        while (parser.currentToken() != JsonToken.END_ARRAY) {
+            if (parser.currentToken() == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    legacy |= "train".equals(parser.getCurrentName());
+                    parser.nextToken();
+                    parser.skipChildren();
+                }
+            } else {
+                parser.skipChildren();
+            }
+            parser.nextToken();
+        }
+        return legacy;
+    }
+
+    private synchronized void writeUsers(OutputStream out, List<User> users) throws IOException {
+        pending.clear();
+        CountingOutputStream counting = new CountingOutputStream(out);
+        ObjectMapper objectMapper = writeAs.mapper();
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(counting)) {
+            generator.writeStartArray();
+            for (User user : users) {
+                generator.writeStartObject();
+                generator.writeStringField("name", user.getName());
+                generator.writeStringField("password", user.getPassword());
+                generator.writeStringField("hashed_password", user.getHashedPassword());
+                generator.writeFieldName("tickets_booked");
+                synchronized (user) {
+                    Callable<List<Ticket>> tickets = user.getDeferredTickets();
+                    byte[] raw = tickets instanceof DeferredTickets ? ((DeferredTickets) tickets).raw() : null;
+                    if (raw != null && Codec.of(raw) != writeAs) {
+                        // Format is changing: this one snapshot parses the list to re-encode it
+                        raw = null;
+                    }
+                    if (raw != null) {
+                        if (writeAs == Codec.JSON) {
+                            generator.writeRawValue(new String(raw, StandardCharsets.UTF_8));
+                        } else {
+                            generator.writeBinary(raw);
+                        }
+                        // Flushing is cheap here: the counting stream doesn't pass it on
+                        generator.flush();
+                        pending.add(new Move((DeferredTickets) tickets, counting.count - raw.length));
+                    } else if (writeAs == Codec.SMILE && !user.getTicketsBooked().isEmpty()) {
+                        generator.writeBinary(objectMapper.writeValueAsBytes(user.getTicketsBooked()));
+                    } else {
+                        objectMapper.writeValue(generator, user.getTicketsBooked());
+                    }
+                }
+                generator.writeStringField("user_id", user.getUserId());
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+        }
+    }
+
+    private synchronized void install(Path snapshot) throws IOException {
+        Source fresh = new Source(snapshot);
+        for (Move move : pending) {
+            move.range.moveTo(fresh, move.start);
+        }
+        pending.clear();
+        legacyUsers = 0;
+        replaceSource(fresh);
+    }
+
+    private void replaceSource(Source fresh) throws IOException {
+        Source old = source;
+        source = fresh;
+        if (old != null) {
+            old.close();
+        }
+    }
+
+    // An open handle keeps reading the bytes it was opened on even after the path is replaced
+    private static final class Source implements Closeable {
+        private final FileChannel channel;
+
+        Source(Path path) throws IOException {
+            this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        }
+
+        byte[] read(long position, int length) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new IOException("users file is shorter than expected");
+                }
+            }
+            return buffer.array();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    // One user's unread tickets_booked array; synchronized so a move can't close the file under a read
+    private final class DeferredTickets implements Callable<List<Ticket>> {
+        private Source from;
+        private long start;
+        private final int length;
+
+        DeferredTickets(Source from, long start, int length) {
+            this.from = from;
+            this.start = start;
+            this.length = length;
+        }
+
+        @Override
+        public synchronized List<Ticket> call() throws IOException {
+            byte[] raw = from.read(start, length);
+            return Codec.of(raw).mapper().readValue(raw, TICKET_LIST);
+        }
+
+        synchronized byte[] raw() throws IOException {
+            return from.read(start, length);
+        }
+
+        synchronized void moveTo(Source to, long newStart) {
+            this.from = to;
+            this.start = newStart;
+        }
+    }
+
+    private static final class Move {
+        final DeferredTickets range;
+        final long start;
+
+        Move(DeferredTickets range, long start) {
+            this.range = range;
+            this.start = start;
+        }
+    }
+
+    // Counts bytes on their way to the snapshot; flush stops here, the journal syncs the file itself
+    private static final class CountingOutputStream extends OutputStream {
+        private final OutputStream out;
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package org.example.services;
+
+import java.util.Collection;
+import java.util.Locale;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Serializes everything that changes one train's seats (claiming a seat and journalling
+ * the BOOK, releasing one, handing it to the waitlist) behind a lock picked by trainId, so
+ * bookings on different trains run fully in parallel while bookings on the same train
+ * happen one at a time. There is no global lock: trains are hashed onto a fixed set of
+ * stripes ({@code irctc.booking.stripes}, default 1024, rounded up to a power of two).
+ *
+ * <p>Tickets are issued after the lock is let go. The seat is already taken and logged by
+ * then, so nobody else can get it, and the users journal write doesn't hold up the next
+ * booking on the train. Only waitlist tickets are issued under the lock, as the seat is
+ * given away inside a release.
+ */
+public class BookingCoordinator {
+    private static BookingCoordinator instance;
+
+    private final ReentrantLock[] stripes;
+    private final int mask;
+
+    public BookingCoordinator(int stripeCount) {
+        int size = Integer.highestOneBit(Math.max(1, stripeCount - 1)) << 1;
+        this.stripes = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        this.mask = size - 1;
+    }
+
+    public static synchronized BookingCoordinator getInstance() {
+        if (instance == null) {
+            instance = new BookingCoordinator(Integer.getInteger("irctc.booking.stripes", 1024));
+        }
+        return instance;
+    }
+
+    public <T> T onTrain(String trainId, Callable<T> work) throws Exception {
+        ReentrantLock lock = stripes[stripeOf(trainId)];
+        lock.lock();
+        try {
+            return work.call();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Runs work only if the train's lock is free right now (or already held by this thread); false otherwise
+    public boolean tryOnTrain(String trainId, Callable<Boolean> work) {
+        ReentrantLock lock = stripes[stripeOf(trainId)];
+        if (!lock.tryLock()) {
+            return false;
+        }
+        try {
+            return work.call();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Locks several trains at once; stripes are always taken in ascending order so two
+    // multi-train callers can't deadlock each other
+    public <T> T onTrains(Collection<String> trainIds, Callable<T> work) throws Exception {
+        TreeSet<Integer> needed = new TreeSet<>();
+        for (String trainId : trainIds) {
+            needed.add(stripeOf(trainId));
+        }
+        int locked = 0;
+        try {
+            for (int stripe : needed) {
+                stripes[stripe].lock();
+                locked++;
+            }
+            return work.call();
+        } finally {
+            for (int stripe : needed) {
+                if (locked-- == 0) {
+                    break;
+                }
+                stripes[stripe].unlock();
+            }
+        }
+    }
+
+    public int stripeCount() {
+        return stripes.length;
+    }
+
+    int stripeOf(String trainId) {
+        int hash = trainId.toLowerCase(Locale.ROOT).hashCode();
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+}
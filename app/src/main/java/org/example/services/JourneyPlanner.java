@@ -0,0 +1,488 @@
+package org.example.services;
+
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.example.entities.Train;
+
+/**
+ * Earliest-arrival journeys with up to a few changes of train, by connection scan.
+ *
+ * <p>Every hop a train makes between two consecutive stops is one connection. All of them
+ * are kept in a single array sorted by departure time, packed into a long each; a query is
+ * one forward pass over that array from the requested departure time. The timetable
+ * repeats daily, so the pass merges yesterday's, today's and tomorrow's copy of the array.
+ *
+ * <p>The array follows the {@link TrainRepository}: a changed train only has its own
+ * connections taken out and merged back in, on the next query.
+ */
+public class JourneyPlanner implements TrainRepository.TimetableListener {
+    private static final Map<TrainRepository, JourneyPlanner> PLANNERS = new IdentityHashMap<>();
+
+    private static final int DAY = 24 * 60 * 60;
+    private static final int INFINITY = Integer.MAX_VALUE;
+    private static final int MAX_STOPS = 1 << 12;
+    private static final int MAX_TRANSFERS = 4;
+    private static final int MIN_TRANSFER_SECONDS = Integer.getInteger("irctc.journey.minTransferMinutes", 10) * 60;
+
+    private final Object pendingLock = new Object();
+    private List<Train> pendingReload;
+    private final Map<Integer, Train> pendingChanges = new HashMap<>();
+    private volatile boolean dirty;
+    private volatile Timetable timetable = new Timetable(new long[0], new Route[0], new HashMap<>(), new String[0]);
+
+    // Fed by hand rather than by one repository; see ShardRouter
+    JourneyPlanner() {}
+
+    // One planner per repository, so the connection array is built once
+    public static synchronized JourneyPlanner forRepository(TrainRepository repository) {
+        JourneyPlanner planner = PLANNERS.get(repository);
+        if (planner == null) {
+            planner = new JourneyPlanner();
+            repository.addTimetableListener(planner);
+            PLANNERS.put(repository, planner);
+        }
+        return planner;
+    }
+
+    @Override
+    public void trainChanged(int ordinal, Train train) {
+        synchronized (pendingLock) {
+            pendingChanges.put(ordinal, train);
+            dirty = true;
+        }
+    }
+
+    @Override
+    public void timetableReloaded(List<Train> trains) {
+        synchronized (pendingLock) {
+            pendingReload = trains;
+            pendingChanges.clear();
+            dirty = true;
+        }
+    }
+
+    /**
+     * Journeys from source to destination leaving at or after departAfter, the earliest
+     * arrival for each number of changes up to maxTransfers. A journey with more changes
+     * is only listed if it arrives strictly earlier. Empty if there is no way to get there
+     * within two days.
+     */
+    public List<Journey> plan(String source, String destination, LocalTime departAfter, int maxTransfers) {
+        Timetable current = current();
+        List<Journey> journeys = new ArrayList<>();
+        Integer src = source == null ? null : current.stationIds.get(source.toLowerCase(Locale.ROOT));
+        Integer dst = destination == null ? null : current.stationIds.get(destination.toLowerCase(Locale.ROOT));
+        if (src == null || dst == null || src.equals(dst)) {
+            return journeys;
+        }
+        int legs = Math.max(0, Math.min(maxTransfers, MAX_TRANSFERS)) + 1;
+        Scan scan = new Scan(current, src, dst, departAfter.toSecondOfDay(), legs);
+        scan.run();
+
+        int bestSoFar = INFINITY;
+        for (int k = 1; k <= legs; k++) {
+            if (scan.arrival[k][dst] < bestSoFar) {
+                bestSoFar = scan.arrival[k][dst];
+                Journey journey = scan.journey(k);
+                if (journey != null) {
+                    journeys.add(journey);
+                }
+            }
+        }
+        return journeys;
+    }
+
+    public int connectionCount() {
+        return current().connections.length;
+    }
+
+    private Timetable current() {
+        if (dirty) {
+            synchronized (this) {
+                if (dirty) {
+                    List<Train> reload;
+                    Map<Integer, Train> changes;
+                    synchronized (pendingLock) {
+                        reload = pendingReload;
+                        changes = new HashMap<>(pendingChanges);
+                        pendingReload = null;
+                        pendingChanges.clear();
+                        dirty = false;
+                    }
+                    Timetable next = timetable;
+                    if (reload != null) {
+                        next = rebuild(reload);
+                    }
+                    if (!changes.isEmpty()) {
+                        next = next.with(changes);
+                    }
+                    timetable = next;
+                }
+            }
+        }
+        return timetable;
+    }
+
+    private static Timetable rebuild(List<Train> trains) {
+        Map<String, Integer> stationIds = new HashMap<>();
+        List<String> stationNames = new ArrayList<>();
+        Route[] routes = new Route[trains.size()];
+        int total = 0;
+        for (int ordinal = 0; ordinal < trains.size(); ordinal++) {
+            routes[ordinal] = Route.of(trains.get(ordinal), stationIds, stationNames);
+            total += routes[ordinal] == null ? 0 : routes[ordinal].connectionCount();
+        }
+        long[] connections = new long[total];
+        int n = 0;
+        for (int ordinal = 0; ordinal < routes.length; ordinal++) {
+            n = routes[ordinal] == null ? n : routes[ordinal].appendConnections(ordinal, connections, n);
+        }
+        Arrays.sort(connections);
+        return new Timetable(connections, routes, stationIds, stationNames.toArray(new String[0]));
+    }
+
+    // Connection layout: departure second (23 bits) | train ordinal (29 bits) | stop index (12 bits)
+    private static long connection(int departure, int ordinal, int stop) {
+        return ((long) departure << 41) | ((long) ordinal << 12) | stop;
+    }
+
+    private static int departureOf(long connection) {
+        return (int) (connection >>> 41);
+    }
+
+    private static int ordinalOf(long connection) {
+        return (int) (connection >>> 12) & ((1 << 29) - 1);
+    }
+
+    private static int stopOf(long connection) {
+        return (int) connection & (MAX_STOPS - 1);
+    }
+
+    // Seconds past midnight, possibly on a later day, as "HH:mm" with "+1d" style suffix
+    static String formatTime(int seconds) {
+        int day = Math.floorDiv(seconds, DAY);
+        LocalTime time = LocalTime.ofSecondOfDay(Math.floorMod(seconds, DAY));
+        String text = String.format("%02d:%02d", time.getHour(), time.getMinute());
+        return day == 0 ? text : text + " +" + day + "d";
+    }
+
+    private static final class Timetable {
+        final long[] connections; // sorted
+        final Route[] routes; // by ordinal; null if the train has no usable times
+        final Map<String, Integer> stationIds;
+        final String[] stationNames;
+
+        Timetable(long[] connections, Route[] routes, Map<String, Integer> stationIds, String[] stationNames) {
+            this.connections = connections;
+            this.routes = routes;
+            this.stationIds = stationIds;
+            this.stationNames = stationNames;
+        }
+
+        // Drops the changed trains' connections and merges in their new ones; O(connections)
+        Timetable with(Map<Integer, Train> changes) {
+            Map<String, Integer> ids = new HashMap<>(stationIds);
+            List<String> names = new ArrayList<>(Arrays.asList(stationNames));
+            int maxOrdinal = routes.length - 1;
+            for (int ordinal : changes.keySet()) {
+                maxOrdinal = Math.max(maxOrdinal, ordinal);
+            }
+            Route[] newRoutes = Arrays.copyOf(routes, maxOrdinal + 1);
+            boolean[] changed = new boolean[newRoutes.length];
+            int added = 0;
+            for (Map.Entry<Integer, Train> change : changes.entrySet()) {
+                changed[change.getKey()] = true;
+                Route route = Route.of(change.getValue(), ids, names);
+                newRoutes[change.getKey()] = route;
+                added += route == null ? 0 : route.connectionCount();
+            }
+            long[] fresh = new long[added];
+            int n = 0;
+            for (int ordinal : changes.keySet()) {
+                n = newRoutes[ordinal] == null ? n : newRoutes[ordinal].appendConnections(ordinal, fresh, n);
+            }
+            Arrays.sort(fresh);
+
+            long[] merged = new long[connections.length + fresh.length];
+            int i = 0;
+            int j = 0;
+            int m = 0;
+            while (i < connections.length || j < fresh.length) {
+                if (i < connections.length && changed[ordinalOf(connections[i])]) {
+                    i++;
+                } else if (j >= fresh.length || (i < connections.length && connections[i] <= fresh[j])) {
+                    merged[m++] = connections[i++];
+                } else {
+                    merged[m++] = fresh[j++];
+                }
+            }
+            return new Timetable(Arrays.copyOf(merged, m), newRoutes, ids, names.toArray(new String[0]));
+        }
+    }
+
+    // One train's stops as station ids, with times in seconds from its first day's midnight
+    private static final class Route {
+        final String trainId;
+        final String trainNo;
+        final int[] stations;
+        final int[] times; // -1 where stationTimes has no entry
+
+        private Route(String trainId, String trainNo, int[] stations, int[] times) {
+            this.trainId = trainId;
+            this.trainNo = trainNo;
+            this.stations = stations;
+            this.times = times;
+        }
+
+        static Route of(Train train, Map<String, Integer> stationIds, List<String> stationNames) {
+            if (train.stationCount() < 2 || train.getStationTimes() == null) {
+                return null;
+            }
+            int count = Math.min(train.stationCount(), MAX_STOPS - 1);
+            int[] stations = new int[count];
+            int[] times = new int[count];
+            int previous = 0;
+            for (int i = 0; i < count; i++) {
+                String name = train.stationName(i).toLowerCase(Locale.ROOT);
+                Integer id = stationIds.get(name);
+                if (id == null) {
+                    id = stationNames.size();
+                    stationIds.put(name, id);
+                    stationNames.add(name);
+                }
+                stations[i] = id;
+                // Times are clock times; a stop earlier than the one before is on the next day
+                int seconds = train.departureSecond(i);
+                if (seconds >= 0) {
+                    while (seconds < previous) {
+                        seconds += DAY;
+                    }
+                    previous = seconds;
+                }
+                times[i] = seconds;
+            }
+            return new Route(train.getTrainId(), train.getTrainNo(), stations, times);
+        }
+
+        int connectionCount() {
+            int count = 0;
+            for (int i = 0; i + 1 < times.length; i++) {
+                if (times[i] >= 0 && times[i + 1] >= 0) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        int appendConnections(int ordinal, long[] into, int at) {
+            for (int i = 0; i + 1 < times.length; i++) {
+                if (times[i] >= 0 && times[i + 1] >= 0) {
+                    into[at++] = connection(times[i], ordinal, i);
+                }
+            }
+            return at;
+        }
+    }
+
+    // State of one query. Trips are (train ordinal, day) pairs: day 0, 1, 2 = yesterday, today, tomorrow.
+    private static final class Scan {
+        final Timetable timetable;
+        final int source;
+        final int target;
+        final int departAfter;
+        final int legs;
+        final int[][] arrival; // [k][station]: earliest arrival using at most k trains
+        final long[][] boardedAt; // [k][station]: connection + day the last train was boarded
+        final long[][] alightedAt; // [k][station]: connection + day it was left
+        final byte[] tripLegs; // fewest trains needed to be on this trip, 0 = not reached
+        final long[] tripBoarded;
+
+        Scan(Timetable timetable, int source, int target, int departAfter, int legs) {
+            this.timetable = timetable;
+            this.source = source;
+            this.target = target;
+            this.departAfter = departAfter;
+            this.legs = legs;
+            int stations = timetable.stationNames.length;
+            arrival = new int[legs + 1][stations];
+            boardedAt = new long[legs + 1][stations];
+            alightedAt = new long[legs + 1][stations];
+            for (int k = 0; k <= legs; k++) {
+                Arrays.fill(arrival[k], INFINITY);
+                arrival[k][source] = departAfter;
+            }
+            tripLegs = new byte[timetable.routes.length * 3];
+            tripBoarded = new long[timetable.routes.length * 3];
+        }
+
+        void run() {
+            long[] connections = timetable.connections;
+            int[] next = new int[3];
+            for (int day = 0; day < 3; day++) {
+                next[day] = firstDepartingAt(connections, departAfter - (day - 1) * DAY);
+            }
+            while (true) {
+                // The earliest pending connection across the three day copies
+                int day = -1;
+                int departure = INFINITY;
+                for (int d = 0; d < 3; d++) {
+                    if (next[d] < connections.length) {
+                        int candidate = departureOf(connections[next[d]]) + (d - 1) * DAY;
+                        if (candidate < departure) {
+                            departure = candidate;
+                            day = d;
+                        }
+                    }
+                }
+                if (day < 0 || departure >= arrival[legs][target] || departure > departAfter + 2 * DAY) {
+                    return;
+                }
+                int index = next[day]++;
+                scan(connections[index], index, day, departure);
+            }
+        }
+
+        private void scan(long connection, int index, int day, int departure) {
+            int ordinal = ordinalOf(connection);
+            int stop = stopOf(connection);
+            Route route = timetable.routes[ordinal];
+            int from = route.stations[stop];
+            int to = route.stations[stop + 1];
+            int trip = ordinal * 3 + day;
+            long here = (long) index * 3 + day;
+
+            int onBoard = tripLegs[trip] == 0 ? legs + 1 : tripLegs[trip];
+            // Boarding here beats staying on from earlier if it takes fewer trains so far
+            for (int k = 1; k < onBoard; k++) {
+                int ready = arrival[k - 1][from];
+                if (ready != INFINITY && (from == source ? ready : ready + MIN_TRANSFER_SECONDS) <= departure) {
+                    tripLegs[trip] = (byte) k;
+                    tripBoarded[trip] = here;
+                    onBoard = k;
+                    break;
+                }
+            }
+            if (onBoard > legs) {
+                return;
+            }
+            int arrives = route.times[stop + 1] + (day - 1) * DAY;
+            for (int k = onBoard; k <= legs && arrives < arrival[k][to]; k++) {
+                arrival[k][to] = arrives;
+                boardedAt[k][to] = tripBoarded[trip];
+                alightedAt[k][to] = here;
+            }
+        }
+
+        Journey journey(int k) {
+            List<Leg> path = new ArrayList<>();
+            int station = target;
+            while (station != source) {
+                if (k <= 0 || arrival[k][station] == INFINITY) {
+                    return null;
+                }
+                Leg leg = leg(boardedAt[k][station], alightedAt[k][station]);
+                path.add(0, leg);
+                station = timetable.stationIds.get(leg.from);
+                k--;
+            }
+            return new Journey(path);
+        }
+
+        private Leg leg(long boarded, long alighted) {
+            long boardConnection = timetable.connections[(int) (boarded / 3)];
+            long alightConnection = timetable.connections[(int) (alighted / 3)];
+            int offset = ((int) (boarded % 3) - 1) * DAY;
+            Route route = timetable.routes[ordinalOf(boardConnection)];
+            int boardStop = stopOf(boardConnection);
+            int alightStop = stopOf(alightConnection) + 1;
+            return new Leg(route.trainId, route.trainNo,
+                    timetable.stationNames[route.stations[boardStop]], timetable.stationNames[route.stations[alightStop]],
+                    route.times[boardStop] + offset, route.times[alightStop] + offset);
+        }
+
+        private static int firstDepartingAt(long[] connections, int seconds) {
+            if (seconds <= 0) {
+                return 0;
+            }
+            int at = Arrays.binarySearch(connections, connection(seconds, 0, 0));
+            return at >= 0 ? at : -at - 1;
+        }
+    }
+
+    public static final class Journey {
+        private final List<Leg> legs;
+
+        Journey(List<Leg> legs) {
+            this.legs = legs;
+        }
+
+        public List<Leg> getLegs() {
+            return legs;
+        }
+
+        public int getTransfers() {
+            return legs.size() - 1;
+        }
+
+        public String getDeparture() {
+            return formatTime(legs.get(0).departureSeconds);
+        }
+
+        public String getArrival() {
+            return formatTime(legs.get(legs.size() - 1).arrivalSeconds);
+        }
+
+        public int getDurationMinutes() {
+            return (legs.get(legs.size() - 1).arrivalSeconds - legs.get(0).departureSeconds) / 60;
+        }
+    }
+
+    public static final class Leg {
+        private final String trainId;
+        private final String trainNo;
+        private final String from;
+        private final String to;
+        private final int departureSeconds;
+        private final int arrivalSeconds;
+
+        Leg(String trainId, String trainNo, String from, String to, int departureSeconds, int arrivalSeconds) {
+            this.trainId = trainId;
+            this.trainNo = trainNo;
+            this.from = from;
+            this.to = to;
+            this.departureSeconds = departureSeconds;
+            this.arrivalSeconds = arrivalSeconds;
+        }
+
+        public String getTrainId() {
+            return trainId;
+        }
+
+        public String getTrainNo() {
+            return trainNo;
+        }
+
+        public String getFrom() {
+            return from;
+        }
+
+        public String getTo() {
+            return to;
+        }
+
+        public String getDeparture() {
+            return formatTime(departureSeconds);
+        }
+
+        public String getArrival() {
+            return formatTime(arrivalSeconds);
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package org.example.services;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.example.entities.SeatInventory;
+import org.example.entities.Train;
+import org.example.persistence.SeatFile;
+import org.example.util.Log;
+
+/**
+ * Seat inventory per run of a train, i.e. per (trainId, travel date). The train's own
+ * {@code seats} in trains.json is only the template a run starts from. All runs of one
+ * date share a memory-mapped {@link SeatFile}, {@code runs/<date>.seats} next to
+ * trains.json; a run is added to it the first time it is touched.
+ *
+ * <p>Bookings change the mapped bits in place. Changed runs are forced to disk every
+ * {@code irctc.runs.forceMillis} (default 1000) and always before the trains journal is
+ * compacted, so the journal only has to cover what the last force may have missed. Once
+ * a date has passed its file is moved to {@code runs/archive/} at the next compaction.
+ */
+class RunInventories {
+    private static final Log LOG = Log.get(RunInventories.class);
+    private static final long FORCE_MILLIS = Long.getLong("irctc.runs.forceMillis", 1000);
+
+    private final Path runsDir;
+    private final Path archiveDir;
+    private final ObjectMapper objectMapper;
+    private final Map<LocalDate, SeatFile> files = new ConcurrentHashMap<>();
+    private final Map<String, Run> runs = new ConcurrentHashMap<>();
+    private final AtomicLong versions = new AtomicLong();
+    private ScheduledExecutorService forcer;
+
+    RunInventories(File trainsFile, ObjectMapper objectMapper) {
+        Path parent = trainsFile.getAbsoluteFile().toPath().getParent();
+        this.runsDir = parent.resolve("runs");
+        this.archiveDir = runsDir.resolve("archive");
+        this.objectMapper = objectMapper;
+    }
+
+    SeatInventory get(Train train, LocalDate date) throws IOException {
+        return run(train, date).inventory;
+    }
+
+    // Call after changing a run's inventory, under the train's booking lock
+    void markDirty(String trainId, LocalDate date) {
+        Run run = runs.get(key(trainId, date));
+        if (run != null) {
+            run.dirty.set(true);
+            run.version = versions.incrementAndGet();
+        }
+    }
+
+    // Changes whenever a booking on the run commits; unique across runs, even ones loaded again later
+    long version(Train train, LocalDate date) throws IOException {
+        return run(train, date).version;
+    }
+
+    // Every run loaded so far, for the seat gauges
+    void forEachRun(RunVisitor visitor) {
+        for (Run run : runs.values()) {
+            visitor.visit(run.trainId, run.date, run.inventory);
+        }
+    }
+
+    // The trains stored in the seat file of every date from today on, whether loaded yet or not
+    Map<LocalDate, List<String>> storedRuns(LocalDate today) throws IOException {
+        Map<LocalDate, List<String>> stored = new TreeMap<>();
+        if (!Files.isDirectory(runsDir)) {
+            return stored;
+        }
+        try (Stream<Path> list = Files.list(runsDir)) {
+            for (Path file : (Iterable<Path>) list::iterator) {
+                LocalDate date = dateOf(file);
+                if (date != null && !date.isBefore(today)) {
+                    stored.put(date, fileFor(date).trainIds());
+                }
+            }
+        }
+        return stored;
+    }
+
+    // Forces every run changed since the last flush to disk
+    void flush() throws IOException {
+        for (Run run : runs.values()) {
+            if (run.dirty.getAndSet(false)) {
+                try {
+                    run.file.force(run.trainId);
+                } catch (UncheckedIOException e) {
+                    run.dirty.set(true);
+                    throw e.getCause();
+                }
+            }
+        }
+    }
+
+    // Stops the forcing, forces what changed and unmaps every file; the runs can't be used after this
+    void close() throws IOException {
+        synchronized (this) {
+            if (forcer != null) {
+                forcer.shutdownNow();
+                forcer = null;
+            }
+        }
+        flush();
+        runs.clear();
+        for (SeatFile file : files.values()) {
+            file.close();
+        }
+        files.clear();
+    }
+
+    // Archives the files of dates that have passed, in memory and on disk; run right after flush()
+    void archiveDeparted(LocalDate today) throws IOException {
+        runs.values().removeIf(run -> run.date.isBefore(today));
+        for (Map.Entry<LocalDate, SeatFile> entry : files.entrySet()) {
+            if (entry.getKey().isBefore(today)) {
+                files.remove(entry.getKey());
+                entry.getValue().close();
+            }
+        }
+        if (!Files.isDirectory(runsDir)) {
+            return;
+        }
+        try (Stream<Path> list = Files.list(runsDir)) {
+            for (Path file : (Iterable<Path>) list::iterator) {
+                LocalDate date = dateOf(file);
+                if (date != null && date.isBefore(today) && !files.containsKey(date)) {
+                    Files.createDirectories(archiveDir);
+                    Files.move(file, archiveDir.resolve(file.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+        }
+    }
+
+    private Run run(Train train, LocalDate date) throws IOException {
+        String key = key(train.getTrainId(), date);
+        Run run = runs.get(key);
+        if (run == null) {
+            try {
+                run = runs.computeIfAbsent(key, k -> {
+                    try {
+                        return load(train, date);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+        return run;
+    }
+
+    private Run load(Train train, LocalDate date) throws IOException {
+        SeatFile file = fileFor(date);
+        SeatInventory inventory = file.get(train.getTrainId());
+        if (inventory == null) {
+            Path legacy = legacyFile(train.getTrainId(), date);
+            SeatInventory initial = legacy == null ? train.getInventory() : readLegacy(legacy);
+            inventory = file.add(train.getTrainId(), initial);
+            if (legacy != null) {
+                Files.delete(legacy);
+            }
+        }
+        startForcer();
+        return new Run(train.getTrainId(), date, file, inventory, versions.incrementAndGet());
+    }
+
+    private SeatFile fileFor(LocalDate date) throws IOException {
+        SeatFile file = files.get(date);
+        if (file != null) {
+            return file;
+        }
+        synchronized (files) {
+            file = files.get(date);
+            if (file == null) {
+                Path path = runsDir.resolve(date + ".seats");
+                Path archived = archiveDir.resolve(date + ".seats");
+                file = SeatFile.open(!Files.exists(path) && Files.exists(archived) ? archived : path);
+                files.put(date, file);
+            }
+            return file;
+        }
+    }
+
+    // Runs used to be saved one JSON file each as runs/<trainId>/<date>.json
+    private Path legacyFile(String trainId, LocalDate date) {
+        for (Path dir : List.of(runsDir, archiveDir)) {
+            Path file = dir.resolve(safeName(trainId)).resolve(date + ".json");
+            if (Files.exists(file)) {
+                return file;
+            }
+        }
+        return null;
+    }
+
+    private SeatInventory readLegacy(Path file) throws IOException {
+        LegacyRun saved = objectMapper.readValue(file.toFile(), LegacyRun.class);
+        return SeatInventory.fromSegmentMasks(saved.getSeatSegments(), saved.getSegments());
+    }
+
+    private synchronized void startForcer() {
+        if (forcer != null || FORCE_MILLIS <= 0) {
+            return;
+        }
+        forcer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "seat-file-force");
+            thread.setDaemon(true);
+            return thread;
+        });
+        forcer.scheduleWithFixedDelay(() -> {
+            try {
+                flush();
+            } catch (IOException | RuntimeException e) {
+                LOG.error("Error forcing seat files", e);
+            }
+        }, FORCE_MILLIS, FORCE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private static String key(String trainId, LocalDate date) {
+        return trainId.toLowerCase(Locale.ROOT) + "/" + date;
+    }
+
+    private static LocalDate dateOf(Path file) {
+        String name = file.getFileName().toString();
+        if (!name.endsWith(".seats")) {
+            return null;
+        }
+        try {
+            return LocalDate.parse(name.substring(0, name.length() - ".seats".length()));
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    // trainIds became directory names in the old JSON layout
+    private static String safeName(String trainId) {
+        return trainId.toLowerCase(Locale.ROOT).replaceAll("[^a-z0-9_-]", "_");
+    }
+
+    private static final class Run {
+        final String trainId;
+        final LocalDate date;
+        final SeatFile file;
+        final SeatInventory inventory;
+        final AtomicBoolean dirty = new AtomicBoolean();
+        volatile long version;
+
+        Run(String trainId, LocalDate date, SeatFile file, SeatInventory inventory, long version) {
+            this.trainId = trainId;
+            this.date = date;
+            this.file = file;
+            this.inventory = inventory;
+            this.version = version;
+        }
+    }
+
+    interface RunVisitor {
+        void visit(String trainId, LocalDate date, SeatInventory inventory);
+    }
+
+    // Old per-run JSON file, read once and folded into the date's seat file
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class LegacyRun {
+        private int segments;
+        private List<List<Long>> seatSegments;
+
+        public int getSegments() {
+            return segments;
+        }
+
+        public void setSegments(int segments) {
+            this.segments = segments;
+        }
+
+        public List<List<Long>> getSeatSegments() {
+            return seatSegments;
+        }
+
+        public void setSeatSegments(List<List<Long>> seatSegments) {
+            this.seatSegments = seatSegments;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package org.example.services;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.example.entities.SeatMap;
+import org.example.entities.SeatPreferences;
+
+/**
+ * Picks the best free seats for a party from a {@link SeatMap}. Rows are chosen from the
+ * map's per-row summaries (free count, longest free run), and inside a row only the free
+ * runs are visited, so a nearly full train costs a handful of word scans, not a pass over
+ * every seat.
+ *
+ * <p>Preference order: one run of adjacent seats that fits most tightly (so big runs stay
+ * whole for big parties), touching a window if asked; then, unless {@code together} was
+ * required, the row that can seat the party with the fewest splits; then, unless
+ * {@code sameCoach} was required, the longest runs anywhere.
+ */
+final class SeatAllocator {
+    private SeatAllocator() {}
+
+    // {row, seat} per passenger, or null if the map can't seat the party as asked
+    static List<int[]> allocate(SeatMap map, int party, SeatPreferences prefs) {
+        if (party < 1 || party > map.freeSeats()) {
+            return null;
+        }
+        List<int[]> block = adjacentBlock(map, party, prefs.isWindow());
+        if (block != null || prefs.isTogether()) {
+            return block;
+        }
+        block = oneRow(map, party);
+        if (block != null || prefs.isSameCoach()) {
+            return block;
+        }
+        return anywhere(map, party);
+    }
+
+    private static List<int[]> adjacentBlock(SeatMap map, int party, boolean window) {
+        int bestRow = -1;
+        int bestStart = 0;
+        long bestScore = Long.MAX_VALUE;
+        for (int row = 0; row < map.rows(); row++) {
+            if (map.longestFreeRun(row) < party) {
+                continue;
+            }
+            int lastSeat = map.seatsInRow(row) - 1;
+            for (int start = map.nextFree(row, 0); start >= 0; ) {
+                int end = map.nextTaken(row, start);
+                int length = end - start;
+                if (length >= party) {
+                    // Put the party at the window end of the run when there is one
+                    int placed = end - 1 == lastSeat && start != 0 ? end - party : start;
+                    boolean atWindow = placed == 0 || placed + party - 1 == lastSeat;
+                    long score = (window && !atWindow ? 1L << 40 : 0) + ((long) (length - party) << 20) + row;
+                    if (score < bestScore) {
+                        bestScore = score;
+                        bestRow = row;
+                        bestStart = placed;
+                    }
+                }
+                start = map.nextFree(row, end);
+            }
+            if (bestScore < 1L << 20) {
+                break; // exact fit (at a window, if asked) and every later row scores higher
+            }
+        }
+        if (bestRow < 0) {
+            return null;
+        }
+        List<int[]> seats = new ArrayList<>(party);
+        for (int i = 0; i < party; i++) {
+            seats.add(new int[] {bestRow, bestStart + i});
+        }
+        return seats;
+    }
+
+    // Row whose longest run is biggest among those with room for everyone: fewest splits
+    private static List<int[]> oneRow(SeatMap map, int party) {
+        int bestRow = -1;
+        for (int row = 0; row < map.rows(); row++) {
+            if (map.freeInRow(row) >= party && (bestRow < 0 || map.longestFreeRun(row) > map.longestFreeRun(bestRow))) {
+                bestRow = row;
+            }
+        }
+        if (bestRow < 0) {
+            return null;
+        }
+        List<int[]> seats = new ArrayList<>(party);
+        takeRuns(map, bestRow, party, seats);
+        return seats;
+    }
+
+    private static List<int[]> anywhere(SeatMap map, int party) {
+        List<Integer> rows = new ArrayList<>();
+        for (int row = 0; row < map.rows(); row++) {
+            if (map.freeInRow(row) > 0) {
+                rows.add(row);
+            }
+        }
+        rows.sort((a, b) -> Integer.compare(map.longestFreeRun(b), map.longestFreeRun(a)));
+        List<int[]> seats = new ArrayList<>(party);
+        for (int row : rows) {
+            if (seats.size() == party) {
+                break;
+            }
+            takeRuns(map, row, party, seats);
+        }
+        return seats.size() == party ? seats : null;
+    }
+
+    // Adds free seats of the row, longest run first, until the party is seated or the row is empty
+    private static void takeRuns(SeatMap map, int row, int party, List<int[]> seats) {
+        List<int[]> runs = new ArrayList<>();
+        for (int start = map.nextFree(row, 0); start >= 0; ) {
+            int end = map.nextTaken(row, start);
+            runs.add(new int[] {start, end});
+            start = map.nextFree(row, end);
+        }
+        runs.sort((a, b) -> Integer.compare(b[1] - b[0], a[1] - a[0]));
+        for (int[] run : runs) {
+            for (int seat = run[0]; seat < run[1] && seats.size() < party; seat++) {
+                seats.add(new int[] {row, seat});
+            }
+        }
+    }
+}
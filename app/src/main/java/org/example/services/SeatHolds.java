@@ -0,0 +1,148 @@
+package org.example.services;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.example.entities.SeatHold;
+import org.example.persistence.Codec;
+import org.example.util.LatencyHistogram;
+import org.example.util.Log;
+import org.example.util.Metrics;
+import org.example.util.TimerWheel;
+
+/**
+ * Outstanding seat holds and their expiry. Every hold sits in one {@link TimerWheel}
+ * ticked every {@code irctc.holds.tickMillis} (default 1000) by a single thread, which
+ * hands whatever came due to the expiry callback in one batch.
+ *
+ * <p>Holds that outlive a compaction of the trains journal are saved to {@code holds.json}
+ * next to trains.json, so a restart picks them up again with their original deadlines.
+ */
+class SeatHolds {
+    private static final Log LOG = Log.get(SeatHolds.class);
+    private static final long TICK_MILLIS = Long.getLong("irctc.holds.tickMillis", 1000);
+    private static final LatencyHistogram HOLDS_LOAD = Metrics.getInstance()
+            .timer("irctc_json_load_seconds", "Jackson loads of a snapshot file, journal replay included", "file=\"holds\"");
+    private static final LatencyHistogram HOLDS_SAVE = Metrics.getInstance()
+            .timer("irctc_json_save_seconds", "Jackson writes of a snapshot file", "file=\"holds\"");
+
+    private final File file;
+    private final Codec codec;
+    private final Consumer<List<SeatHold>> onExpired;
+    private final TimerWheel<SeatHold> wheel = new TimerWheel<>(TICK_MILLIS, System.currentTimeMillis());
+    private final Map<String, TimerWheel.Timeout<SeatHold>> holds = new ConcurrentHashMap<>();
+    private ScheduledExecutorService ticker;
+
+    SeatHolds(File trainsFile, Codec codec, Consumer<List<SeatHold>> onExpired) {
+        this.file = new File(trainsFile.getAbsoluteFile().getParentFile(), "holds.json");
+        this.codec = codec;
+        this.onExpired = onExpired;
+    }
+
+    // Replaces a hold with the same id
+    void add(SeatHold hold) {
+        TimerWheel.Timeout<SeatHold> previous = holds.put(hold.getHoldId(), wheel.schedule(hold, hold.getExpiresAt()));
+        if (previous != null) {
+            wheel.cancel(previous);
+        }
+    }
+
+    SeatHold get(String holdId) {
+        TimerWheel.Timeout<SeatHold> timeout = holds.get(holdId);
+        return timeout == null ? null : timeout.getItem();
+    }
+
+    // Null if the hold is unknown or already gone
+    SeatHold remove(String holdId) {
+        TimerWheel.Timeout<SeatHold> timeout = holds.remove(holdId);
+        if (timeout == null) {
+            return null;
+        }
+        wheel.cancel(timeout);
+        return timeout.getItem();
+    }
+
+    // Forgets everything and starts over from holds.json
+    void reload() throws IOException {
+        for (String holdId : new ArrayList<>(holds.keySet())) {
+            remove(holdId);
+        }
+        if (file.exists() && file.length() > 0) {
+            long started = System.nanoTime();
+            for (SeatHold hold : Codec.of(file).mapper().readValue(file, SeatHold[].class)) {
+                add(hold);
+            }
+            HOLDS_LOAD.record(System.nanoTime() - started);
+        }
+    }
+
+    // Part of a trains journal compaction: after this the journal no longer has to remember the holds
+    void save() throws IOException {
+        long started = System.nanoTime();
+        List<SeatHold> live = all();
+        Path target = file.toPath();
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp.toFile())) {
+            out.write(codec.mapper().writeValueAsBytes(live));
+            out.getFD().sync();
+        }
+        Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        HOLDS_SAVE.record(System.nanoTime() - started);
+    }
+
+    int size() {
+        return holds.size();
+    }
+
+    // Every live hold, including ones due but not yet expired
+    List<SeatHold> all() {
+        List<SeatHold> live = new ArrayList<>();
+        for (TimerWheel.Timeout<SeatHold> timeout : holds.values()) {
+            live.add(timeout.getItem());
+        }
+        return live;
+    }
+
+    synchronized void start() {
+        if (ticker != null) {
+            return;
+        }
+        ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "seat-hold-expiry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker.scheduleWithFixedDelay(this::expireDue, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    // Nothing expires after this; the holds themselves stay as they are
+    synchronized void stop() {
+        if (ticker != null) {
+            ticker.shutdownNow();
+            ticker = null;
+        }
+    }
+
+    private void expireDue() {
+        try {
+            List<SeatHold> due = wheel.advance(System.currentTimeMillis());
+            if (!due.isEmpty()) {
+                onExpired.accept(due);
+            }
+        } catch (RuntimeException e) {
+            LOG.error("Error expiring holds", e);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package org.example.services;
+
+import java.time.LocalDate;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.example.entities.SeatInventory;
+import org.example.entities.SeatMap;
+
+/**
+ * Shared {@link SeatMap}s per (train, run date, leg). A cached map is served as long as
+ * its version matches the run's current one; the first reader after a booking commits
+ * builds a new map and publishes it, and nobody ever waits on the booking locks.
+ */
+class SeatMapCache {
+    private static final int MAX_CACHED = Integer.getInteger("irctc.seatMaps.maxCached", 4096);
+
+    private final Map<String, SeatMap> maps = new ConcurrentHashMap<>();
+
+    // version must be read before inventory is, so a booking that lands mid-build bumps it past the map's
+    SeatMap get(String trainId, LocalDate runDate, int from, int to, long version, SeatInventory inventory) {
+        String key = trainId.toLowerCase(Locale.ROOT) + "/" + runDate + "/" + from + "-" + to;
+        SeatMap cached = maps.get(key);
+        if (cached != null && cached.getVersion() == version) {
+            return cached;
+        }
+        SeatMap fresh = inventory.snapshot(from, to, version);
+        if (maps.size() >= MAX_CACHED) {
+            // Cheap to rebuild; dropping everything beats bookkeeping an LRU on the read path
+            maps.clear();
+        }
+        maps.merge(key, fresh, (old, built) -> old.getVersion() > built.getVersion() ? old : built);
+        return fresh;
+    }
+}
@@ -0,0 +1,410 @@
+package org.example.services;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.example.entities.SeatHold;
+import org.example.entities.SeatInventory;
+import org.example.entities.SeatMap;
+import org.example.entities.Ticket;
+import org.example.entities.Train;
+import org.example.entities.WaitlistEntry;
+import org.example.persistence.Codec;
+import org.example.persistence.JournalEvent;
+import org.example.persistence.SeatFile;
+import org.example.util.HashRing;
+import org.example.util.Log;
+
+/**
+ * Splits the timetable and its seats into {@code irctc.shards} partitions by a consistent
+ * hash of trainId. Each shard is a whole {@link TrainRepository} under {@code shards/<n>/}
+ * next to trains.json, with its own journal, run seat files and holds, so bookings on
+ * different shards never share a file, a lock or an fsync.
+ *
+ * <p>The router stands in for a TrainService: anything about one train goes to the shard
+ * that owns it; searches, the waitlist and holds looked up by id go to every shard and the
+ * answers are merged. Journeys are planned over all shards' trains together. Shards are
+ * in-process, so the fan-out runs inline; the router only talks to them as TrainServices.
+ *
+ * <p>The first open splits the current unsharded state; trains.json and its files are left
+ * as they were at that point. The shard count can't be changed on an existing split.
+ */
+public class ShardRouter extends TrainService {
+    private static final Log LOG = Log.get(ShardRouter.class);
+    private static final String TRAIN_DB_PATH = "src/main/java/org/example/localDb/trains.json";
+    private static final int VIRTUAL_NODES = Integer.getInteger("irctc.shards.virtualNodes", 128);
+    public static final int SHARDS = Integer.getInteger("irctc.shards", 1);
+    private static ShardRouter instance;
+
+    private final HashRing ring;
+    private final List<TrainService> shards = new ArrayList<>();
+    private final List<List<Train>> shardTrains = new ArrayList<>(); // each shard's trains by ordinal, for the planner
+    private final JourneyPlanner planner = new JourneyPlanner();
+
+    private ShardRouter(List<TrainRepository> repositories, HashRing ring) {
+        super((TrainRepository) null); // nothing of its own, every call goes to a shard
+        this.ring = ring;
+        for (int shard = 0; shard < repositories.size(); shard++) {
+            shards.add(new TrainService(repositories.get(shard)));
+            shardTrains.add(new ArrayList<>());
+        }
+        for (int shard = 0; shard < repositories.size(); shard++) {
+            repositories.get(shard).addTimetableListener(new ShardTimetable(shard));
+        }
+    }
+
+    public static synchronized ShardRouter getInstance() throws IOException {
+        if (instance == null) {
+            instance = open(new File(TRAIN_DB_PATH), SHARDS);
+        }
+        return instance;
+    }
+
+    public static ShardRouter open(File trainsFile, int shardCount) throws IOException {
+        HashRing ring = new HashRing(shardCount, VIRTUAL_NODES);
+        Path dir = trainsFile.getAbsoluteFile().toPath().resolveSibling("shards");
+        if (!Files.isDirectory(dir)) {
+            split(trainsFile, dir, ring);
+        }
+        int existing;
+        try (Stream<Path> list = Files.list(dir)) {
+            existing = (int) list.filter(Files::isDirectory).count();
+        }
+        if (existing != shardCount) {
+            throw new IOException("Trains are split into " + existing + " shards under " + dir + ", not " + shardCount);
+        }
+        List<TrainRepository> repositories = new ArrayList<>(shardCount);
+        for (int shard = 0; shard < shardCount; shard++) {
+            TrainRepository repository = new TrainRepository(dir.resolve(String.valueOf(shard)).resolve("trains.json").toFile());
+            for (Train train : repository.getAll()) {
+                if (ring.nodeFor(train.getTrainId()) != shard) {
+                    throw new IOException("Train " + train.getTrainId() + " is in shard " + shard + " but hashes to shard "
+                            + ring.nodeFor(train.getTrainId()) + "; was irctc.shards.virtualNodes changed?");
+                }
+            }
+            repositories.add(repository);
+        }
+        LOG.info("Opened {} train shards under {}", shardCount, dir);
+        return new ShardRouter(repositories, ring);
+    }
+
+    public int shardCount() {
+        return shards.size();
+    }
+
+    public int shardOf(String trainId) {
+        return ring.nodeFor(trainId);
+    }
+
+    @Override
+    public List<Train> searchTrains(String source, String destination) {
+        List<Train> trains = new ArrayList<>();
+        for (TrainService shard : shards) {
+            trains.addAll(shard.searchTrains(source, destination));
+        }
+        return trains;
+    }
+
+    @Override
+    public void addTrain(Train newTrain) {
+        shard(newTrain.getTrainId()).addTrain(newTrain);
+    }
+
+    @Override
+    public void updateTrain(Train updatedTrain) {
+        shard(updatedTrain.getTrainId()).updateTrain(updatedTrain);
+    }
+
+    @Override
+    public SeatInventory getInventory(Train train, LocalDate runDate) throws IOException {
+        return shard(train.getTrainId()).getInventory(train, runDate);
+    }
+
+    @Override
+    public SeatMap seatMap(Train train, LocalDate runDate, int fromSegment, int toSegment) throws IOException {
+        return shard(train.getTrainId()).seatMap(train, runDate, fromSegment, toSegment);
+    }
+
+    @Override
+    public void recordBooking(Train train, LocalDate runDate, int row, int seat, int fromSegment, int toSegment) throws IOException {
+        shard(train.getTrainId()).recordBooking(train, runDate, row, seat, fromSegment, toSegment);
+    }
+
+    @Override
+    public void recordRelease(Train train, LocalDate runDate, int row, int seat, int fromSegment, int toSegment) throws IOException {
+        shard(train.getTrainId()).recordRelease(train, runDate, row, seat, fromSegment, toSegment);
+    }
+
+    // One write per shard touched; a failure part way leaves the earlier shards' events logged
+    @Override
+    public void recordAll(List<JournalEvent> seatEvents) throws IOException {
+        Map<Integer, List<JournalEvent>> byShard = new HashMap<>();
+        for (JournalEvent event : seatEvents) {
+            byShard.computeIfAbsent(shardOf(event.getTrainId()), shard -> new ArrayList<>()).add(event);
+        }
+        for (Map.Entry<Integer, List<JournalEvent>> entry : byShard.entrySet()) {
+            shards.get(entry.getKey()).recordAll(entry.getValue());
+        }
+    }
+
+    // Ticket ids don't say which train they were for; every shard drops the ones it holds
+    @Override
+    public void ticketsIssued(Collection<String> ticketIds) {
+        for (TrainService shard : shards) {
+            shard.ticketsIssued(ticketIds);
+        }
+    }
+
+    @Override
+    public List<JournalEvent> drainUnticketed() {
+        List<JournalEvent> drained = new ArrayList<>();
+        for (TrainService shard : shards) {
+            drained.addAll(shard.drainUnticketed());
+        }
+        return drained;
+    }
+
+    // Each shard checks its own runs; the tickets for trains it doesn't have are skipped
+    @Override
+    public void reconcileRuns(Collection<Ticket> tickets) throws IOException {
+        for (TrainService shard : shards) {
+            shard.reconcileRuns(tickets);
+        }
+    }
+
+    @Override
+    public void recordHold(Train train, SeatHold hold) throws IOException {
+        shard(train.getTrainId()).recordHold(train, hold);
+    }
+
+    @Override
+    public SeatHold getHold(String holdId) {
+        for (TrainService shard : shards) {
+            SeatHold hold = shard.getHold(holdId);
+            if (hold != null) {
+                return hold;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean confirmHold(SeatHold hold, String ticketId) throws IOException {
+        return shard(hold.getTrainId()).confirmHold(hold, ticketId);
+    }
+
+    @Override
+    public boolean releaseHold(SeatHold hold) throws IOException {
+        return shard(hold.getTrainId()).releaseHold(hold);
+    }
+
+    @Override
+    public void joinWaitlist(WaitlistEntry entry, Predicate<WaitlistEntry> onFilled) {
+        shard(entry.getTrainId()).joinWaitlist(entry, onFilled);
+    }
+
+    @Override
+    public WaitlistEntry leaveWaitlist(String entryId) {
+        for (TrainService shard : shards) {
+            WaitlistEntry entry = shard.leaveWaitlist(entryId);
+            if (entry != null) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public WaitlistEntry getWaitlistEntry(String entryId) {
+        for (TrainService shard : shards) {
+            WaitlistEntry entry = shard.getWaitlistEntry(entryId);
+            if (entry != null) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public List<WaitlistEntry> waitlistOf(String userId) {
+        List<WaitlistEntry> entries = new ArrayList<>();
+        for (TrainService shard : shards) {
+            entries.addAll(shard.waitlistOf(userId));
+        }
+        return entries;
+    }
+
+    @Override
+    public int waitlistDepth(Train train, LocalDate runDate) {
+        return shard(train.getTrainId()).waitlistDepth(train, runDate);
+    }
+
+    @Override
+    public String waitlistStats() {
+        StringBuilder stats = new StringBuilder();
+        for (int shard = 0; shard < shards.size(); shard++) {
+            stats.append(shard == 0 ? "" : "\n").append("shard ").append(shard).append(' ').append(shards.get(shard).waitlistStats());
+        }
+        return stats.toString();
+    }
+
+    // Connections may change trains across shards, so the planner sees every shard's timetable
+    @Override
+    public List<JourneyPlanner.Journey> planJourney(String source, String destination, LocalTime departAfter, int maxTransfers) {
+        return planner.plan(source, destination, departAfter, maxTransfers);
+    }
+
+    @Override
+    public Train getTrain(String trainId) {
+        return shard(trainId).getTrain(trainId);
+    }
+
+    private TrainService shard(String trainId) {
+        return shards.get(ring.nodeFor(trainId));
+    }
+
+    // Writes each shard's trains, holds and run seats into a fresh directory, then moves it into place
+    private static void split(File trainsFile, Path dir, HashRing ring) throws IOException {
+        LOG.info("Splitting {} into {} shards...", trainsFile, ring.nodes());
+        // Folds the journal into trains.json, forces the run seat files and saves holds.json
+        TrainRepository source = new TrainRepository(trainsFile);
+        List<Train> all;
+        try {
+            source.snapshot();
+            all = source.getAll();
+        } finally {
+            // Its hold timer would otherwise keep expiring holds into the old journal
+            source.close();
+        }
+
+        ObjectMapper objectMapper = Codec.configured().mapper();
+        Path tmp = dir.resolveSibling(dir.getFileName() + ".tmp");
+        // Left over from a split that died half way
+        if (Files.exists(tmp)) {
+            try (Stream<Path> files = Files.walk(tmp)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+        List<List<Train>> trains = new ArrayList<>();
+        List<List<SeatHold>> holds = new ArrayList<>();
+        for (int shard = 0; shard < ring.nodes(); shard++) {
+            trains.add(new ArrayList<>());
+            holds.add(new ArrayList<>());
+        }
+        for (Train train : all) {
+            trains.get(ring.nodeFor(train.getTrainId())).add(train);
+        }
+        Path parent = trainsFile.getAbsoluteFile().toPath().getParent();
+        Path holdsFile = parent.resolve("holds.json");
+        if (Files.exists(holdsFile) && Files.size(holdsFile) > 0) {
+            for (SeatHold hold : Codec.of(holdsFile.toFile()).mapper().readValue(holdsFile.toFile(), SeatHold[].class)) {
+                holds.get(ring.nodeFor(hold.getTrainId())).add(hold);
+            }
+        }
+        for (int shard = 0; shard < ring.nodes(); shard++) {
+            Path shardDir = Files.createDirectories(tmp.resolve(String.valueOf(shard)));
+            objectMapper.writeValue(shardDir.resolve("trains.json").toFile(), trains.get(shard));
+            objectMapper.writeValue(shardDir.resolve("holds.json").toFile(), holds.get(shard));
+        }
+
+        // Runs that have not departed; archived ones stay behind
+        Path runsDir = parent.resolve("runs");
+        if (Files.isDirectory(runsDir)) {
+            try (Stream<Path> list = Files.list(runsDir)) {
+                for (Path path : (Iterable<Path>) list::iterator) {
+                    if (path.getFileName().toString().endsWith(".seats")) {
+                        splitSeatFile(path, tmp, ring);
+                    }
+                }
+            }
+        }
+        Files.move(tmp, dir);
+    }
+
+    private static void splitSeatFile(Path path, Path tmp, HashRing ring) throws IOException {
+        try (SeatFile seats = SeatFile.open(path)) {
+            Map<Integer, SeatFile> targets = new HashMap<>();
+            try {
+                for (String trainId : seats.trainIds()) {
+                    int shard = ring.nodeFor(trainId);
+                    SeatFile target = targets.get(shard);
+                    if (target == null) {
+                        target = SeatFile.open(tmp.resolve(String.valueOf(shard)).resolve("runs").resolve(path.getFileName()));
+                        targets.put(shard, target);
+                    }
+                    target.add(trainId, seats.get(trainId));
+                }
+            } finally {
+                for (SeatFile target : targets.values()) {
+                    target.force();
+                    target.close();
+                }
+            }
+        }
+    }
+
+    // Keeps the combined planner in step with one shard. The planner's ordinals are the shards'
+    // lists end to end, so a shard's ordinal is offset by the sizes of the shards before it.
+    private final class ShardTimetable implements TrainRepository.TimetableListener {
+        private final int shard;
+
+        ShardTimetable(int shard) {
+            this.shard = shard;
+        }
+
+        @Override
+        public void trainChanged(int ordinal, Train train) {
+            synchronized (shardTrains) {
+                List<Train> trains = shardTrains.get(shard);
+                int offset = 0;
+                for (int s = 0; s < shard; s++) {
+                    offset += shardTrains.get(s).size();
+                }
+                if (ordinal < trains.size()) {
+                    trains.set(ordinal, train);
+                    planner.trainChanged(offset + ordinal, train);
+                    return;
+                }
+                trains.add(train);
+                // A new train shifts the ordinals of every later shard; only with none after it can it go in alone
+                for (int s = shard + 1; s < shardTrains.size(); s++) {
+                    if (!shardTrains.get(s).isEmpty()) {
+                        planner.timetableReloaded(allTrains());
+                        return;
+                    }
+                }
+                planner.trainChanged(offset + trains.size() - 1, train);
+            }
+        }
+
+        @Override
+        public void timetableReloaded(List<Train> trains) {
+            synchronized (shardTrains) {
+                shardTrains.set(shard, new ArrayList<>(trains));
+                planner.timetableReloaded(allTrains());
+            }
+        }
+
+        private List<Train> allTrains() {
+            List<Train> all = new ArrayList<>();
+            for (List<Train> trains : shardTrains) {
+                all.addAll(trains);
+            }
+            return all;
+        }
+    }
+}
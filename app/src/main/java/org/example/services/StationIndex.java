@@ -0,0 +1,162 @@
+package org.example.services;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.example.entities.Train;
+
+/**
+ * Inverted route index: station name -> trains stopping there, kept as a list of
+ * train ordinals (position in the train list) sorted ascending together with the
+ * position of the stop on that train's route. A source/destination search is a
+ * merge of two sorted lists plus a stop-position comparison.
+ *
+ * <p>Postings are replaced copy-on-write, so searches never lock against updates.
+ */
+class StationIndex {
+    private static final int[] EMPTY = new int[0];
+
+    private final Map<String, Postings> postingsByStation = new ConcurrentHashMap<>();
+    private final Map<String, String> names = new ConcurrentHashMap<>();
+    private final List<String[]> stationsByTrain = new ArrayList<>(); // interned stops, by ordinal
+
+    StationIndex() {}
+
+    StationIndex(List<Train> trains) {
+        for (int ordinal = 0; ordinal < trains.size(); ordinal++) {
+            put(ordinal, trains.get(ordinal));
+        }
+    }
+
+    // Adds or replaces the stops of the train at the given ordinal
+    synchronized void put(int ordinal, Train train) {
+        remove(ordinal);
+        while (stationsByTrain.size() <= ordinal) {
+            stationsByTrain.add(null);
+        }
+        int count = train.stationCount();
+        if (count == 0) {
+            return;
+        }
+        List<String> indexed = new ArrayList<>(count);
+        for (int position = 0; position < count; position++) {
+            String station = intern(train.stationName(position));
+            // indexOf semantics: a station the route passes twice is indexed at its first stop
+            if (station == null || indexed.contains(station)) {
+                continue;
+            }
+            indexed.add(station);
+            int stop = position;
+            postingsByStation.compute(station, (key, postings) ->
+                    (postings == null ? Postings.EMPTY_POSTINGS : postings).with(ordinal, stop));
+        }
+        stationsByTrain.set(ordinal, indexed.toArray(new String[0]));
+    }
+
+    synchronized void remove(int ordinal) {
+        if (ordinal >= stationsByTrain.size() || stationsByTrain.get(ordinal) == null) {
+            return;
+        }
+        for (String station : stationsByTrain.get(ordinal)) {
+            postingsByStation.computeIfPresent(station, (key, postings) -> postings.without(ordinal));
+        }
+        stationsByTrain.set(ordinal, null);
+    }
+
+    // Ordinals of trains that stop at source and later at destination, ascending
+    List<Integer> search(String source, String destination) {
+        Postings from = lookup(source);
+        Postings to = lookup(destination);
+        List<Integer> matches = new ArrayList<>();
+        if (from == null || to == null) {
+            return matches;
+        }
+        int i = 0;
+        int j = 0;
+        while (i < from.ordinals.length && j < to.ordinals.length) {
+            int a = from.ordinals[i];
+            int b = to.ordinals[j];
+            if (a < b) {
+                i++;
+            } else if (a > b) {
+                j++;
+            } else {
+                if (from.positions[i] < to.positions[j]) {
+                    matches.add(a);
+                }
+                i++;
+                j++;
+            }
+        }
+        return matches;
+    }
+
+    // Station names are indexed lower-cased; the exact lookup catches the common already-lowercase query
+    private Postings lookup(String station) {
+        if (station == null) {
+            return null;
+        }
+        Postings postings = postingsByStation.get(station);
+        return postings != null ? postings : postingsByStation.get(station.toLowerCase(Locale.ROOT));
+    }
+
+    // One shared String instance per station name across all trains
+    private String intern(String station) {
+        if (station == null) {
+            return null;
+        }
+        return names.computeIfAbsent(station.toLowerCase(Locale.ROOT), name -> name);
+    }
+
+    private static final class Postings {
+        static final Postings EMPTY_POSTINGS = new Postings(EMPTY, EMPTY);
+
+        final int[] ordinals;
+        final int[] positions;
+
+        Postings(int[] ordinals, int[] positions) {
+            this.ordinals = ordinals;
+            this.positions = positions;
+        }
+
+        Postings with(int ordinal, int position) {
+            int at = Arrays.binarySearch(ordinals, ordinal);
+            if (at >= 0) {
+                int[] newPositions = positions.clone();
+                newPositions[at] = position;
+                return new Postings(ordinals, newPositions);
+            }
+            int insert = -at - 1;
+            int[] newOrdinals = new int[ordinals.length + 1];
+            int[] newPositions = new int[positions.length + 1];
+            System.arraycopy(ordinals, 0, newOrdinals, 0, insert);
+            System.arraycopy(positions, 0, newPositions, 0, insert);
+            newOrdinals[insert] = ordinal;
+            newPositions[insert] = position;
+            System.arraycopy(ordinals, insert, newOrdinals, insert + 1, ordinals.length - insert);
+            System.arraycopy(positions, insert, newPositions, insert + 1, positions.length - insert);
+            return new Postings(newOrdinals, newPositions);
+        }
+
+        Postings without(int ordinal) {
+            int at = Arrays.binarySearch(ordinals, ordinal);
+            if (at < 0) {
+                return this;
+            }
+            if (ordinals.length == 1) {
+                return null; // drops the station from the map
+            }
+            int[] newOrdinals = new int[ordinals.length - 1];
+            int[] newPositions = new int[positions.length - 1];
+            System.arraycopy(ordinals, 0, newOrdinals, 0, at);
+            System.arraycopy(positions, 0, newPositions, 0, at);
+            System.arraycopy(ordinals, at + 1, newOrdinals, at, ordinals.length - at - 1);
+            System.arraycopy(positions, at + 1, newPositions, at, positions.length - at - 1);
+            return new Postings(newOrdinals, newPositions);
+        }
+    }
+}
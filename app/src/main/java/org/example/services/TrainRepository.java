@@ -0,0 +1,799 @@
+package org.example.services;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.WeakHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+import org.example.entities.SeatHold;
+import org.example.entities.SeatInventory;
+import org.example.entities.SeatMap;
+import org.example.entities.Ticket;
+import org.example.entities.Train;
+import org.example.entities.WaitlistEntry;
+import org.example.persistence.Codec;
+import org.example.persistence.Journal;
+import org.example.persistence.JournalEvent;
+import org.example.persistence.SeatFile;
+import org.example.persistence.StreamingLoader;
+import org.example.util.LatencyHistogram;
+import org.example.util.Log;
+import org.example.util.Metrics;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+
+/**
+ * The one in-memory copy of the timetable, shared by every service. trains.json is
+ * parsed once; reads are served from memory and every change goes through the journal.
+ *
+ * <p>If trains.json is edited by hand while the app runs, the next read notices the new
+ * modification time (checked at most every {@code irctc.trains.reloadCheckMillis}) and
+ * reloads the snapshot plus the journal tail.
+ */
+public final class TrainRepository {
+    private static final Log LOG = Log.get(TrainRepository.class);
+    private static final String TRAIN_DB_PATH = "src/main/java/org/example/localDb/trains.json";
+    private static final long RELOAD_CHECK_MILLIS = Long.getLong("irctc.trains.reloadCheckMillis", 1000);
+    private static TrainRepository instance;
+    private static final Set<TrainRepository> OPEN = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+    private static final LatencyHistogram TRAINS_LOAD = Metrics.getInstance()
+            .timer("irctc_json_load_seconds", "Jackson loads of a snapshot file, journal replay included", "file=\"trains\"");
+    private static final LatencyHistogram TRAINS_SAVE = Metrics.getInstance()
+            .timer("irctc_json_save_seconds", "Jackson writes of a snapshot file", "file=\"trains\"");
+
+    static {
+        Metrics metrics = Metrics.getInstance();
+        metrics.gauges("irctc_run_seats_free", "Free seats on the whole route, per loaded run",
+                sink -> forEachRun((trainId, date, inventory) ->
+                        sink.sample(inventory.freeSeats(), "train_id", trainId, "run_date", date.toString())));
+        metrics.gauges("irctc_run_seat_occupancy_ratio", "Share of seats taken somewhere on the route, per loaded run",
+                sink -> forEachRun((trainId, date, inventory) -> sink.sample(
+                        1 - (double) inventory.freeSeats() / Math.max(1, inventory.totalSeats()),
+                        "train_id", trainId, "run_date", date.toString())));
+        metrics.gauge("irctc_waitlist_depth", "Passengers waiting for a seat", () -> {
+            long depth = 0;
+            for (TrainRepository repository : open()) {
+                depth += repository.waitlist.depth();
+            }
+            return depth;
+        });
+        metrics.gauge("irctc_seat_holds", "Seats held and not yet confirmed", () -> {
+            long held = 0;
+            for (TrainRepository repository : open()) {
+                held += repository.holds.size();
+            }
+            return held;
+        });
+    }
+
+    private final File trainsFile;
+    private final Journal journal;
+    private final ObjectMapper objectMapper = new ObjectMapper().setPropertyNamingStrategy(PropertyNamingStrategies.SNAKE_CASE);
+    private final Codec codec = Codec.configured(); // what snapshots are written as
+    private final StreamingLoader loader = new StreamingLoader();
+    private final RunInventories runs;
+    private final SeatMapCache seatMaps = new SeatMapCache();
+    private final SeatHolds holds;
+    private final Waitlist waitlist = new Waitlist();
+    // BOOKs and CONFIRMs whose tickets aren't logged yet, by ticket id. Logged again on every
+    // compaction, so a snapshot can't swallow one that a crash then leaves without a ticket.
+    private final Map<String, JournalEvent> awaitingTickets = new LinkedHashMap<>(); // guarded by itself
+    // Replayed BOOKs and CONFIRMs with a ticket id no later RELEASE gave back, by seat; null once drainUnticketed has had them
+    private Map<String, List<JournalEvent>> unticketed = new HashMap<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private List<Train> trainList;
+    private StationIndex stationIndex;
+    private Map<String, Integer> ordinalById; // lower-cased trainId -> position in trainList
+    private final AtomicLong version = new AtomicLong();
+    private final List<TimetableListener> listeners = new CopyOnWriteArrayList<>();
+    private volatile long loadedModified;
+    private volatile long nextReloadCheck;
+
+    public TrainRepository(File trainsFile) throws IOException {
+        this.trainsFile = trainsFile;
+        this.runs = new RunInventories(trainsFile, objectMapper);
+        this.holds = new SeatHolds(trainsFile, codec, this::expireHolds);
+        this.journal = Journal.open(trainsFile.toPath());
+        load(false);
+        holds.start();
+        OPEN.add(this);
+    }
+
+    public static synchronized TrainRepository getInstance() throws IOException {
+        if (instance == null) {
+            instance = new TrainRepository(new File(TRAIN_DB_PATH));
+        }
+        return instance;
+    }
+
+    public List<Train> search(String source, String destination) {
+        reloadIfChanged();
+        lock.readLock().lock();
+        try {
+            List<Integer> ordinals = stationIndex.search(source, destination);
+            List<Train> trains = new ArrayList<>(ordinals.size());
+            for (int ordinal : ordinals) {
+                trains.add(trainList.get(ordinal));
+            }
+            return trains;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public Train get(String trainId) {
+        reloadIfChanged();
+        lock.readLock().lock();
+        try {
+            Integer index = ordinalById.get(trainId.toLowerCase(Locale.ROOT));
+            return index == null ? null : trainList.get(index);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public List<Train> getAll() {
+        reloadIfChanged();
+        lock.readLock().lock();
+        try {
+            return new ArrayList<>(trainList);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Adds the train, or replaces the one with the same trainId
+    public void put(Train train) throws IOException {
+        SeatFile.checkTrainId(train.getTrainId());
+        lock.writeLock().lock();
+        try {
+            journal.append(JournalEvent.trainUpdate(train));
+            putInMemory(train);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        snapshotIfDue();
+    }
+
+    // Seats of the train's run on runDate; null runDate means the train's own seats (the template for runs)
+    public SeatInventory getInventory(Train train, LocalDate runDate) throws IOException {
+        return runDate == null ? train.getInventory() : runs.get(train, runDate);
+    }
+
+    // Who is free on segments [from, to) of the run; shared and immutable, rebuilt only after a booking on the run commits
+    public SeatMap seatMap(Train train, LocalDate runDate, int from, int to) throws IOException {
+        long runVersion = runDate == null ? version.get() : runs.version(train, runDate);
+        return seatMaps.get(train.getTrainId(), runDate, from, to, runVersion, getInventory(train, runDate));
+    }
+
+    // Logs a seat the caller has already claimed in getInventory(train, runDate); costs one small append
+    public void recordBooking(Train train, LocalDate runDate, int row, int seat, int fromSegment, int toSegment) throws IOException {
+        append(JournalEvent.booking(train.getTrainId(), dateString(runDate), row, seat, fromSegment, toSegment));
+    }
+
+    // The seat must already be released in getInventory(train, runDate)
+    public void recordRelease(Train train, LocalDate runDate, int row, int seat, int fromSegment, int toSegment) throws IOException {
+        append(JournalEvent.release(train.getTrainId(), dateString(runDate), row, seat, fromSegment, toSegment));
+        backfill(train, runDate, row, seat);
+    }
+
+    // Logs several BOOK/RELEASE events the caller has already applied, with one write and one fsync.
+    // BOOKs carrying a ticket id wait for ticketsIssued, or for a RELEASE with the same id.
+    public void recordAll(List<JournalEvent> seatEvents) throws IOException {
+        appendAll(seatEvents);
+        for (JournalEvent event : seatEvents) {
+            if (event.getType() == JournalEvent.Type.RELEASE && event.getRunDate() != null) {
+                Train train = get(event.getTrainId());
+                if (train != null) {
+                    backfill(train, LocalDate.parse(event.getRunDate()), event.getRow(), event.getSeat());
+                }
+            }
+        }
+    }
+
+    // The tickets of those BOOKs and CONFIRMs are logged; the bookings no longer need carrying across compactions
+    public void ticketsIssued(Collection<String> ticketIds) {
+        synchronized (awaitingTickets) {
+            awaitingTickets.keySet().removeAll(ticketIds);
+        }
+    }
+
+    /**
+     * The BOOKs and CONFIRMs with a ticket id replayed at startup that no RELEASE gave back since.
+     * A crash between a seat and its ticket leaves some of these without a ticket; the caller
+     * checks them against the users' tickets and releases the rest. Only answers once.
+     */
+    public List<JournalEvent> drainUnticketed() {
+        lock.writeLock().lock();
+        try {
+            // A compaction that died before dropping the old segments leaves the same BOOK logged twice
+            Map<String, JournalEvent> byTicket = new LinkedHashMap<>();
+            if (unticketed != null) {
+                for (List<JournalEvent> booked : unticketed.values()) {
+                    for (JournalEvent event : booked) {
+                        byTicket.putIfAbsent(event.getTicketId(), event);
+                    }
+                }
+                unticketed = null;
+            }
+            return new ArrayList<>(byTicket.values());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Checks the seats of every run from today on against what should be taken in them: the
+     * train's own seats, the given tickets and the live holds. A booking sets its bits in the
+     * mapped seat file before its BOOK is logged, so a crash in between leaves bits set that
+     * no record explains, which replay never touches; such runs are reset. Runs with a ticket
+     * that doesn't say its seat, or opened before the train's layout changed, are left alone.
+     * Call once at startup, after drainUnticketed's seats are settled and before any booking.
+     */
+    public void reconcileRuns(Collection<Ticket> tickets) throws IOException {
+        LocalDate today = LocalDate.now();
+        Map<String, RunBookings> byRun = new LinkedHashMap<>();
+        for (Map.Entry<LocalDate, List<String>> stored : runs.storedRuns(today).entrySet()) {
+            for (String trainId : stored.getValue()) {
+                runBookings(byRun, trainId, stored.getKey());
+            }
+        }
+        for (Ticket ticket : tickets) {
+            RunBookings run = runBookings(byRun, ticket.getTrainId(), ticket.getTravelDate());
+            if (run == null) {
+                continue;
+            }
+            if (ticket.getRow() == null || ticket.getSeat() == null
+                    || ticket.getFromSegment() == null || ticket.getToSegment() == null) {
+                run.unknown = true;
+            } else {
+                run.seats.add(new int[] {ticket.getRow(), ticket.getSeat(), ticket.getFromSegment(), ticket.getToSegment()});
+            }
+        }
+        for (SeatHold hold : holds.all()) {
+            RunBookings run = runBookings(byRun, hold.getTrainId(), LocalDate.parse(hold.getRunDate()));
+            if (run != null) {
+                run.seats.add(new int[] {hold.getRow(), hold.getSeat(), hold.getFromSegment(), hold.getToSegment()});
+            }
+        }
+        int reset = 0;
+        for (RunBookings run : byRun.values()) {
+            if (run.unknown) {
+                continue;
+            }
+            try {
+                if (BookingCoordinator.getInstance().onTrain(run.train.getTrainId(), () -> reconcile(run))) {
+                    reset++;
+                }
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        if (reset > 0) {
+            LOG.warn("Reset the seats of {} runs to their tickets and holds", reset);
+        }
+    }
+
+    // Null for a train we don't have or a run that has departed
+    private RunBookings runBookings(Map<String, RunBookings> byRun, String trainId, LocalDate runDate) {
+        Train train = trainId == null ? null : get(trainId);
+        if (train == null || runDate == null || runDate.isBefore(LocalDate.now())) {
+            return null;
+        }
+        return byRun.computeIfAbsent(idKey(train) + '|' + runDate, k -> new RunBookings(train, runDate));
+    }
+
+    // Under the train's booking lock; true if the run's seats had to be reset
+    private boolean reconcile(RunBookings run) throws IOException {
+        SeatInventory actual = getInventory(run.train, run.date);
+        SeatInventory template = run.train.getInventory();
+        if (template.segments() != actual.segments() || !Arrays.equals(template.rowLengths(), actual.rowLengths())) {
+            return false;
+        }
+        SeatInventory expected = template.copy();
+        for (int[] seat : run.seats) {
+            if (expected.isValidSeat(seat[0], seat[1]) && seat[3] <= expected.segments()) {
+                expected.markBooked(seat[0], seat[1], seat[2], seat[3]);
+            }
+        }
+        if (expected.sameBookings(actual)) {
+            return false;
+        }
+        LOG.warn("Seats of train {} on {} don't match its tickets and holds; resetting them", run.train.getTrainId(), run.date);
+        actual.copyFrom(expected);
+        runs.markDirty(run.train.getTrainId(), run.date);
+        version.incrementAndGet();
+        return true;
+    }
+
+    // The seat must already be claimed in the hold's run; it stays taken until confirmHold or releaseHold
+    public void recordHold(Train train, SeatHold hold) throws IOException {
+        append(JournalEvent.hold(hold));
+        holds.add(hold);
+    }
+
+    public SeatHold getHold(String holdId) {
+        return holds.get(holdId);
+    }
+
+    // Under the train's booking lock: the held seat stays booked for good, waiting on the ticket
+    // with that id like a batch BOOK. False if the hold already expired.
+    public boolean confirmHold(SeatHold hold, String ticketId) throws IOException {
+        if (holds.remove(hold.getHoldId()) == null) {
+            return false;
+        }
+        try {
+            append(JournalEvent.holdConfirmed(hold, ticketId));
+        } catch (IOException e) {
+            holds.add(hold);
+            throw e;
+        }
+        return true;
+    }
+
+    // Under the train's booking lock: gives the held seat back. False if it was no longer held.
+    public boolean releaseHold(SeatHold hold) throws IOException {
+        if (holds.remove(hold.getHoldId()) == null) {
+            return false;
+        }
+        Train train = get(hold.getTrainId());
+        if (train == null) {
+            return true;
+        }
+        LocalDate runDate = LocalDate.parse(hold.getRunDate());
+        getInventory(train, runDate).release(hold.getRow(), hold.getSeat(), hold.getFromSegment(), hold.getToSegment());
+        append(JournalEvent.holdReleased(hold));
+        backfill(train, runDate, hold.getRow(), hold.getSeat());
+        return true;
+    }
+
+    // Under the train's booking lock, with the leg checked sold out, so no seat can slip past the new entry.
+    // onFilled issues the ticket once the seat is booked for the entry; false if it couldn't.
+    public void joinWaitlist(WaitlistEntry entry, Predicate<WaitlistEntry> onFilled) {
+        waitlist.add(entry, onFilled);
+    }
+
+    // Under the train's booking lock. Null if the entry was already filled or never existed
+    public WaitlistEntry leaveWaitlist(String entryId) {
+        return waitlist.remove(entryId);
+    }
+
+    public WaitlistEntry getWaitlistEntry(String entryId) {
+        return waitlist.get(entryId);
+    }
+
+    public List<WaitlistEntry> waitlistOf(String userId) {
+        return waitlist.entriesOf(userId);
+    }
+
+    public int waitlistDepth(Train train, LocalDate runDate) {
+        return waitlist.depth(train.getTrainId(), runDate.toString());
+    }
+
+    public String waitlistStats() {
+        return waitlist.stats();
+    }
+
+    // Under the train's booking lock, right after a seat of the run came back: it goes straight to the waitlist.
+    // If a ticket can't be issued, the booking is undone, the passenger keeps their place and the seat stays
+    // free; giving it back through recordRelease would only come straight back here.
+    private void backfill(Train train, LocalDate runDate, int row, int seat) throws IOException {
+        if (runDate == null || waitlist.depth() == 0) {
+            return;
+        }
+        SeatInventory inventory = getInventory(train, runDate);
+        Waitlist.Waiter waiter;
+        while ((waiter = waitlist.claim(train.getTrainId(), runDate.toString(), inventory, row, seat)) != null) {
+            WaitlistEntry entry = waiter.entry;
+            // The BOOK names the ticket it waits on, like a batch's
+            entry.setTicketId(UUID.randomUUID().toString());
+            JournalEvent booking = JournalEvent.booking(train.getTrainId(), runDate.toString(), row, seat,
+                    entry.getFromSegment(), entry.getToSegment());
+            booking.setUserId(entry.getUserId());
+            booking.setTicketId(entry.getTicketId());
+            try {
+                append(booking);
+            } catch (IOException e) {
+                inventory.release(row, seat, entry.getFromSegment(), entry.getToSegment());
+                waitlist.requeue(waiter);
+                throw e;
+            }
+            if (!waiter.onFilled.test(entry)) {
+                inventory.release(row, seat, entry.getFromSegment(), entry.getToSegment());
+                JournalEvent release = JournalEvent.release(train.getTrainId(), runDate.toString(), row, seat,
+                        entry.getFromSegment(), entry.getToSegment());
+                release.setTicketId(booking.getTicketId());
+                waitlist.requeue(waiter);
+                append(release);
+                return;
+            }
+        }
+    }
+
+    // One lock and one pass per train for everything that came due in the same tick
+    private void expireHolds(List<SeatHold> due) {
+        Map<String, List<SeatHold>> byTrain = new HashMap<>();
+        for (SeatHold hold : due) {
+            byTrain.computeIfAbsent(hold.getTrainId(), id -> new ArrayList<>()).add(hold);
+        }
+        for (Map.Entry<String, List<SeatHold>> entry : byTrain.entrySet()) {
+            try {
+                BookingCoordinator.getInstance().onTrain(entry.getKey(), () -> {
+                    for (SeatHold hold : entry.getValue()) {
+                        releaseHold(hold);
+                    }
+                    return null;
+                });
+            } catch (Exception e) {
+                LOG.warn("Error expiring holds on train {}: {}", entry.getKey(), e.getMessage());
+            }
+        }
+    }
+
+    private void append(JournalEvent event) throws IOException {
+        appendAll(List.of(event));
+    }
+
+    // A BOOK or CONFIRM carrying a ticket id waits before it is written, and a RELEASE with the
+    // same id stops it waiting before that is: a compaction rolling the segment under the write
+    // still re-appends what it has to, and the fsync happens outside the awaitingTickets lock.
+    private void appendAll(List<JournalEvent> events) throws IOException {
+        lock.readLock().lock();
+        try {
+            Map<String, JournalEvent> settled = new HashMap<>();
+            synchronized (awaitingTickets) {
+                for (JournalEvent event : events) {
+                    if (event.getTicketId() == null) {
+                        continue;
+                    }
+                    if (awaitsTicket(event)) {
+                        awaitingTickets.put(event.getTicketId(), event);
+                    } else {
+                        JournalEvent booked = awaitingTickets.remove(event.getTicketId());
+                        if (booked != null) {
+                            settled.put(event.getTicketId(), booked);
+                        }
+                    }
+                }
+            }
+            // Before the write: a compaction that rolls the segment under it must force these runs
+            // before it drops the segment
+            for (JournalEvent event : events) {
+                if (event.getRunDate() != null) {
+                    runs.markDirty(event.getTrainId(), LocalDate.parse(event.getRunDate()));
+                }
+            }
+            try {
+                journal.appendAll(events);
+            } catch (IOException | RuntimeException e) {
+                synchronized (awaitingTickets) {
+                    for (JournalEvent event : events) {
+                        if (event.getTicketId() != null && awaitsTicket(event)) {
+                            awaitingTickets.remove(event.getTicketId());
+                        }
+                    }
+                    awaitingTickets.putAll(settled);
+                }
+                throw e;
+            }
+            version.incrementAndGet();
+        } finally {
+            lock.readLock().unlock();
+        }
+        snapshotIfDue();
+    }
+
+    private static boolean awaitsTicket(JournalEvent event) {
+        return event.getType() == JournalEvent.Type.BOOK || event.getType() == JournalEvent.Type.CONFIRM;
+    }
+
+    // Told about every timetable change (not about bookings), under the write lock: keep it cheap.
+    // Starts with a timetableReloaded call carrying the current trains.
+    public void addTimetableListener(TimetableListener listener) {
+        lock.writeLock().lock();
+        try {
+            listeners.add(listener);
+            listener.timetableReloaded(new ArrayList<>(trainList));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Bumped on every change, so callers can cheaply tell whether anything moved
+    public long getVersion() {
+        return version.get();
+    }
+
+    public void snapshot() throws IOException {
+        long started = System.nanoTime();
+        // Read lock keeps trains from being added or replaced while Jackson walks the list
+        lock.readLock().lock();
+        try {
+            journal.compact(new Journal.SnapshotWriter() {
+                @Override
+                public void write(OutputStream out) throws IOException {
+                    // Into the fresh segment, which outlives this snapshot
+                    synchronized (awaitingTickets) {
+                        if (!awaitingTickets.isEmpty()) {
+                            journal.appendAll(new ArrayList<>(awaitingTickets.values()));
+                        }
+                    }
+                    // Run seat files are forced to disk before the journal that holds their bookings is dropped
+                    runs.flush();
+                    holds.save();
+                    codec.mapper().writeValue(out, trainList);
+                }
+
+                // Our own write, not an edit to reload; a reader that saw the new mtime first re-checks under the write lock
+                @Override
+                public void installed(Path snapshot) {
+                    loadedModified = trainsFile.lastModified();
+                }
+            });
+            runs.archiveDeparted(LocalDate.now());
+        } finally {
+            lock.readLock().unlock();
+            TRAINS_SAVE.record(System.nanoTime() - started);
+        }
+    }
+
+    private void snapshotIfDue() throws IOException {
+        if (journal.shouldCompact()) {
+            snapshot();
+        }
+    }
+
+    // With onlyIfChanged, does nothing if trains.json is what was last loaded or snapshotted
+    private void load(boolean onlyIfChanged) throws IOException {
+        long started = System.nanoTime();
+        lock.writeLock().lock();
+        try {
+            long modified = trainsFile.lastModified();
+            if (onlyIfChanged && modified == loadedModified) {
+                return;
+            }
+            if (onlyIfChanged) {
+                LOG.info("trains.json changed on disk, reloading");
+            }
+            List<Train> loaded = new ArrayList<>();
+            if (trainsFile.exists() && trainsFile.length() > 0) {
+                // Train by train; each seat matrix is packed into its bitmap before the next is parsed
+                loader.readArray(trainsFile, Train.class, train -> {
+                    train.getInventory();
+                    loaded.add(train);
+                    try {
+                        SeatFile.checkTrainId(train.getTrainId());
+                    } catch (IllegalArgumentException e) {
+                        LOG.warn("{}; its runs can't be booked until it is renamed", e.getMessage());
+                    }
+                });
+            }
+            trainList = loaded;
+            stationIndex = new StationIndex(trainList);
+            ordinalById = new HashMap<>();
+            for (int i = 0; i < trainList.size(); i++) {
+                ordinalById.putIfAbsent(idKey(trainList.get(i)), i);
+            }
+            for (TimetableListener listener : listeners) {
+                listener.timetableReloaded(new ArrayList<>(trainList));
+            }
+            // trains.json is the last snapshot; the journal holds everything that happened since
+            if (onlyIfChanged) {
+                journal.replay(this::applyReloaded);
+            } else {
+                holds.reload();
+                if (unticketed != null) {
+                    unticketed.clear();
+                }
+                journal.replay(this::applyEvent);
+            }
+            loadedModified = modified;
+            version.incrementAndGet();
+        } finally {
+            lock.writeLock().unlock();
+            TRAINS_LOAD.record(System.nanoTime() - started);
+        }
+    }
+
+    /**
+     * Stops expiring holds and forcing seat files, lets go of the seat files and the journal and
+     * drops out of the seat gauges. For a repository opened for a one-off job, such as the trains
+     * split into shards; the shared one lives as long as the process.
+     */
+    public void close() throws IOException {
+        OPEN.remove(this);
+        holds.stop();
+        lock.writeLock().lock();
+        try {
+            runs.close();
+            journal.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static List<TrainRepository> open() {
+        synchronized (OPEN) {
+            return new ArrayList<>(OPEN);
+        }
+    }
+
+    private static void forEachRun(RunInventories.RunVisitor visitor) {
+        for (TrainRepository repository : open()) {
+            repository.runs.forEachRun(visitor);
+        }
+    }
+
+    private void reloadIfChanged() {
+        long now = System.currentTimeMillis();
+        if (now < nextReloadCheck) {
+            return;
+        }
+        nextReloadCheck = now + RELOAD_CHECK_MILLIS;
+        if (trainsFile.lastModified() != loadedModified) {
+            try {
+                load(true);
+            } catch (IOException e) {
+                LOG.warn("Error reloading trains: {}", e.getMessage());
+            }
+        }
+    }
+
+    private void putInMemory(Train train) {
+        Integer index = ordinalById.get(idKey(train));
+        if (index != null) {
+            // If found, replace the existing train with the updated one
+            trainList.set(index, train);
+        } else {
+            // Otherwise, add the new train to the list
+            trainList.add(train);
+            index = trainList.size() - 1;
+            ordinalById.put(idKey(train), index);
+        }
+        stationIndex.put(index, train);
+        for (TimetableListener listener : listeners) {
+            listener.trainChanged(index, train);
+        }
+        version.incrementAndGet();
+    }
+
+    // On a reload the runs and holds are live, and already past everything the journal holds;
+    // replaying their events again would change seats behind the trains' booking locks. Only
+    // the freshly read trains, which no booking can see yet, need catching up.
+    private void applyReloaded(JournalEvent event) {
+        if (event.getType() == JournalEvent.Type.TRAIN_UPDATE
+                || event.getRunDate() == null && (event.getType() == JournalEvent.Type.BOOK
+                        || event.getType() == JournalEvent.Type.RELEASE)) {
+            applyEvent(event);
+        }
+    }
+
+    private void applyEvent(JournalEvent event) {
+        switch (event.getType()) {
+            case TRAIN_UPDATE:
+                putInMemory(event.getTrain());
+                break;
+            case CONFIRM:
+                holds.remove(event.getHoldId());
+                // Older CONFIRMs carry neither the seat nor a ticket id
+                if (event.getTicketId() != null && event.getRunDate() != null && unticketed != null) {
+                    unticketed.computeIfAbsent(seatKey(event), k -> new ArrayList<>()).add(event);
+                }
+                break;
+            case BOOK:
+            case HOLD:
+            case RELEASE:
+                Integer index = ordinalById.get(event.getTrainId().toLowerCase(Locale.ROOT));
+                Train train = index == null ? null : trainList.get(index);
+                if (train == null) {
+                    break;
+                }
+                LocalDate runDate = event.getRunDate() == null ? null : LocalDate.parse(event.getRunDate());
+                SeatInventory inventory;
+                try {
+                    inventory = getInventory(train, runDate);
+                } catch (IOException e) {
+                    LOG.warn("Error opening seats of {} on {}: {}", train.getTrainId(), runDate, e.getMessage());
+                    break;
+                }
+                if (!inventory.isValidSeat(event.getRow(), event.getSeat()) || event.getToSegment() > inventory.segments()) {
+                    break;
+                }
+                // The run files are mapped, so their bits can be anywhere from the snapshot to past the
+                // log's end. Setting and clearing unconditionally, in log order, still ends on the
+                // log's last word for every bit it touches; an all-or-nothing tryBook would skip a
+                // BOOK whose range a RELEASE had only partly freed yet.
+                if (event.getType() == JournalEvent.Type.RELEASE) {
+                    inventory.release(event.getRow(), event.getSeat(), event.getFromSegment(), event.getToSegment());
+                    if (event.getHoldId() != null) {
+                        holds.remove(event.getHoldId());
+                    }
+                    forgetUnticketed(event);
+                } else {
+                    inventory.markBooked(event.getRow(), event.getSeat(), event.getFromSegment(), event.getToSegment());
+                    if (event.getType() == JournalEvent.Type.HOLD) {
+                        holds.add(event.getHold());
+                    } else if (event.getTicketId() != null && unticketed != null) {
+                        unticketed.computeIfAbsent(seatKey(event), k -> new ArrayList<>()).add(event);
+                    }
+                }
+                if (runDate != null) {
+                    runs.markDirty(train.getTrainId(), runDate);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    // A RELEASE over any of a replayed BOOK's or CONFIRM's segments settles it, ticket or not
+    private void forgetUnticketed(JournalEvent release) {
+        List<JournalEvent> booked = unticketed == null ? null : unticketed.get(seatKey(release));
+        if (booked == null) {
+            return;
+        }
+        for (Iterator<JournalEvent> it = booked.iterator(); it.hasNext(); ) {
+            JournalEvent book = it.next();
+            if (book.getFromSegment() < release.getToSegment() && release.getFromSegment() < book.getToSegment()) {
+                it.remove();
+            }
+        }
+        if (booked.isEmpty()) {
+            unticketed.remove(seatKey(release));
+        }
+    }
+
+    private static String seatKey(JournalEvent event) {
+        return event.getTrainId().toLowerCase(Locale.ROOT) + '|' + event.getRunDate() + '|' + event.getRow() + '|' + event.getSeat();
+    }
+
+    private static String dateString(LocalDate runDate) {
+        return runDate == null ? null : runDate.toString();
+    }
+
+    private static String idKey(Train train) {
+        return train.getTrainId().toLowerCase(Locale.ROOT);
+    }
+
+    // Trains are identified by ordinal, their position in the repository's list
+    public interface TimetableListener {
+        void trainChanged(int ordinal, Train train);
+
+        void timetableReloaded(List<Train> trains);
+    }
+
+    // What one run's seats should be: its tickets' and holds' {row, seat, from, to}
+    private static final class RunBookings {
+        final Train train;
+        final LocalDate date;
+        final List<int[]> seats = new ArrayList<>();
+        boolean unknown; // some ticket doesn't say its seat
+
+        RunBookings(Train train, LocalDate date) {
+            this.train = train;
+            this.date = date;
+        }
+    }
+}
@@ -1,77 +1,139 @@
 package org.example.services;
 
-import java.io.File;
 import java.io.IOException;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.Collection;
 import java.util.List;
-import java.util.Optional;
-import java.util.OptionalInt;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
+import java.util.function.Predicate;
 
+import org.example.entities.SeatHold;
+import org.example.entities.SeatInventory;
+import org.example.entities.SeatMap;
+import org.example.entities.Ticket;
 import org.example.entities.Train;
-
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import org.example.entities.WaitlistEntry;
+import org.example.persistence.JournalEvent;
+import org.example.persistence.SeatFile;
+import org.example.util.Log;
 
 public class TrainService  {
-    private List<Train> trainList;
-    private ObjectMapper objectMapper = new ObjectMapper().setPropertyNamingStrategy(PropertyNamingStrategies.SNAKE_CASE);
-    private static final String TRAIN_DB_PATH = "../localDB/trains.json";
+    private static final Log LOG = Log.get(TrainService.class);
+    private final TrainRepository repository;
 
+    // Cheap: every TrainService shares the process-wide repository, trains.json is parsed once
     public TrainService() throws IOException {
-        File trains = new File(TRAIN_DB_PATH);
-        trainList = objectMapper.readValue(trains, new TypeReference<List<Train>>() {});     
+        this(TrainRepository.getInstance());
+    }
+
+    public TrainService(TrainRepository repository) {
+        this.repository = repository;
     }
 
     public List<Train> searchTrains(String source, String destination) {
-        return trainList.stream().filter(train -> validTrain(train, source, destination)).collect(Collectors.toList());
+        return repository.search(source, destination);
     }
 
     public void addTrain(Train newTrain) {
-        // Check if a train with the same trainId already exists
-        Optional<Train> existingTrain = trainList.stream()
-                .filter(train -> train.getTrainId().equalsIgnoreCase(newTrain.getTrainId()))
-                .findFirst();
-        if (existingTrain.isPresent()) {
-            // If a train with the same trainId exists, update it instead of adding a new one
-            updateTrain(newTrain);
-        } else {
-            // Otherwise, add the new train to the list
-            trainList.add(newTrain);
-            saveTrainListToFile();
-        }
+        // A train with the same trainId is replaced rather than added twice, same as updateTrain
+        updateTrain(newTrain);
     }
 
+    // Throws IllegalArgumentException, before anything is written, for an id the run seat files can't hold
     public void updateTrain(Train updatedTrain) {
-        // Find the index of the train with the same trainId
-        OptionalInt index = IntStream.range(0, trainList.size())
-                .filter(i -> trainList.get(i).getTrainId().equalsIgnoreCase(updatedTrain.getTrainId()))
-                .findFirst();
-
-        if (index.isPresent()) {
-            // If found, replace the existing train with the updated one
-            trainList.set(index.getAsInt(), updatedTrain);
-            saveTrainListToFile();
-        } else {
-            // If not found, treat it as adding a new train
-            addTrain(updatedTrain);
+        SeatFile.checkTrainId(updatedTrain.getTrainId());
+        try {
+            // Don't swap the Train out from under a booking that is in flight on it
+            BookingCoordinator.getInstance().onTrain(updatedTrain.getTrainId(), () -> {
+                repository.put(updatedTrain);
+                return null;
+            });
+        } catch (Exception e) {
+            LOG.error("Error updating train {}", updatedTrain.getTrainId(), e);
         }
     }
 
-    private void saveTrainListToFile() {
-        try {
-            objectMapper.writeValue(new File(TRAIN_DB_PATH), trainList);
-        } catch (IOException e) {
-            e.printStackTrace(); // Handle the exception based on your application's requirements
-        }
+    public SeatInventory getInventory(Train train, LocalDate runDate) throws IOException {
+        return repository.getInventory(train, runDate);
+    }
+
+    public SeatMap seatMap(Train train, LocalDate runDate, int fromSegment, int toSegment) throws IOException {
+        return repository.seatMap(train, runDate, fromSegment, toSegment);
+    }
+
+    // Logs a seat the caller has already claimed in getInventory(train, runDate); costs one small append
+    public void recordBooking(Train train, LocalDate runDate, int row, int seat, int fromSegment, int toSegment) throws IOException {
+        repository.recordBooking(train, runDate, row, seat, fromSegment, toSegment);
+    }
+
+    public void recordRelease(Train train, LocalDate runDate, int row, int seat, int fromSegment, int toSegment) throws IOException {
+        repository.recordRelease(train, runDate, row, seat, fromSegment, toSegment);
+    }
+
+    public void recordAll(List<JournalEvent> seatEvents) throws IOException {
+        repository.recordAll(seatEvents);
+    }
+
+    public void ticketsIssued(Collection<String> ticketIds) {
+        repository.ticketsIssued(ticketIds);
+    }
+
+    public List<JournalEvent> drainUnticketed() {
+        return repository.drainUnticketed();
+    }
+
+    public void reconcileRuns(Collection<Ticket> tickets) throws IOException {
+        repository.reconcileRuns(tickets);
     }
 
-    private boolean validTrain(Train train, String source, String destination) {
-        List<String> stationOrder = train.getStations();
-        int sourceIndex = stationOrder.indexOf(source.toLowerCase());
-        int destinationIndex = stationOrder.indexOf(destination.toLowerCase());
+    public void recordHold(Train train, SeatHold hold) throws IOException {
+        repository.recordHold(train, hold);
+    }
+
+    public SeatHold getHold(String holdId) {
+        return repository.getHold(holdId);
+    }
+
+    // Call these two under the train's booking lock
+    public boolean confirmHold(SeatHold hold, String ticketId) throws IOException {
+        return repository.confirmHold(hold, ticketId);
+    }
+
+    public boolean releaseHold(SeatHold hold) throws IOException {
+        return repository.releaseHold(hold);
+    }
+
+    // Under the train's booking lock, after checking the leg is sold out
+    public void joinWaitlist(WaitlistEntry entry, Predicate<WaitlistEntry> onFilled) {
+        repository.joinWaitlist(entry, onFilled);
+    }
+
+    public WaitlistEntry leaveWaitlist(String entryId) {
+        return repository.leaveWaitlist(entryId);
+    }
+
+    public WaitlistEntry getWaitlistEntry(String entryId) {
+        return repository.getWaitlistEntry(entryId);
+    }
+
+    public List<WaitlistEntry> waitlistOf(String userId) {
+        return repository.waitlistOf(userId);
+    }
+
+    public int waitlistDepth(Train train, LocalDate runDate) {
+        return repository.waitlistDepth(train, runDate);
+    }
+
+    public String waitlistStats() {
+        return repository.waitlistStats();
+    }
+
+    // Earliest-arrival journeys, changing trains up to maxTransfers times; direct trains included
+    public List<JourneyPlanner.Journey> planJourney(String source, String destination, LocalTime departAfter, int maxTransfers) {
+        return JourneyPlanner.forRepository(repository).plan(source, destination, departAfter, maxTransfers);
+    }
 
-        return sourceIndex != -1 && destinationIndex != -1 && sourceIndex < destinationIndex;
+    public Train getTrain(String trainId) {
+        return repository.get(trainId);
     }
 }
@@ -2,44 +2,107 @@ package org.example.services;
 
 import java.io.File;
 import java.io.IOException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Optional;
-import java.util.Scanner;
-
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
+import org.example.entities.BookingRequest;
+import org.example.entities.SeatHold;
+import org.example.entities.SeatInventory;
+import org.example.entities.SeatMap;
+import org.example.entities.SeatPreferences;
+import org.example.entities.Ticket;
 import org.example.entities.Train;
 import org.example.entities.User;
-import org.example.util.UserServiceUtil;
+import org.example.entities.WaitlistEntry;
+import org.example.persistence.Codec;
+import org.example.persistence.Journal;
+import org.example.persistence.JournalEvent;
+import org.example.persistence.UsersSnapshot;
+import org.example.util.LatencyHistogram;
+import org.example.util.Log;
+import org.example.util.Metrics;
+import org.example.util.PasswordVerificationPool;
 
 public class UserBookingService {
     private User user;
-    private List<User> userList; 
-    private ObjectMapper objectMapper = new ObjectMapper().setPropertyNamingStrategy(PropertyNamingStrategies.SNAKE_CASE);
+    private final File usersFile;
+    private List<User> userList; // file order, for snapshots; guarded by its own monitor
+    private final Map<String, User> usersByName = new ConcurrentHashMap<>();
+    private final Map<String, User> usersById = new ConcurrentHashMap<>();
+    private Journal journal;
+    private final TrainService trainService;
+    private final BookingCoordinator coordinator = BookingCoordinator.getInstance();
+    private final UsersSnapshot usersSnapshot = new UsersSnapshot(Codec.configured());
+
+    private static final Log LOG = Log.get(UserBookingService.class);
+    private static final Metrics METRICS = Metrics.getInstance();
+    private static final LatencyHistogram SEARCH_LATENCY = METRICS.timer("irctc_search_seconds", "Train searches by source and destination");
+    private static final LatencyHistogram BOOKING_LATENCY = METRICS.timer("irctc_booking_seconds", "Single seat bookings, leg check to issued ticket");
+    private static final LatencyHistogram LOGIN_LATENCY = METRICS.timer("irctc_login_seconds", "Password checks, bcrypt queueing included");
+    private static final LatencyHistogram SIGNUP_LATENCY = METRICS.timer("irctc_signup_seconds", "Sign-ups, journal append included");
+    private static final LatencyHistogram CANCEL_LATENCY = METRICS.timer("irctc_cancel_seconds", "Ticket cancellations, seat release included");
+    private static final LatencyHistogram USERS_LOAD = METRICS.timer("irctc_json_load_seconds", "Jackson loads of a snapshot file, journal replay included", "file=\"users\"");
+    private static final LatencyHistogram USERS_SAVE = METRICS.timer("irctc_json_save_seconds", "Jackson writes of a snapshot file", "file=\"users\"");
+    private static final Metrics.Counter BOOKED = METRICS.counter("irctc_bookings", "Seat booking attempts by outcome", "outcome=\"booked\"");
+    private static final Metrics.Counter NOT_BOOKED = METRICS.counter("irctc_bookings", "Seat booking attempts by outcome", "outcome=\"rejected\"");
+    private static final Metrics.Counter LOGINS = METRICS.counter("irctc_logins", "Login attempts by outcome", "outcome=\"ok\"");
+    private static final Metrics.Counter FAILED_LOGINS = METRICS.counter("irctc_logins", "Login attempts by outcome", "outcome=\"failed\"");
+
+    private static final long HOLD_MILLIS = TimeUnit.MINUTES.toMillis(Long.getLong("irctc.holds.minutes", 10));
 
     // Path relative to your package structure
     private static final String USERS_PATH = "src/main/java/org/example/localDb/users.json";
     
     public UserBookingService(User user1) throws IOException {
+        this();
         this.user = user1;
-        loadUserListFromFile();
     }
 
     public UserBookingService() throws IOException {
+        this(new File(USERS_PATH), null);
+    }
+
+    // For running against other data files (benchmarks, shards); a null trainService means the shared one
+    public UserBookingService(File usersFile, TrainService trainService) throws IOException {
+        this.usersFile = usersFile;
+        this.trainService = trainService != null ? trainService
+                : ShardRouter.SHARDS > 1 ? ShardRouter.getInstance() : new TrainService();
         loadUserListFromFile();
+        // Before any request can book; needs both the users and the trains loaded
+        releaseUnticketed();
+        reconcileRuns();
     }
 
     private void loadUserListFromFile() throws IOException {
-        File usersFile = new File(USERS_PATH);
+        long started = System.nanoTime();
+        try {
+            readUsers();
+        } finally {
+            USERS_LOAD.record(System.nanoTime() - started);
+        }
+    }
+
+    private void readUsers() throws IOException {
+        journal = Journal.open(usersFile.toPath());
         
-        System.out.println("Loading users from: " + usersFile.getAbsolutePath());
+        LOG.info("Loading users from: {}", usersFile.getAbsolutePath());
         
         // If file doesn't exist, create empty list
         if (!usersFile.exists()) {
-            System.out.println("Users file not found, creating new one...");
+            LOG.info("Users file not found, creating new one...");
             userList = new ArrayList<>();
             // Create directory if it doesn't exist
             usersFile.getParentFile().mkdirs();
@@ -50,69 +113,186 @@ public class UserBookingService {
         // If file exists but is empty, create empty list
         if (usersFile.length() == 0) {
             userList = new ArrayList<>();
-            return;
+        } else {
+            try {
+                // One user at a time, with ticket lists left on disk until someone asks for them
+                List<User> loaded = new ArrayList<>();
+                usersSnapshot.read(usersFile, loaded::add);
+                userList = loaded;
+                LOG.info("Loaded {} users from file.", userList.size());
+            } catch (IOException e) {
+                LOG.warn("Error reading users file: {}", e.getMessage());
+                userList = new ArrayList<>();
+            }
         }
-        
-        try {
-            userList = objectMapper.readValue(usersFile, new TypeReference<List<User>>() {});
-            System.out.println("Loaded " + userList.size() + " users from file.");
-        } catch (IOException e) {
-            System.out.println("Error reading users file: " + e.getMessage());
-            userList = new ArrayList<>();
+
+        // Same name twice in the file: the first one wins, as the old linear scan did
+        for (User loaded : userList) {
+            usersByName.putIfAbsent(loaded.getName(), loaded);
+            if (loaded.getUserId() != null) {
+                usersById.putIfAbsent(loaded.getUserId(), loaded);
+            }
+        }
+
+        // users.json is the last snapshot; replay the sign-ups, tickets and cancellations logged after it
+        journal.replay(this::applyEvent);
+
+        // One-time rewrite of files whose tickets still embed whole Train copies
+        if (usersSnapshot.getLegacyUsers() > 0) {
+            LOG.info("Migrating tickets of {} users to train references...", usersSnapshot.getLegacyUsers());
+            saveUserListToFile();
+        }
+    }
+
+    private void applyEvent(JournalEvent event) {
+        switch (event.getType()) {
+            case SIGNUP:
+                User signedUp = event.getUser();
+                if (usersByName.putIfAbsent(signedUp.getName(), signedUp) == null) {
+                    usersById.putIfAbsent(signedUp.getUserId(), signedUp);
+                    userList.add(signedUp);
+                }
+                break;
+            case CANCEL:
+                User owner = usersById.get(event.getUserId());
+                if (owner != null) {
+                    owner.getTicketsBooked().removeIf(ticket -> event.getTicketId().equals(ticket.getTicketId()));
+                }
+                break;
+            case TICKET:
+                User holder = usersById.get(event.getUserId());
+                if (holder != null && !holdsTicket(holder, event.getTicketId())) {
+                    holder.getTicketsBooked().add(event.getTicket());
+                }
+                break;
+            case TICKETS:
+                User batchHolder = usersById.get(event.getUserId());
+                for (Ticket ticket : batchHolder == null ? List.<Ticket>of() : event.getTickets()) {
+                    if (!holdsTicket(batchHolder, ticket.getTicketId())) {
+                        batchHolder.getTicketsBooked().add(ticket);
+                    }
+                }
+                break;
+            case PASSWORD_REHASH:
+                User rehashed = usersById.get(event.getUserId());
+                if (rehashed != null) {
+                    rehashed.setHashedPassword(event.getHashedPassword());
+                }
+                break;
+            default:
+                break;
         }
     }
 
     public Boolean loginUser(String username, String password) {
-        Optional<User> foundUser = userList.stream().filter(user1 -> {
-                System.out.println(user1.getName() + " " + user1.getPassword());
-                boolean nameMatches = user1.getName().equals(username);
-                boolean passwordMatches = UserServiceUtil.checkPassword(password, user1.getHashedPassword());
-                System.out.println(nameMatches + " " + passwordMatches);
-                System.out.println("");
-                return nameMatches && passwordMatches;
-        }).findFirst();
-        
-        boolean loggedIn = foundUser.isPresent();
-        System.out.println(loggedIn + " " + foundUser + " LOGIN");
-        if (loggedIn) {
-            this.user = foundUser.get();
+        User foundUser;
+        try {
+            foundUser = authenticate(username, password).join();
+        } catch (CompletionException ex) {
+            // Pool saturated or verification timed out; report it rather than queueing forever
+            LOG.warn("Login unavailable, try again: {}", ex.getCause().getMessage());
+            this.user = null;
+            return false;
+        }
+        if (foundUser != null) {
+            this.user = foundUser;
             return true;    
         } else {
             this.user = null;
-            System.out.println("Login failed for user: " + username);
+            LOG.info("Login failed for user: {}", username);
             return false;
         }
     }
 
+    /**
+     * Checks the password on the bounded bcrypt pool. Completes with the user, or null for
+     * an unknown name or wrong password. A hash made with an outdated cost factor is
+     * replaced with one at the configured cost.
+     */
+    public CompletableFuture<User> authenticate(String username, String password) {
+        // One hash lookup and exactly one bcrypt check, against the matching user only
+        User foundUser = usersByName.get(username);
+        if (foundUser == null) {
+            FAILED_LOGINS.increment();
+            return CompletableFuture.completedFuture(null);
+        }
+        long started = System.nanoTime();
+        return PasswordVerificationPool.getInstance()
+            .verifyAndUpgrade(password, foundUser.getHashedPassword())
+            .thenApply(verification -> {
+                LOGIN_LATENCY.record(System.nanoTime() - started);
+                if (!verification.matches()) {
+                    FAILED_LOGINS.increment();
+                    return null;
+                }
+                LOGINS.increment();
+                if (verification.getUpgradedHash() != null) {
+                    upgradePasswordHash(foundUser, verification.getUpgradedHash());
+                }
+                return foundUser;
+            });
+    }
+
+    private void upgradePasswordHash(User user1, String upgradedHash) {
+        try {
+            journal.append(JournalEvent.passwordRehash(user1.getUserId(), upgradedHash));
+            user1.setHashedPassword(upgradedHash);
+        } catch (IOException ex) {
+            // Keep the old hash, it still verifies; we'll try again on the next login
+            LOG.warn("Error saving upgraded password hash: {}", ex.getMessage());
+        }
+    }
+
     public Boolean signUp(User user1) {
+        long started = System.nanoTime();
         try {
-            // Check if user already exists
-            boolean userExists = userList.stream()
-                .anyMatch(u -> u.getName().equals(user1.getName()));
-            
-            if (userExists) {
-                System.out.println("User " + user1.getName() + " already exists!");
-                return Boolean.FALSE;
-            }
-            
-            userList.add(user1);
-            saveUserListToFile();
-            System.out.println("User " + user1.getName() + " signed up successfully!");
-            return Boolean.TRUE;
+            return addUser(user1);
+        } finally {
+            SIGNUP_LATENCY.record(System.nanoTime() - started);
+        }
+    }
+
+    private Boolean addUser(User user1) {
+        // putIfAbsent is the duplicate check, so two concurrent sign-ups can't both take a name
+        if (usersByName.putIfAbsent(user1.getName(), user1) != null) {
+            LOG.info("User {} already exists!", user1.getName());
+            return Boolean.FALSE;
+        }
+        try {
+            journal.append(JournalEvent.signUp(user1));
         } catch (IOException ex) {
-            System.out.println("Error saving user: " + ex.getMessage());
+            usersByName.remove(user1.getName(), user1);
+            LOG.warn("Error saving user: {}", ex.getMessage());
             return Boolean.FALSE;
         }
+        usersById.put(user1.getUserId(), user1);
+        synchronized (userList) {
+            userList.add(user1);
+        }
+        try {
+            snapshotIfDue();
+        } catch (IOException ex) {
+            // The sign-up itself is already in the journal, only the compaction failed
+            LOG.warn("Error saving users snapshot: {}", ex.getMessage());
+        }
+        LOG.info("User {} signed up successfully!", user1.getName());
+        return Boolean.TRUE;
     }
 
+    // Rewrites users.json as a compact snapshot and drops the journal it replaces
     private void saveUserListToFile() throws IOException {
-        File usersFile = new File(USERS_PATH);
-        
-        // Create parent directories if they don't exist
-        usersFile.getParentFile().mkdirs();
-        
-        objectMapper.writerWithDefaultPrettyPrinter().writeValue(usersFile, userList);
-        System.out.println("Saved " + userList.size() + " users to file: " + usersFile.getAbsolutePath());
+        long started = System.nanoTime();
+        synchronized (userList) {
+            journal.compact(usersSnapshot.writer(userList));
+        }
+        USERS_SAVE.record(System.nanoTime() - started);
+        LOG.info("Saved {} users to file: {}", userList.size(), journal.getSnapshotPath());
+    }
+
+    private void snapshotIfDue() throws IOException {
+        if (journal.shouldCompact()) {
+            saveUserListToFile();
+        }
     }
 
     // ... rest of your methods remain the same
@@ -120,87 +300,712 @@ public class UserBookingService {
 
         if (this.user != null) {
             this.user.printTickets();
+            for (WaitlistEntry entry : waitlist(this.user)) {
+                LOG.info("Waitlisted {}: train {} from {} to {} on {}", entry.getEntryId(), entry.getTrainId(),
+                        entry.getSource(), entry.getDestination(), entry.getRunDate());
+            }
         } else {
-            System.out.println("No user logged in.");
+            LOG.info("No user logged in.");
         }
     }
 
     public Boolean cancelBooking(String ticketId) {
         if (user == null) {
-            System.out.println("No user logged in.");
+            LOG.info("No user logged in.");
             return false;
         }
+        return cancelBooking(user, ticketId);
+    }
+
+    // Session-free variant: the caller says whose ticket it is
+    public Boolean cancelBooking(User owner, String ticketId) {
+        long started = System.nanoTime();
+        try {
+            return cancelTicket(owner, ticketId);
+        } finally {
+            CANCEL_LATENCY.record(System.nanoTime() - started);
+        }
+    }
 
-        Scanner s = new Scanner(System.in);
-        System.out.print("Enter the ticket id to cancel: ");
-        String inputTicketId = s.nextLine().trim();
+    private Boolean cancelTicket(User owner, String ticketId) {
+        if (ticketId == null || ticketId.trim().isEmpty()) {
+            LOG.info("Ticket ID cannot be empty.");
+            return false;
+        }
+        String inputTicketId = ticketId.trim();
 
-        if (inputTicketId.isEmpty()) {
-            System.out.println("Ticket ID cannot be empty.");
-            s.close();
+        // The CANCEL is logged before the ticket goes, both under the owner's lock: a snapshot
+        // writes the owner under the same lock, so it sees the ticket either before or after both
+        Ticket removed = null;
+        synchronized (owner) {
+            Iterator<Ticket> tickets = owner.getTicketsBooked().iterator();
+            while (removed == null && tickets.hasNext()) {
+                Ticket ticket = tickets.next();
+                if (inputTicketId.equals(ticket.getTicketId())) {
+                    try {
+                        journal.append(JournalEvent.cancellation(owner.getUserId(), inputTicketId));
+                    } catch (IOException e) {
+                        LOG.warn("Error cancelling ticket {}, it is still booked: {}", inputTicketId, e.getMessage());
+                        return false;
+                    }
+                    tickets.remove();
+                    removed = ticket;
+                }
+            }
+        }
+        if (removed == null) {
+            LOG.info("No ticket found with ID {}", inputTicketId);
             return false;
         }
 
-        boolean removed = user.getTicketsBooked()
-            .removeIf(ticket -> inputTicketId.equals(ticket.getTicketId()));
+        LOG.info("Ticket {} canceled successfully!", inputTicketId);
+        try {
+            snapshotIfDue();
+        } catch (IOException e) {
+            LOG.warn("Error saving users snapshot: {}", e.getMessage());
+        }
+        releaseTicketSeat(removed);
+        return true;
+    }
 
-        if (removed) {
-            System.out.println("Ticket " + inputTicketId + " canceled successfully!");
-            try {
-                saveUserListToFile();
-            } catch (IOException e) {
-                System.out.println("Error saving changes: " + e.getMessage());
-            }
-        } else {
-            System.out.println("No ticket found with ID " + inputTicketId);
+    // Books the logged-in user onto the waitlist of a sold-out leg
+    public WaitlistEntry joinWaitlist(Train train, LocalDate runDate, String source, String destination) {
+        if (user == null) {
+            LOG.info("No user logged in.");
+            return null;
         }
+        return joinWaitlist(user, train, runDate, source, destination);
+    }
 
-        s.close();
-        return removed;
+    /**
+     * Queues the user for the leg when it is sold out. The first seat given back on the run
+     * that covers the leg (a cancellation, a released or expired hold) is booked for whoever
+     * has waited longest and their ticket issued right away. Returns null if seats are still
+     * free on the leg; book one of those instead.
+     */
+    public WaitlistEntry joinWaitlist(User owner, Train train, LocalDate runDate, String source, String destination) {
+        int[] leg = bookableLeg(train, runDate, source, destination);
+        if (leg == null) {
+            return null;
+        }
+        WaitlistEntry entry = new WaitlistEntry(UUID.randomUUID().toString(), owner.getUserId(), train.getTrainId(),
+                runDate.toString(), stationAt(train, leg[0]), stationAt(train, leg[1]), leg[0], leg[1], System.currentTimeMillis());
+        int depth;
+        try {
+            depth = coordinator.onTrain(train.getTrainId(), () -> {
+                Train live = trainService().getTrain(train.getTrainId());
+                Train current = live == null ? train : live;
+                // Checked under the lock, so no seat can come back between the check and the join
+                if (trainService().getInventory(current, runDate).freeSeats(leg[0], leg[1]) > 0) {
+                    return -1;
+                }
+                trainService().joinWaitlist(entry, filled -> issueWaitlistTicket(owner, filled));
+                return trainService().waitlistDepth(current, runDate);
+            });
+        } catch (IOException ex) {
+            LOG.warn("Error joining waitlist: {}", ex.getMessage());
+            return null;
+        } catch (Exception ex) {
+            throw new IllegalStateException(ex);
+        }
+        if (depth < 0) {
+            LOG.info("Seats are still available on this leg, book one of those instead.");
+            return null;
+        }
+        LOG.info("Waitlisted as {}, {} waiting on this run", entry.getEntryId(), depth);
+        return entry;
     }
 
-    public List<Train> getTrains(String source, String destination) {
+    public boolean leaveWaitlist(User owner, String entryId) {
         try {
-            TrainService trainService = new TrainService();
-            return trainService.searchTrains(source, destination);
+            WaitlistEntry entry = trainService().getWaitlistEntry(entryId);
+            // Under the train's lock, like every other change to its queues
+            return entry != null && entry.getUserId().equals(owner.getUserId())
+                    && coordinator.onTrain(entry.getTrainId(), () -> trainService().leaveWaitlist(entryId)) != null;
         } catch (IOException ex) {
-            System.out.println("Error searching trains: " + ex.getMessage());
-            return new ArrayList<>();
+            LOG.warn("Error leaving waitlist: {}", ex.getMessage());
+            return false;
+        } catch (Exception ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    // Entries still waiting for a seat
+    public List<WaitlistEntry> waitlist(User owner) {
+        return trainService().waitlistOf(owner.getUserId());
+    }
+
+    public int waitlistDepth(Train train, LocalDate runDate) {
+        return trainService().waitlistDepth(train, runDate);
+    }
+
+    public String waitlistStats() {
+        return trainService().waitlistStats();
+    }
+
+    public User getUser(String userId) {
+        return userId == null ? null : usersById.get(userId);
+    }
+
+    // Tickets only keep the trainId; this is the live train it refers to
+    public Train getTrain(Ticket ticket) {
+        return ticket.getTrainId() == null ? null : getTrain(ticket.getTrainId());
+    }
+
+    public Train getTrain(String trainId) {
+        return trainService().getTrain(trainId);
+    }
+
+    public List<Train> getTrains(String source, String destination) {
+        long started = System.nanoTime();
+        try {
+            return trainService().searchTrains(source, destination);
+        } finally {
+            SEARCH_LATENCY.record(System.nanoTime() - started);
         }
     }
 
+    public List<JourneyPlanner.Journey> planJourney(String source, String destination, LocalTime departAfter, int maxTransfers) {
+        return trainService().planJourney(source, destination, departAfter, maxTransfers);
+    }
+
+    // Today's run, whole route
     public List<List<Integer>> fetchSeats(Train train) {
-        return train.getSeats();
+        return fetchSeats(train, LocalDate.now(), null, null);
+    }
+
+    public List<List<Integer>> fetchSeats(Train train, String source, String destination) {
+        return fetchSeats(train, LocalDate.now(), source, destination);
+    }
+
+    public List<List<Integer>> fetchSeats(Train train, LocalDate runDate, String source, String destination) {
+        SeatMap seatMap = seatMap(train, runDate, source, destination);
+        return seatMap == null ? new ArrayList<>() : seatMap.toMatrix();
+    }
+
+    // Availability of one leg of one run: a seat is free if nobody holds it between source and destination.
+    // Null source/destination means the whole route. The map is an immutable snapshot shared with other
+    // readers; null if the train doesn't run from source to destination.
+    public SeatMap seatMap(Train train, LocalDate runDate, String source, String destination) {
+        int[] leg = source == null || destination == null
+                ? new int[] {0, train.getInventory().segments()}
+                : segmentRange(train, source, destination);
+        if (leg == null) {
+            return null;
+        }
+        try {
+            return trainService().seatMap(train, runDate, leg[0], leg[1]);
+        } catch (IOException ex) {
+            LOG.warn("Error loading seats: {}", ex.getMessage());
+            return null;
+        }
     }
 
+    // First seat free for the whole leg as {row, seat}, or null if the leg is sold out
+    public int[] findFreeSeat(Train train, LocalDate runDate, String source, String destination) {
+        int[] leg = segmentRange(train, source, destination);
+        if (leg == null) {
+            return null;
+        }
+        long packed = inventory(train, runDate).firstFreeSeat(leg[0], leg[1]);
+        return packed < 0 ? null : new int[] {SeatInventory.rowOf(packed), SeatInventory.seatOf(packed)};
+    }
+
+    /**
+     * Best free seats for a party on one leg of one run, as {row, seat} per passenger; null if the
+     * party can't be seated as asked. Works off the shared seat map, so nothing is held: book the
+     * seats next, and pick again if one went in the meantime.
+     */
+    public List<int[]> allocateSeats(Train train, LocalDate runDate, String source, String destination,
+                                     int partySize, SeatPreferences preferences) {
+        SeatMap seatMap = seatMap(train, runDate, source, destination);
+        return seatMap == null ? null : SeatAllocator.allocate(seatMap, partySize, preferences);
+    }
+
+    // Books for the logged-in user on today's run over the train's whole route
     public Boolean bookTrainSeat(Train train, int row, int seat) {
+        return bookTrainSeat(train, LocalDate.now(), row, seat, null, null);
+    }
+
+    public Boolean bookTrainSeat(Train train, int row, int seat, String source, String destination) {
+        return bookTrainSeat(train, LocalDate.now(), row, seat, source, destination);
+    }
+
+    public Boolean bookTrainSeat(Train train, LocalDate runDate, int row, int seat, String source, String destination) {
+        if (user == null) {
+            LOG.info("No user logged in.");
+            return false;
+        }
+        return bookTrainSeat(user, train, runDate, row, seat, source, destination) != null;
+    }
+
+    public Ticket bookTrainSeat(User owner, Train train, int row, int seat, String source, String destination) {
+        return bookTrainSeat(owner, train, LocalDate.now(), row, seat, source, destination);
+    }
+
+    // Session-free variant; null source/destination means the whole route. Returns the ticket, or null
+    public Ticket bookTrainSeat(User owner, Train train, LocalDate runDate, int row, int seat, String source, String destination) {
+        long started = System.nanoTime();
+        Ticket ticket = null;
+        try {
+            int[] leg = bookableLeg(train, runDate, source, destination);
+            if (leg == null) {
+                return null;
+            }
+            Claim claim = new Claim(train, runDate, row, seat, leg[0], leg[1]);
+            ticket = claim(owner, claim, null) ? issueTicket(owner, claim) : null;
+            return ticket;
+        } finally {
+            BOOKING_LATENCY.record(System.nanoTime() - started);
+            (ticket != null ? BOOKED : NOT_BOOKED).increment();
+        }
+    }
+
+    /**
+     * Books every seat of the batch, across any number of trains and runs, or none of them.
+     * All trains involved are locked together (in a fixed order, so batches can't deadlock),
+     * the seats are claimed in memory and go to each train journal in one write; once the trains
+     * are unlocked, all the tickets go to the users journal as a single record. If a seat is taken or invalid, or a
+     * journal write fails, every seat claimed so far is given back. The seats' BOOKs carry
+     * their ticket ids, so after a crash between the two journals the seats whose tickets never
+     * made it are given back on startup. Returns the tickets in request order, or null.
+     */
+    public List<Ticket> bookSeats(User owner, List<BookingRequest> requests) {
+        List<Claim> claims = new ArrayList<>(requests.size());
+        Set<String> trainIds = new HashSet<>();
+        for (BookingRequest request : requests) {
+            Train train = getTrain(request.getTrainId());
+            if (train == null) {
+                LOG.info("No train {}, nothing booked.", request.getTrainId());
+                return null;
+            }
+            LocalDate runDate;
+            try {
+                runDate = request.getDate() == null || request.getDate().isBlank() ? LocalDate.now() : LocalDate.parse(request.getDate());
+            } catch (DateTimeParseException ex) {
+                LOG.info("Invalid travel date {}, nothing booked.", request.getDate());
+                return null;
+            }
+            int[] leg = bookableLeg(train, runDate, request.getSource(), request.getDestination());
+            if (leg == null) {
+                return null;
+            }
+            claims.add(new Claim(train, runDate, request.getRow(), request.getSeat(), leg[0], leg[1]));
+            trainIds.add(train.getTrainId());
+        }
+
+        boolean claimed;
+        try {
+            claimed = coordinator.onTrains(trainIds, () -> claimAllLocked(owner, claims));
+        } catch (IOException ex) {
+            LOG.warn("Error booking seats: {}", ex.getMessage());
+            return null;
+        } catch (Exception ex) {
+            throw new IllegalStateException(ex);
+        }
+        if (!claimed) {
+            return null;
+        }
+
+        List<Ticket> tickets = new ArrayList<>(claims.size());
+        List<String> ticketIds = new ArrayList<>(claims.size());
+        for (Claim claim : claims) {
+            tickets.add(new Ticket(claim.ticketId, owner.getUserId(),
+                    stationAt(claim.train, claim.fromSegment), stationAt(claim.train, claim.toSegment), claim.runDate.toString(),
+                    claim.train.getTrainId(), claim.row, claim.seat, claim.fromSegment, claim.toSegment));
+            ticketIds.add(claim.ticketId);
+        }
+        boolean logged = false;
+        synchronized (owner) {
+            try {
+                journal.append(JournalEvent.ticketsIssued(owner.getUserId(), tickets));
+                owner.getTicketsBooked().addAll(tickets);
+                // Before anyone can cancel one, so a compaction can't log its BOOK again after the RELEASE
+                trainService().ticketsIssued(ticketIds);
+                logged = true;
+            } catch (IOException ex) {
+                LOG.warn("Error issuing tickets: {}", ex.getMessage());
+            }
+        }
+        if (!logged) {
+            releaseAll(trainIds, claims);
+            return null;
+        }
+        try {
+            snapshotIfDue();
+        } catch (IOException ex) {
+            LOG.warn("Error saving users snapshot: {}", ex.getMessage());
+        }
+        LOG.info("{} tickets issued to {}", tickets.size(), owner.getName());
+        return tickets;
+    }
+
+    /**
+     * Takes the seat out of the run for {@code irctc.holds.minutes} (default 10) while the user
+     * pays; other bookers see it as taken. {@link #confirmHold} turns it into a ticket, otherwise
+     * it goes back to the pool when the hold expires. Returns null if the seat can't be held.
+     */
+    public SeatHold holdSeat(User owner, Train train, LocalDate runDate, int row, int seat, String source, String destination) {
+        int[] leg = bookableLeg(train, runDate, source, destination);
+        if (leg == null) {
+            return null;
+        }
+        SeatHold hold = new SeatHold(UUID.randomUUID().toString(), owner.getUserId(), train.getTrainId(), runDate.toString(),
+                stationAt(train, leg[0]), stationAt(train, leg[1]), row, seat, leg[0], leg[1],
+                System.currentTimeMillis() + HOLD_MILLIS);
+        return claim(owner, new Claim(train, runDate, row, seat, leg[0], leg[1]), hold) ? hold : null;
+    }
+
+    public Ticket confirmHold(User owner, String holdId) {
+        try {
+            SeatHold hold = trainService().getHold(holdId);
+            if (hold == null || !hold.getUserId().equals(owner.getUserId())) {
+                LOG.info("No hold {}, it may have expired.", holdId);
+                return null;
+            }
+            Train train = trainService().getTrain(hold.getTrainId());
+            if (train == null) {
+                LOG.info("Hold {} has expired.", holdId);
+                return null;
+            }
+            Claim claim = new Claim(train, LocalDate.parse(hold.getRunDate()), hold.getRow(), hold.getSeat(),
+                    hold.getFromSegment(), hold.getToSegment());
+            if (!coordinator.onTrain(hold.getTrainId(), () -> trainService().confirmHold(hold, claim.ticketId))) {
+                LOG.info("Hold {} has expired.", holdId);
+                return null;
+            }
+            return issueTicket(owner, claim);
+        } catch (IOException ex) {
+            LOG.warn("Error confirming hold: {}", ex.getMessage());
+            return null;
+        } catch (Exception ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    // Gives a held seat back before it expires
+    public boolean releaseHold(User owner, String holdId) {
+        try {
+            SeatHold hold = trainService().getHold(holdId);
+            if (hold == null || !hold.getUserId().equals(owner.getUserId())) {
+                return false;
+            }
+            return coordinator.onTrain(hold.getTrainId(), () -> trainService().releaseHold(hold));
+        } catch (IOException ex) {
+            LOG.warn("Error releasing hold: {}", ex.getMessage());
+            return false;
+        } catch (Exception ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    // Segments of the leg as {from, to}, or null (with the reason printed) if it can't be booked
+    private int[] bookableLeg(Train train, LocalDate runDate, String source, String destination) {
+        if (runDate.isBefore(LocalDate.now())) {
+            LOG.info("The {} run of train {} has already departed.", runDate, train.getTrainId());
+            return null;
+        }
+        int[] leg = source == null || destination == null
+                ? new int[] {0, train.getInventory().segments()}
+                : segmentRange(train, source, destination);
+        if (leg == null) {
+            LOG.info("Train {} does not run from {} to {}", train.getTrainId(), source, destination);
+        }
+        return leg;
+    }
+
+    // Claims and journals the seat under that train's lock; the caller issues the ticket after it is
+    // let go. False if the seat couldn't be claimed
+    private boolean claim(User owner, Claim claim, SeatHold hold) {
+        try {
+            return coordinator.onTrain(claim.train.getTrainId(), () -> claimLocked(owner, claim, hold));
+        } catch (IOException ex) {
+            LOG.warn("Error booking seat: {}", ex.getMessage());
+            return false;
+        } catch (Exception ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private Ticket issueTicket(User owner, Claim claim) {
+        Ticket ticket = newTicket(claim.ticketId, owner, claim.train, claim.runDate, claim.row, claim.seat,
+                claim.fromSegment, claim.toSegment);
+        if (!commitTicket(owner, ticket)) {
+            // No ticket, no booking: give the seat back
+            releaseAll(Set.of(claim.train.getTrainId()), List.of(claim));
+            return null;
+        }
+        return ticket;
+    }
+
+    private static Ticket newTicket(String ticketId, User owner, Train booked, LocalDate runDate, int row, int seat,
+                                    int fromSegment, int toSegment) {
+        return new Ticket(ticketId, owner.getUserId(),
+                stationAt(booked, fromSegment), stationAt(booked, toSegment), runDate.toString(),
+                booked.getTrainId(), row, seat, fromSegment, toSegment);
+    }
+
+    // Logs the ticket and hands it to the owner, under the owner's lock so a snapshot can't fall
+    // between the two; false (and nothing changed) if it couldn't be logged
+    private boolean commitTicket(User owner, Ticket ticket) {
+        synchronized (owner) {
+            try {
+                journal.append(JournalEvent.ticketIssued(ticket));
+            } catch (IOException ex) {
+                LOG.warn("Error issuing ticket: {}", ex.getMessage());
+                return false;
+            }
+            owner.getTicketsBooked().add(ticket);
+            // Before anyone can cancel it, as in bookSeats
+            trainService().ticketsIssued(List.of(ticket.getTicketId()));
+        }
+        try {
+            snapshotIfDue();
+        } catch (IOException ex) {
+            LOG.warn("Error saving users snapshot: {}", ex.getMessage());
+        }
+        LOG.info("Ticket {} issued to {}", ticket.getTicketId(), owner.getName());
+        return true;
+    }
+
+    // A null hold books the seat outright, its BOOK naming the ticket to come like a batch's
+    private boolean claimLocked(User owner, Claim claim, SeatHold hold) throws IOException {
+        // The caller's Train may predate a reload of trains.json; always book the live copy
+        Train live = trainService().getTrain(claim.train.getTrainId());
+        if (live != null) {
+            claim.train = live;
+        }
+        SeatInventory inventory = trainService().getInventory(claim.train, claim.runDate);
+        // A run opened before the route changed can have fewer segments than the leg asks for
+        if (!inventory.isValidSeat(claim.row, claim.seat) || claim.toSegment > inventory.segments()) {
+            LOG.info("Invalid seat selection!");
+            return false;
+        }
+        if (!inventory.tryBook(claim.row, claim.seat, claim.fromSegment, claim.toSegment)) {
+            LOG.info("Seat is already booked!");
+            return false;
+        }
+        try {
+            if (hold == null) {
+                trainService().recordAll(List.of(booking(owner, claim)));
+            } else {
+                trainService().recordHold(claim.train, hold);
+            }
+        } catch (IOException ex) {
+            // Not durable, so not booked
+            inventory.release(claim.row, claim.seat, claim.fromSegment, claim.toSegment);
+            throw ex;
+        }
+        if (hold == null) {
+            LOG.info("Seat booked successfully at row {}, seat {}", claim.row, claim.seat);
+        } else {
+            LOG.info("Seat at row {}, seat {} held until {}", claim.row, claim.seat, Instant.ofEpochMilli(hold.getExpiresAt()));
+        }
+        return true;
+    }
+
+    // True once every seat is claimed and journalled; otherwise nothing is left claimed
+    private boolean claimAllLocked(User owner, List<Claim> claims) throws IOException {
+        List<JournalEvent> booked = new ArrayList<>(claims.size());
+        int claimed = 0;
+        boolean logging = false;
+        boolean committed = false;
         try {
-            TrainService trainService = new TrainService();
-            List<List<Integer>> seats = train.getSeats();
-            if (row >= 0 && row < seats.size() && seat >= 0 && seat < seats.get(row).size()) {
-                if (seats.get(row).get(seat) == 0) {
-                    seats.get(row).set(seat, 1);
-                    train.setSeats(seats);
-                    trainService.updateTrain(train);
-                    System.out.println("Seat booked successfully at row " + row + ", seat " + seat);
-                    
-                    // Add ticket to user and save
-                    // You might want to create a Ticket object and add it to user's tickets
-                    // user.getTicketsBooked().add(newTicket);
-                    saveUserListToFile();
-                    
-                    return true;
-                } else {
-                    System.out.println("Seat is already booked!");
+            for (Claim claim : claims) {
+                Train live = trainService().getTrain(claim.train.getTrainId());
+                if (live != null) {
+                    claim.train = live;
+                }
+                SeatInventory inventory = trainService().getInventory(claim.train, claim.runDate);
+                if (!inventory.isValidSeat(claim.row, claim.seat) || claim.toSegment > inventory.segments()
+                        || !inventory.tryBook(claim.row, claim.seat, claim.fromSegment, claim.toSegment)) {
+                    LOG.info("Seat {}/{} on train {} is not available, nothing booked.",
+                            claim.row, claim.seat, claim.train.getTrainId());
                     return false;
                 }
-            } else {
-                System.out.println("Invalid seat selection!");
-                return false;
+                claimed++;
+                booked.add(booking(owner, claim));
+            }
+            logging = true;
+            trainService().recordAll(booked);
+            committed = true;
+            return true;
+        } finally {
+            for (int i = 0; !committed && i < claimed; i++) {
+                Claim claim = claims.get(i);
+                trainService().getInventory(claim.train, claim.runDate)
+                        .release(claim.row, claim.seat, claim.fromSegment, claim.toSegment);
             }
+            if (logging && !committed) {
+                unlog(claims);
+            }
+        }
+    }
+
+    // Across shards a failed recordAll can leave some journals holding their BOOKs; cancel them
+    // while the trains are still locked, before the seats can be sold to someone else
+    private void unlog(List<Claim> claims) {
+        try {
+            trainService().recordAll(releases(claims));
         } catch (IOException ex) {
-            System.out.println("Error booking seat: " + ex.getMessage());
-            return Boolean.FALSE;
+            LOG.warn("Error releasing seats of a failed batch: {}", ex.getMessage());
+        }
+    }
+
+    private static JournalEvent booking(User owner, Claim claim) {
+        JournalEvent booking = JournalEvent.booking(claim.train.getTrainId(), claim.runDate.toString(),
+                claim.row, claim.seat, claim.fromSegment, claim.toSegment);
+        booking.setUserId(owner.getUserId());
+        booking.setTicketId(claim.ticketId);
+        return booking;
+    }
+
+    private static List<JournalEvent> releases(List<Claim> claims) {
+        List<JournalEvent> released = new ArrayList<>(claims.size());
+        for (Claim claim : claims) {
+            JournalEvent release = JournalEvent.release(claim.train.getTrainId(), claim.runDate.toString(),
+                    claim.row, claim.seat, claim.fromSegment, claim.toSegment);
+            release.setTicketId(claim.ticketId);
+            released.add(release);
+        }
+        return released;
+    }
+
+    // Runs under the train's lock, with the seat already claimed and journalled for the entry. On
+    // false the waitlist undoes the booking itself; releasing it here would backfill straight back.
+    private boolean issueWaitlistTicket(User owner, WaitlistEntry filled) {
+        Train train = getTrain(filled.getTrainId());
+        return train != null && commitTicket(owner, newTicket(filled.getTicketId(), owner, train,
+                LocalDate.parse(filled.getRunDate()), filled.getRow(), filled.getSeat(), filled.getFromSegment(), filled.getToSegment()));
+    }
+
+    // Gives a cancelled ticket's seat back to its run, where the waitlist gets first go at it
+    private void releaseTicketSeat(Ticket ticket) {
+        if (ticket.getTrainId() == null || ticket.getRow() == null || ticket.getSeat() == null
+                || ticket.getFromSegment() == null || ticket.getToSegment() == null) {
+            return; // issued before tickets recorded their seat
+        }
+        LocalDate runDate = ticket.getTravelDate();
+        Train train = getTrain(ticket.getTrainId());
+        if (train == null || runDate == null || runDate.isBefore(LocalDate.now())) {
+            return;
+        }
+        releaseSeat(train, runDate, ticket.getRow(), ticket.getSeat(), ticket.getFromSegment(), ticket.getToSegment());
+    }
+
+    private void releaseAll(Set<String> trainIds, List<Claim> claims) {
+        try {
+            coordinator.onTrains(trainIds, () -> {
+                for (Claim claim : claims) {
+                    trainService().getInventory(claim.train, claim.runDate)
+                            .release(claim.row, claim.seat, claim.fromSegment, claim.toSegment);
+                }
+                trainService().recordAll(releases(claims));
+                return null;
+            });
+        } catch (Exception ex) {
+            LOG.warn("Error releasing seats: {}", ex.getMessage());
+        }
+    }
+
+    private void releaseSeat(Train train, LocalDate runDate, int row, int seat, int fromSegment, int toSegment) {
+        try {
+            coordinator.onTrain(train.getTrainId(), () -> {
+                trainService().getInventory(train, runDate).release(row, seat, fromSegment, toSegment);
+                trainService().recordRelease(train, runDate, row, seat, fromSegment, toSegment);
+                return null;
+            });
+        } catch (Exception ex) {
+            LOG.warn("Error releasing seat: {}", ex.getMessage());
+        }
+    }
+
+    // Seats of one run of the train; runs are loaded or opened on first use
+    private SeatInventory inventory(Train train, LocalDate runDate) {
+        try {
+            return trainService().getInventory(train, runDate);
+        } catch (IOException ex) {
+            LOG.warn("Error loading trains: {}", ex.getMessage());
+            return train.getInventory();
+        }
+    }
+
+    // Segment i starts at stations[i] and segment i - 1 ends there
+    private static String stationAt(Train train, int index) {
+        return index >= train.stationCount() ? null : train.stationName(index);
+    }
+
+    // Backed by the shared TrainRepository, so this never re-reads trains.json
+    private TrainService trainService() {
+        return trainService;
+    }
+
+    // Seats whose BOOK or CONFIRM was logged but whose tickets weren't, because the process died in between
+    private void releaseUnticketed() {
+        int released = 0;
+        for (JournalEvent booked : trainService.drainUnticketed()) {
+            User owner = usersById.get(booked.getUserId());
+            Train train = trainService.getTrain(booked.getTrainId());
+            if (train == null || (owner != null && holdsTicket(owner, booked.getTicketId()))) {
+                continue;
+            }
+            releaseSeat(train, LocalDate.parse(booked.getRunDate()), booked.getRow(), booked.getSeat(),
+                    booked.getFromSegment(), booked.getToSegment());
+            released++;
+        }
+        if (released > 0) {
+            LOG.warn("Gave back {} seats whose tickets were never logged", released);
+        }
+    }
+
+    // Seat bits a crash set in the mapped run files with nothing logged for them; reads every user's tickets
+    private void reconcileRuns() {
+        List<Ticket> tickets = new ArrayList<>();
+        for (User user : usersById.values()) {
+            synchronized (user) {
+                tickets.addAll(user.getTicketsBooked());
+            }
+        }
+        try {
+            trainService.reconcileRuns(tickets);
+        } catch (IOException ex) {
+            LOG.warn("Error checking run seats against tickets: {}", ex.getMessage());
+        }
+    }
+
+    private static boolean holdsTicket(User owner, String ticketId) {
+        synchronized (owner) {
+            return owner.getTicketsBooked().stream().anyMatch(ticket -> ticketId.equals(ticket.getTicketId()));
+        }
+    }
+
+    // Segments [from, to) covered by travelling source -> destination, or null if the train doesn't do that leg
+    private int[] segmentRange(Train train, String source, String destination) {
+        int from = train.stationIndex(source);
+        int to = train.stationIndex(destination);
+        if (from < 0 || to <= from) {
+            return null;
+        }
+        return new int[] {from, to};
+    }
+
+    // One seat while it is being booked, alone or in a batch
+    private static final class Claim {
+        Train train; // swapped for the live copy once the train is locked
+        final String ticketId = UUID.randomUUID().toString(); // on the BOOK as well as the ticket
+        final LocalDate runDate;
+        final int row;
+        final int seat;
+        final int fromSegment;
+        final int toSegment;
+
+        Claim(Train train, LocalDate runDate, int row, int seat, int fromSegment, int toSegment) {
+            this.train = train;
+            this.runDate = runDate;
+            this.row = row;
+            this.seat = seat;
+            this.fromSegment = fromSegment;
+            this.toSegment = toSegment;
         }
     }
-}
\ No newline at end of file
+}
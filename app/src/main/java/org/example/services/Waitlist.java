@@ -0,0 +1,205 @@
+package org.example.services;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+import org.example.entities.SeatInventory;
+import org.example.entities.WaitlistEntry;
+import org.example.util.LatencyHistogram;
+import org.example.util.Metrics;
+
+/**
+ * Passengers waiting on sold-out legs, one FIFO per (run, leg) on a lock-free
+ * {@link ConcurrentLinkedQueue}. Nothing polls: whoever gives a seat back (a cancellation,
+ * a released or expired hold) calls {@link #claim} under the train's booking lock, which
+ * hands the seat to the longest-waiting passenger whose leg it covers. Joining and leaving
+ * happen under that lock too, so a queue is only ever changed by one thread at a time and
+ * can be dropped from its run as soon as it is empty.
+ *
+ * <p>Kept in memory only; a restart empties the waitlist.
+ */
+class Waitlist {
+    private final Map<String, Map<Long, Queue<Waiter>>> legsByRun = new ConcurrentHashMap<>();
+    private final Map<String, Waiter> waiting = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+    // Shared by every waitlist (one per shard): how long passengers wait, not where
+    private static final LatencyHistogram WAIT_TIME = Metrics.getInstance()
+            .timer("irctc_waitlist_wait_seconds", "Time from joining a waitlist to getting a seat");
+    private static final Metrics.Counter FILLED = Metrics.getInstance()
+            .counter("irctc_waitlist_filled", "Waitlisted passengers given a freed seat");
+
+    // onFilled runs under the train's booking lock once the seat is claimed and journalled
+    void add(WaitlistEntry entry, Predicate<WaitlistEntry> onFilled) {
+        Waiter waiter = new Waiter(entry, onFilled, sequence.incrementAndGet(), System.nanoTime());
+        waiting.put(entry.getEntryId(), waiter);
+        queue(entry).add(waiter);
+    }
+
+    WaitlistEntry get(String entryId) {
+        Waiter waiter = waiting.get(entryId);
+        return waiter == null ? null : waiter.entry;
+    }
+
+    // Null if the entry was already filled or never existed
+    WaitlistEntry remove(String entryId) {
+        Waiter waiter = waiting.get(entryId);
+        if (waiter == null || !waiter.taken.compareAndSet(false, true)) {
+            return null;
+        }
+        waiting.remove(entryId);
+        dequeue(waiter);
+        return waiter.entry;
+    }
+
+    List<WaitlistEntry> entriesOf(String userId) {
+        List<WaitlistEntry> entries = new ArrayList<>();
+        for (Waiter waiter : waiting.values()) {
+            if (waiter.entry.getUserId().equals(userId)) {
+                entries.add(waiter.entry);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Under the train's booking lock, with the seat just freed in the run's inventory: takes
+     * the passenger who has waited longest among those at the head of a leg the seat is free
+     * for, and books the seat for them in the inventory. Null if nobody fits.
+     */
+    Waiter claim(String trainId, String runDate, SeatInventory inventory, int row, int seat) {
+        Map<Long, Queue<Waiter>> legs = legsByRun.get(runKey(trainId, runDate));
+        if (legs == null) {
+            return null;
+        }
+        while (true) {
+            Waiter best = null;
+            for (Iterator<Queue<Waiter>> queues = legs.values().iterator(); queues.hasNext(); ) {
+                Queue<Waiter> queue = queues.next();
+                Waiter head = queue.peek();
+                while (head != null && head.taken.get()) {
+                    queue.poll();
+                    head = queue.peek();
+                }
+                if (head == null) {
+                    queues.remove();
+                    continue;
+                }
+                if ((best == null || head.sequence < best.sequence)
+                        && inventory.isFree(row, seat, head.entry.getFromSegment(), head.entry.getToSegment())) {
+                    best = head;
+                }
+            }
+            if (best == null) {
+                if (legs.isEmpty()) {
+                    legsByRun.remove(runKey(trainId, runDate), legs);
+                }
+                return null;
+            }
+            // Lost to remove(): skip it on the next pass
+            if (!best.taken.compareAndSet(false, true)) {
+                continue;
+            }
+            waiting.remove(best.entry.getEntryId());
+            dequeue(best);
+            if (!inventory.tryBook(row, seat, best.entry.getFromSegment(), best.entry.getToSegment())) {
+                requeue(best);
+                return null;
+            }
+            best.entry.setRow(row);
+            best.entry.setSeat(seat);
+            WAIT_TIME.record(System.nanoTime() - best.joinedNanos);
+            FILLED.increment();
+            return best;
+        }
+    }
+
+    // The seat could not be given after all: back in line where they were, by join order
+    void requeue(Waiter waiter) {
+        waiter.entry.setRow(null);
+        waiter.entry.setSeat(null);
+        waiter.entry.setTicketId(null);
+        waiter.taken.set(false);
+        waiting.put(waiter.entry.getEntryId(), waiter);
+        Queue<Waiter> queue = queue(waiter.entry);
+        List<Waiter> waiters = new ArrayList<>(queue);
+        int position = 0;
+        while (position < waiters.size() && waiters.get(position).sequence < waiter.sequence) {
+            position++;
+        }
+        waiters.add(position, waiter);
+        queue.clear();
+        queue.addAll(waiters);
+    }
+
+    // Passengers still waiting, across all runs
+    int depth() {
+        return waiting.size();
+    }
+
+    int depth(String trainId, String runDate) {
+        int depth = 0;
+        for (Waiter waiter : waiting.values()) {
+            if (runKey(waiter.entry.getTrainId(), waiter.entry.getRunDate()).equals(runKey(trainId, runDate))) {
+                depth++;
+            }
+        }
+        return depth;
+    }
+
+    String stats() {
+        return String.format("waitlist: depth=%d filled=%d wait p50=%.1fms p99=%.1fms max=%.1fms",
+                depth(), FILLED.get(), WAIT_TIME.percentile(0.50) / 1e6, WAIT_TIME.percentile(0.99) / 1e6,
+                WAIT_TIME.getMax() / 1e6);
+    }
+
+    private Queue<Waiter> queue(WaitlistEntry entry) {
+        return legsByRun.computeIfAbsent(runKey(entry.getTrainId(), entry.getRunDate()), k -> new ConcurrentHashMap<>())
+                .computeIfAbsent(legKey(entry), k -> new ConcurrentLinkedQueue<>());
+    }
+
+    // Takes the waiter out of its queue, and drops the queue and then the run once they are empty
+    private void dequeue(Waiter waiter) {
+        String run = runKey(waiter.entry.getTrainId(), waiter.entry.getRunDate());
+        Map<Long, Queue<Waiter>> legs = legsByRun.get(run);
+        Queue<Waiter> queue = legs == null ? null : legs.get(legKey(waiter.entry));
+        if (queue == null) {
+            return;
+        }
+        queue.remove(waiter);
+        if (queue.isEmpty() && legs.remove(legKey(waiter.entry), queue) && legs.isEmpty()) {
+            legsByRun.remove(run, legs);
+        }
+    }
+
+    private static long legKey(WaitlistEntry entry) {
+        return (long) entry.getFromSegment() << 32 | entry.getToSegment();
+    }
+
+    private static String runKey(String trainId, String runDate) {
+        return trainId.toLowerCase(Locale.ROOT) + "/" + runDate;
+    }
+
+    static final class Waiter {
+        final WaitlistEntry entry;
+        final Predicate<WaitlistEntry> onFilled; // issues the ticket; false if it couldn't
+        final long sequence; // join order across all legs of the run
+        final long joinedNanos;
+        final AtomicBoolean taken = new AtomicBoolean();
+
+        Waiter(WaitlistEntry entry, Predicate<WaitlistEntry> onFilled, long sequence, long joinedNanos) {
+            this.entry = entry;
+            this.onFilled = onFilled;
+            this.sequence = sequence;
+            this.joinedNanos = joinedNanos;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package org.example.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Consistent hash ring over {@code nodes} nodes, each placed at {@code virtualNodes} points
+ * so keys spread evenly. Growing the ring from n to n + 1 nodes only moves about 1/(n + 1)
+ * of the keys. Keys are case-insensitive, like trainIds everywhere else. Immutable.
+ */
+public class HashRing {
+    private final long[] points; // sorted
+    private final int[] owners;  // node owning points[i]
+    private final int nodes;
+
+    public HashRing(int nodes, int virtualNodes) {
+        if (nodes < 1 || virtualNodes < 1) {
+            throw new IllegalArgumentException("need at least one node and one virtual node");
+        }
+        this.nodes = nodes;
+        long[][] placed = new long[nodes * virtualNodes][];
+        for (int node = 0; node < nodes; node++) {
+            for (int v = 0; v < virtualNodes; v++) {
+                placed[node * virtualNodes + v] = new long[] {hash("node-" + node + "#" + v), node};
+            }
+        }
+        Arrays.sort(placed, (a, b) -> Long.compareUnsigned(a[0], b[0]));
+        this.points = new long[placed.length];
+        this.owners = new int[placed.length];
+        for (int i = 0; i < placed.length; i++) {
+            points[i] = placed[i][0];
+            owners[i] = (int) placed[i][1];
+        }
+    }
+
+    public int nodes() {
+        return nodes;
+    }
+
+    // First point clockwise from the key's hash, wrapping round to the start
+    public int nodeFor(String key) {
+        long h = hash(key.toLowerCase(Locale.ROOT));
+        int low = 0;
+        int high = points.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (Long.compareUnsigned(points[mid], h) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return owners[low == points.length ? 0 : low];
+    }
+
+    // 64-bit FNV-1a, then MurmurHash3's finalizer so nearby strings land far apart
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,104 @@
+package org.example.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free, allocation-free latency histogram in the spirit of HdrHistogram: every
+ * power of two is split into 8 linear sub-buckets, so any recorded value is reported
+ * within 12.5% across the whole range of a long. Recording is one array increment.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (63 - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(indexOf(value));
+        count.increment();
+        sum.add(value);
+        long currentMax = max.get();
+        while (value > currentMax && !max.compareAndSet(currentMax, value)) {
+            currentMax = max.get();
+        }
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getSum() {
+        return sum.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    // Value at the given quantile (0.5 = median, 0.99 = p99), 0 if nothing was recorded
+    public long percentile(double quantile) {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += counts.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(highestEquivalent(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    // Cumulative count of values <= bound, for exporters that want fixed buckets. Only buckets wholly
+    // at or below the bound count, so this can come out low by the bucket the bound falls in, never high.
+    public long countAtOrBelow(long bound) {
+        long seen = 0;
+        for (int i = 0; i < BUCKETS && highestEquivalent(i) <= bound; i++) {
+            seen += counts.get(i);
+        }
+        return seen;
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.reset();
+        sum.reset();
+        max.set(0);
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return ((exponent - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS) + sub;
+    }
+
+    static long lowestEquivalent(int index) {
+        int group = index >>> SUB_BUCKET_BITS;
+        int sub = index & (SUB_BUCKETS - 1);
+        return group == 0 ? sub : (long) (SUB_BUCKETS + sub) << (group - 1);
+    }
+
+    static long highestEquivalent(int index) {
+        return index + 1 < BUCKETS ? lowestEquivalent(index + 1) - 1 : Long.MAX_VALUE;
+    }
+}
@@ -0,0 +1,317 @@
+package org.example.util;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Leveled logging through a bounded lock-free ring buffer. Callers only check the level and
+ * enqueue the format string and its arguments; a single background thread builds the lines
+ * and writes them to {@code System.out} in batches, so no request thread ever waits on the
+ * console. Placeholders are {@code {}}, as in SLF4J; a trailing Throwable argument with no
+ * placeholder of its own gets its stack trace printed.
+ *
+ * <p>When the buffer is full the message is dropped and counted rather than blocking; the
+ * writer reports how many went missing. Arguments are rendered on the writer thread, so pass
+ * values rather than objects that are still being changed, and never pass a password.
+ *
+ * <p>{@code irctc.log.level} (DEBUG, INFO, WARN, ERROR or OFF, default INFO),
+ * {@code irctc.log.format} (text or json) and {@code irctc.log.bufferSize} configure it.
+ */
+public final class Log {
+    public enum Level { DEBUG, INFO, WARN, ERROR, OFF }
+
+    private static final Ring RING = new Ring(Integer.getInteger("irctc.log.bufferSize", 8192));
+    private static final boolean JSON = "json".equalsIgnoreCase(System.getProperty("irctc.log.format", "text"));
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+    private static final Metrics.Counter DROPPED = Metrics.getInstance()
+            .counter("irctc_log_dropped", "Log messages dropped because the log buffer was full");
+    private static volatile Level threshold = parseLevel(System.getProperty("irctc.log.level", "INFO"));
+    private static final Writer WRITER = new Writer();
+
+    static {
+        WRITER.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::flush, "log-flush"));
+    }
+
+    private final String name;
+
+    private Log(String name) {
+        this.name = name;
+    }
+
+    public static Log get(Class<?> owner) {
+        return new Log(owner.getSimpleName());
+    }
+
+    public static void setLevel(Level level) {
+        threshold = level;
+    }
+
+    public boolean isDebugEnabled() {
+        return isEnabled(Level.DEBUG);
+    }
+
+    public boolean isEnabled(Level level) {
+        return level != Level.OFF && level.compareTo(threshold) >= 0;
+    }
+
+    public void debug(String format, Object... args) {
+        log(Level.DEBUG, format, args);
+    }
+
+    public void info(String format, Object... args) {
+        log(Level.INFO, format, args);
+    }
+
+    public void warn(String format, Object... args) {
+        log(Level.WARN, format, args);
+    }
+
+    public void error(String format, Object... args) {
+        log(Level.ERROR, format, args);
+    }
+
+    public void log(Level level, String format, Object... args) {
+        if (!isEnabled(level)) {
+            return;
+        }
+        Event event = new Event(level, System.currentTimeMillis(), Thread.currentThread().getName(), name, format, args);
+        if (!RING.offer(event)) {
+            DROPPED.increment();
+            return;
+        }
+        WRITER.wake();
+    }
+
+    /**
+     * Waits, for at most a second, until everything logged before the call has been written.
+     * The console calls this before prompting so messages don't land after the prompt.
+     */
+    public static void flush() {
+        long target = RING.published();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        while (WRITER.written < target && System.nanoTime() < deadline && Thread.currentThread() != WRITER) {
+            WRITER.wake();
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+        }
+    }
+
+    private static Level parseLevel(String level) {
+        try {
+            return Level.valueOf(level.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            System.out.println("Unknown irctc.log.level " + level + ", using INFO");
+            return Level.INFO;
+        }
+    }
+
+    private static final class Event {
+        final Level level;
+        final long millis;
+        final String thread;
+        final String logger;
+        final String format;
+        final Object[] args;
+
+        Event(Level level, long millis, String thread, String logger, String format, Object[] args) {
+            this.level = level;
+            this.millis = millis;
+            this.thread = thread;
+            this.logger = logger;
+            this.format = format;
+            this.args = args;
+        }
+    }
+
+    /**
+     * Bounded multi-producer, single-consumer queue after Dmitry Vyukov's design: producers
+     * claim a slot with one CAS on the tail, and each slot's sequence number says whether it
+     * is ready to be filled or to be read, so neither side takes a lock.
+     */
+    private static final class Ring {
+        private final Event[] slots;
+        private final AtomicLongArray sequences;
+        private final int mask;
+        private final AtomicLong tail = new AtomicLong();
+        private long head; // writer thread only
+
+        Ring(int capacity) {
+            int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+            slots = new Event[size];
+            sequences = new AtomicLongArray(size);
+            mask = size - 1;
+            for (int i = 0; i < size; i++) {
+                sequences.set(i, i);
+            }
+        }
+
+        boolean offer(Event event) {
+            while (true) {
+                long position = tail.get();
+                int index = (int) position & mask;
+                long available = sequences.get(index) - position;
+                if (available == 0) {
+                    if (tail.compareAndSet(position, position + 1)) {
+                        slots[index] = event;
+                        sequences.set(index, position + 1);
+                        return true;
+                    }
+                } else if (available < 0) {
+                    return false; // full: the writer hasn't read this slot's last event yet
+                }
+                // else another producer took the slot, try the next one
+            }
+        }
+
+        Event poll() {
+            int index = (int) head & mask;
+            if (sequences.get(index) != head + 1) {
+                return null;
+            }
+            Event event = slots[index];
+            slots[index] = null;
+            sequences.set(index, head + mask + 1);
+            head++;
+            return event;
+        }
+
+        // Slots claimed so far; every one of them is written out eventually
+        long published() {
+            return tail.get();
+        }
+    }
+
+    private static final class Writer extends Thread {
+        private static final int BATCH = 256;
+        volatile long written;
+        private volatile boolean sleeping;
+        private final StringBuilder out = new StringBuilder(16 * 1024);
+        private long reportedDrops;
+
+        Writer() {
+            super("log-writer");
+            setDaemon(true);
+        }
+
+        void wake() {
+            if (sleeping) {
+                LockSupport.unpark(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    if (!drain()) {
+                        sleeping = true;
+                        // Re-check after announcing we sleep, or a producer's wake() could be missed
+                        if (RING.tail.get() == written) {
+                            LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(100));
+                        }
+                        sleeping = false;
+                    }
+                } catch (RuntimeException e) {
+                    // A bad argument's toString() must not kill logging for the whole process
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        // Writes up to one batch with a single print; false if there was nothing to write
+        private boolean drain() {
+            int count = 0;
+            Event event;
+            while (count < BATCH && (event = RING.poll()) != null) {
+                try {
+                    append(event);
+                } catch (RuntimeException e) {
+                    out.append("log-writer: could not format \"").append(event.format).append("\": ").append(e).append('\n');
+                }
+                count++;
+            }
+            long drops = DROPPED.get();
+            if (drops != reportedDrops) {
+                out.append("log-writer: ").append(drops - reportedDrops).append(" messages dropped, log buffer full\n");
+                reportedDrops = drops;
+            }
+            if (out.length() > 0) {
+                System.out.print(out);
+                System.out.flush();
+                out.setLength(0);
+            }
+            written += count;
+            return count > 0;
+        }
+
+        private void append(Event event) {
+            Throwable thrown = null;
+            StringBuilder message = new StringBuilder(event.format.length() + 32);
+            Object[] args = event.args;
+            int used = 0;
+            int from = 0;
+            int at;
+            while ((at = event.format.indexOf("{}", from)) >= 0 && used < args.length) {
+                message.append(event.format, from, at).append(args[used++]);
+                from = at + 2;
+            }
+            message.append(event.format, from, event.format.length());
+            if (used < args.length && args[args.length - 1] instanceof Throwable) {
+                thrown = (Throwable) args[args.length - 1];
+            }
+            String time = TIME.format(Instant.ofEpochMilli(event.millis));
+            if (JSON) {
+                out.append("{\"time\":\"").append(time)
+                        .append("\",\"level\":\"").append(event.level)
+                        .append("\",\"thread\":");
+                quote(event.thread);
+                out.append(",\"logger\":\"").append(event.logger).append("\",\"message\":");
+                quote(message);
+                if (thrown != null) {
+                    out.append(",\"error\":");
+                    quote(stackTrace(thrown));
+                }
+                out.append("}\n");
+            } else {
+                out.append(time).append(' ').append(event.level).append(event.level.name().length() == 4 ? "  [" : " [")
+                        .append(event.thread).append("] ").append(event.logger).append(" - ").append(message).append('\n');
+                if (thrown != null) {
+                    out.append(stackTrace(thrown));
+                }
+            }
+        }
+
+        private void quote(CharSequence value) {
+            out.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"' || c == '\\') {
+                    out.append('\\').append(c);
+                } else if (c == '\n') {
+                    out.append("\\n");
+                } else if (c == '\t') {
+                    out.append("\\t");
+                } else if (c < 0x20) {
+                    out.append(String.format("\\u%04x", (int) c));
+                } else {
+                    out.append(c);
+                }
+            }
+            out.append('"');
+        }
+
+        private static String stackTrace(Throwable thrown) {
+            StringWriter trace = new StringWriter();
+            thrown.printStackTrace(new PrintWriter(trace));
+            return trace.toString();
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package org.example.util;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Process-wide metrics: counters, {@link LatencyHistogram} timers and gauges, exported in
+ * the Prometheus text format by {@link #prometheus()} (served on {@code GET /metrics}) or
+ * logged every {@code irctc.metrics.dumpSeconds} if that is set.
+ *
+ * <p>Metrics are registered once, into static fields of the classes that record them, so
+ * recording is a LongAdder or histogram increment with no allocation and no lock. Gauges
+ * are only evaluated when exported. Registering the same name and labels again returns the
+ * metric already there (or, for gauges, replaces the callback).
+ */
+public class Metrics {
+    private static final double[] BUCKET_SECONDS = {
+            0.00001, 0.0001, 0.0005, 0.001, 0.005, 0.01, 0.05, 0.1, 0.5, 1, 5, 10};
+    // Log counts its dropped messages here; Log.get only names the logger, so the two can load in either order
+    private static final Log LOG = Log.get(Metrics.class);
+    private static Metrics instance;
+
+    private final Map<String, Family> families = new ConcurrentSkipListMap<>();
+    private ScheduledExecutorService dumper;
+
+    private Metrics() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        gauge("irctc_jvm_heap_used_bytes", "Heap in use", () -> memory.getHeapMemoryUsage().getUsed());
+        gauge("irctc_jvm_heap_committed_bytes", "Heap reserved from the OS", () -> memory.getHeapMemoryUsage().getCommitted());
+        gauge("irctc_jvm_threads", "Live platform threads", threads::getThreadCount);
+    }
+
+    public static synchronized Metrics getInstance() {
+        if (instance == null) {
+            instance = new Metrics();
+            long dumpSeconds = Long.getLong("irctc.metrics.dumpSeconds", 0);
+            if (dumpSeconds > 0) {
+                instance.startDump(dumpSeconds);
+            }
+        }
+        return instance;
+    }
+
+    public Counter counter(String name, String help) {
+        return counter(name, help, "");
+    }
+
+    // labels as they go between the braces, e.g. outcome="booked"
+    public Counter counter(String name, String help, String labels) {
+        return (Counter) family(name, help, "counter").children.computeIfAbsent(labels, k -> new Counter());
+    }
+
+    // Records nanoseconds
+    public LatencyHistogram timer(String name, String help) {
+        return timer(name, help, "");
+    }
+
+    public LatencyHistogram timer(String name, String help, String labels) {
+        return ((Timer) family(name, help, "histogram").children.computeIfAbsent(labels, k -> new Timer(new LatencyHistogram(), 1e-9)))
+                .histogram;
+    }
+
+    // Exports a histogram owned elsewhere; unitSeconds is what one recorded unit is worth (1e-9 for nanos)
+    public void histogram(String name, String help, LatencyHistogram histogram, double unitSeconds) {
+        family(name, help, "histogram").children.put("", new Timer(histogram, unitSeconds));
+    }
+
+    public void gauge(String name, String help, DoubleSupplier value) {
+        gauges(name, help, sink -> sink.sample(value.getAsDouble()));
+    }
+
+    // A gauge with one sample per label set, collected when exported (e.g. one per train run)
+    public void gauges(String name, String help, Consumer<GaugeSink> collector) {
+        family(name, help, "gauge").children.put("", collector);
+    }
+
+    public String prometheus() {
+        StringBuilder out = new StringBuilder(4096);
+        for (Map.Entry<String, Family> entry : families.entrySet()) {
+            Family family = entry.getValue();
+            // Counters are exported as <name>_total, the name the HELP and TYPE lines have to carry too
+            String name = family.type.equals("counter") ? entry.getKey() + "_total" : entry.getKey();
+            out.append("# HELP ").append(name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(family.type).append('\n');
+            for (Map.Entry<String, Object> child : family.children.entrySet()) {
+                String labels = child.getKey();
+                Object metric = child.getValue();
+                if (metric instanceof Counter) {
+                    sample(out, name, labels, ((Counter) metric).get());
+                } else if (metric instanceof Timer) {
+                    Timer timer = (Timer) metric;
+                    LatencyHistogram histogram = timer.histogram;
+                    for (double bound : BUCKET_SECONDS) {
+                        String le = "le=\"" + bound + "\"";
+                        sample(out, name + "_bucket", labels.isEmpty() ? le : labels + "," + le,
+                                histogram.countAtOrBelow((long) (bound / timer.unitSeconds)));
+                    }
+                    String inf = "le=\"+Inf\"";
+                    sample(out, name + "_bucket", labels.isEmpty() ? inf : labels + "," + inf, histogram.getCount());
+                    sample(out, name + "_sum", labels, histogram.getSum() * timer.unitSeconds);
+                    sample(out, name + "_count", labels, histogram.getCount());
+                } else {
+                    @SuppressWarnings("unchecked")
+                    Consumer<GaugeSink> collector = (Consumer<GaugeSink>) metric;
+                    try {
+                        collector.accept((value, labelPairs) -> sample(out, name, labels(labelPairs), value));
+                    } catch (RuntimeException e) {
+                        // One broken gauge shouldn't take the whole export down
+                        LOG.warn("Gauge {} failed", name, e);
+                    }
+                }
+            }
+        }
+        return out.toString();
+    }
+
+    public synchronized void startDump(long periodSeconds) {
+        if (dumper != null) {
+            return;
+        }
+        dumper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-dump");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dumper.scheduleWithFixedDelay(() -> LOG.info("Metrics:\n{}", prometheus()), periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    private Family family(String name, String help, String type) {
+        Family family = families.computeIfAbsent(name, k -> new Family(help, type));
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException(name + " is already registered as a " + family.type);
+        }
+        return family;
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, double value) {
+        out.append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ');
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            out.append((long) value);
+        } else {
+            out.append(String.format(Locale.ROOT, "%.9g", value));
+        }
+        out.append('\n');
+    }
+
+    private static String labels(String[] labelPairs) {
+        StringBuilder labels = new StringBuilder();
+        for (int i = 0; i + 1 < labelPairs.length; i += 2) {
+            if (i > 0) {
+                labels.append(',');
+            }
+            labels.append(labelPairs[i]).append("=\"")
+                    .append(labelPairs[i + 1].replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n"))
+                    .append('"');
+        }
+        return labels.toString();
+    }
+
+    public static final class Counter {
+        private final LongAdder count = new LongAdder();
+
+        public void increment() {
+            count.increment();
+        }
+
+        public void add(long amount) {
+            count.add(amount);
+        }
+
+        public long get() {
+            return count.sum();
+        }
+    }
+
+    // Receives gauge samples at export time: value, then label name/value pairs
+    public interface GaugeSink {
+        void sample(double value, String... labelPairs);
+    }
+
+    private static final class Timer {
+        final LatencyHistogram histogram;
+        final double unitSeconds;
+
+        Timer(LatencyHistogram histogram, double unitSeconds) {
+            this.histogram = histogram;
+            this.unitSeconds = unitSeconds;
+        }
+    }
+
+    private static final class Family {
+        final String help;
+        final String type;
+        final Map<String, Object> children = new ConcurrentSkipListMap<>(); // by labels
+
+        Family(String help, String type) {
+            this.help = help;
+            this.type = type;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package org.example.util;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Runs bcrypt on a small dedicated pool so a login storm can only ever use a bounded
+ * number of cores; booking threads never do bcrypt work themselves. When the queue is
+ * full new requests fail fast with {@link RejectedExecutionException} instead of piling
+ * up, and requests that wait too long time out.
+ *
+ * <p>Sized with system properties: {@code irctc.bcrypt.threads} (default half the cores),
+ * {@code irctc.bcrypt.queue} (default 1024), {@code irctc.bcrypt.timeoutMillis} (default
+ * 5000) and {@code irctc.bcrypt.cost} (default 10). Hashes made with another cost are
+ * re-hashed at the configured cost on the next successful login.
+ */
+public class PasswordVerificationPool {
+    private static PasswordVerificationPool instance;
+
+    private final ThreadPoolExecutor executor;
+    private final long timeoutMillis;
+    private final int cost;
+    private final LatencyHistogram verifyLatency = new LatencyHistogram(); // nanos, queue wait included
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+
+    public PasswordVerificationPool(int threads, int queueLimit, long timeoutMillis, int cost) {
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueLimit), runnable -> {
+                    Thread thread = new Thread(runnable, "bcrypt-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+        this.timeoutMillis = timeoutMillis;
+        this.cost = cost;
+    }
+
+    public static synchronized PasswordVerificationPool getInstance() {
+        if (instance == null) {
+            instance = new PasswordVerificationPool(
+                    Integer.getInteger("irctc.bcrypt.threads", Math.max(1, Runtime.getRuntime().availableProcessors() / 2)),
+                    Integer.getInteger("irctc.bcrypt.queue", 1024),
+                    Long.getLong("irctc.bcrypt.timeoutMillis", 5000),
+                    UserServiceUtil.BCRYPT_COST);
+            PasswordVerificationPool pool = instance;
+            Metrics metrics = Metrics.getInstance();
+            metrics.histogram("irctc_bcrypt_seconds", "Password hashes and checks, queue wait included", pool.verifyLatency, 1e-9);
+            metrics.gauge("irctc_bcrypt_queue_depth", "bcrypt jobs waiting for a thread", pool::getQueueDepth);
+            metrics.gauge("irctc_bcrypt_active", "bcrypt jobs running", pool::getActiveCount);
+            metrics.gauge("irctc_bcrypt_rejected", "bcrypt jobs turned away by a full queue, since start", pool::getRejectedCount);
+            metrics.gauge("irctc_bcrypt_timed_out", "bcrypt jobs dropped after waiting too long, since start", pool::getTimedOutCount);
+        }
+        return instance;
+    }
+
+    public CompletableFuture<Boolean> verify(String plainPassword, String hashedPassword) {
+        return submit(() -> UserServiceUtil.checkPassword(plainPassword, hashedPassword));
+    }
+
+    public CompletableFuture<String> hash(String plainPassword) {
+        return submit(() -> UserServiceUtil.hashPassword(plainPassword, cost));
+    }
+
+    /**
+     * Verifies the password and, if it matches a hash made with a different cost, also
+     * returns a fresh hash at the configured cost for the caller to store (null when no
+     * upgrade is needed). A wrong password yields {@code matches() == false}; a full queue
+     * or a timeout fails the future.
+     */
+    public CompletableFuture<Verification> verifyAndUpgrade(String plainPassword, String hashedPassword) {
+        return submit(() -> {
+            if (!UserServiceUtil.checkPassword(plainPassword, hashedPassword)) {
+                return new Verification(false, null);
+            }
+            String upgraded = UserServiceUtil.costOf(hashedPassword) != cost
+                    ? UserServiceUtil.hashPassword(plainPassword, cost)
+                    : null;
+            return new Verification(true, upgraded);
+        });
+    }
+
+    public int getCost() {
+        return cost;
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    public long getTimedOutCount() {
+        return timedOut.sum();
+    }
+
+    public LatencyHistogram getVerifyLatency() {
+        return verifyLatency;
+    }
+
+    public String stats() {
+        return String.format("bcrypt pool: p50=%.1fms p99=%.1fms count=%d queue=%d active=%d rejected=%d timedOut=%d",
+                verifyLatency.percentile(0.50) / 1e6, verifyLatency.percentile(0.99) / 1e6, verifyLatency.getCount(),
+                getQueueDepth(), getActiveCount(), getRejectedCount(), getTimedOutCount());
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private <T> CompletableFuture<T> submit(Supplier<T> work) {
+        long enqueued = System.nanoTime();
+        CompletableFuture<T> result;
+        try {
+            result = CompletableFuture.supplyAsync(() -> {
+                try {
+                    // The caller has already given up on this one, don't burn a core on it
+                    if (System.nanoTime() - enqueued > TimeUnit.MILLISECONDS.toNanos(timeoutMillis)) {
+                        throw new CancellationException("Timed out in queue");
+                    }
+                    return work.get();
+                } finally {
+                    verifyLatency.record(System.nanoTime() - enqueued);
+                }
+            }, executor);
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            return CompletableFuture.failedFuture(new RejectedExecutionException("Password verification queue is full, try again later"));
+        }
+        return result.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS).whenComplete((value, error) -> {
+            if (error instanceof TimeoutException) {
+                timedOut.increment();
+            }
+        });
+    }
+
+    public static class Verification {
+        private final boolean matches;
+        private final String upgradedHash;
+
+        public Verification(boolean matches, String upgradedHash) {
+            this.matches = matches;
+            this.upgradedHash = upgradedHash;
+        }
+
+        public boolean matches() {
+            return matches;
+        }
+
+        public String getUpgradedHash() {
+            return upgradedHash;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package org.example.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hierarchical timing wheel: {@value #LEVELS} levels of {@value #SLOTS} slots, level
+ * {@code k} slot covering {@code 64^k} ticks. Scheduling and cancelling are O(1) (a
+ * doubly-linked slot list), and {@link #advance} hands back everything that came due in
+ * one list. Entries further out than the top level can reach are parked in its last slot
+ * and re-filed when it comes round.
+ *
+ * <p>Not thread-safe on its own; every method is synchronized on the wheel.
+ */
+public class TimerWheel<T> {
+    private static final int SLOTS = 64;
+    private static final int BITS = 6;
+    private static final int LEVELS = 4;
+
+    private final long tickMillis;
+    private final long startMillis;
+    private final Timeout<T>[][] slots;
+    private long currentTick;
+    private int size;
+
+    public TimerWheel(long tickMillis, long nowMillis) {
+        this.tickMillis = tickMillis;
+        this.startMillis = nowMillis;
+        this.slots = newSlots();
+        for (int level = 0; level < LEVELS; level++) {
+            for (int slot = 0; slot < SLOTS; slot++) {
+                Timeout<T> sentinel = new Timeout<>(null, 0);
+                sentinel.prev = sentinel;
+                sentinel.next = sentinel;
+                slots[level][slot] = sentinel;
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Timeout<T>[][] newSlots() {
+        return (Timeout<T>[][]) new Timeout<?>[LEVELS][SLOTS];
+    }
+
+    // Due no earlier than deadlineMillis and at most one tick after it
+    public synchronized Timeout<T> schedule(T item, long deadlineMillis) {
+        long tick = Math.max(ceilTick(deadlineMillis), currentTick + 1);
+        Timeout<T> timeout = new Timeout<>(item, tick);
+        file(timeout);
+        size++;
+        return timeout;
+    }
+
+    // False if the timeout already fired or was cancelled
+    public synchronized boolean cancel(Timeout<T> timeout) {
+        if (timeout.prev == null) {
+            return false;
+        }
+        unlink(timeout);
+        size--;
+        return true;
+    }
+
+    // Moves the wheel up to nowMillis and returns every item that came due, oldest tick first
+    public synchronized List<T> advance(long nowMillis) {
+        List<T> expired = new ArrayList<>();
+        long target = Math.floorDiv(nowMillis - startMillis, tickMillis);
+        while (currentTick < target) {
+            currentTick++;
+            // Higher levels first, so what they hand down lands in slots that are still ahead
+            for (int level = LEVELS - 1; level > 0; level--) {
+                if ((currentTick & ((1L << (BITS * level)) - 1)) == 0) {
+                    cascade(level, (int) ((currentTick >>> (BITS * level)) & (SLOTS - 1)));
+                }
+            }
+            Timeout<T> head = slots[0][(int) (currentTick & (SLOTS - 1))];
+            while (head.next != head) {
+                Timeout<T> timeout = head.next;
+                unlink(timeout);
+                size--;
+                expired.add(timeout.item);
+            }
+        }
+        return expired;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    private void cascade(int level, int slot) {
+        Timeout<T> head = slots[level][slot];
+        while (head.next != head) {
+            Timeout<T> timeout = head.next;
+            unlink(timeout);
+            file(timeout);
+        }
+    }
+
+    private void file(Timeout<T> timeout) {
+        long delta = timeout.tick - currentTick;
+        long tick = timeout.tick;
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= 1L << (BITS * (level + 1))) {
+            level++;
+        }
+        if (delta >= 1L << (BITS * LEVELS)) {
+            // Beyond the top level's reach: park in the slot that comes round last
+            tick = currentTick + (1L << (BITS * LEVELS)) - 1;
+        }
+        // delta 0 only happens during a cascade, for the slot about to be expired
+        Timeout<T> head = slots[level][(int) ((Math.max(tick, currentTick) >>> (BITS * level)) & (SLOTS - 1))];
+        timeout.prev = head.prev;
+        timeout.next = head;
+        head.prev.next = timeout;
+        head.prev = timeout;
+    }
+
+    private static <T> void unlink(Timeout<T> timeout) {
+        timeout.prev.next = timeout.next;
+        timeout.next.prev = timeout.prev;
+        timeout.prev = null;
+        timeout.next = null;
+    }
+
+    private long ceilTick(long millis) {
+        return -Math.floorDiv(startMillis - millis, tickMillis);
+    }
+
+    public static final class Timeout<T> {
+        private final T item;
+        private final long tick;
+        private Timeout<T> prev;
+        private Timeout<T> next;
+
+        Timeout(T item, long tick) {
+            this.item = item;
+            this.tick = tick;
+        }
+
+        public T getItem() {
+            return item;
+        }
+    }
+}
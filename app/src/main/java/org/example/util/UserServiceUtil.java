@@ -3,12 +3,31 @@ package org.example.util;
 import org.mindrot.jbcrypt.BCrypt;
 
 public class UserServiceUtil {
+    // bcrypt work factor for new hashes, -Dirctc.bcrypt.cost
+    public static final int BCRYPT_COST = Integer.getInteger("irctc.bcrypt.cost", 10);
     
     public static String hashPassword(String plainPassword) {
-        return BCrypt.hashpw(plainPassword, BCrypt.gensalt());
+        return hashPassword(plainPassword, BCRYPT_COST);
     } 
 
+    public static String hashPassword(String plainPassword, int cost) {
+        return BCrypt.hashpw(plainPassword, BCrypt.gensalt(cost));
+    }
+
     public static boolean checkPassword(String plainPassword, String hashedPassword) {
         return BCrypt.checkpw(plainPassword, hashedPassword);
     }
+
+    // Work factor stored in a "$2a$10$..." hash, -1 if it isn't one
+    public static int costOf(String hashedPassword) {
+        if (hashedPassword == null || hashedPassword.length() < 7 || hashedPassword.charAt(0) != '$') {
+            return -1;
+        }
+        int end = hashedPassword.indexOf('$', 1);
+        try {
+            return Integer.parseInt(hashedPassword.substring(end + 1, end + 3));
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            return -1;
+        }
+    }
 }
@@ -0,0 +1,147 @@
+package org.example.services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+
+import org.example.entities.BookingRequest;
+import org.example.entities.SeatHold;
+import org.example.entities.Ticket;
+import org.example.entities.Train;
+import org.example.entities.User;
+import org.example.persistence.JournalEvent;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+// Seats that reached the trains journal but whose tickets never reached the users journal
+public class BatchRecoveryTest {
+    private static final ObjectMapper MAPPER = new ObjectMapper().setPropertyNamingStrategy(PropertyNamingStrategies.SNAKE_CASE);
+    private static final LocalDate RUN = LocalDate.now().plusDays(2);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File trainsFile;
+    private File usersFile;
+
+    @BeforeClass
+    public static void quietJournal() {
+        System.setProperty("irctc.journal.fsync", "off");
+    }
+
+    @Before
+    public void writeData() throws Exception {
+        trainsFile = folder.newFile("trains.json");
+        usersFile = folder.newFile("users.json");
+        Map<String, String> times = new LinkedHashMap<>();
+        times.put("a", "06:00:00");
+        times.put("b", "07:00:00");
+        times.put("c", "08:00:00");
+        List<List<Integer>> seats = List.of(new ArrayList<>(List.of(0, 0, 0, 0)), new ArrayList<>(List.of(0, 0, 0, 0)));
+        MAPPER.writeValue(trainsFile, List.of(new Train("T1", "101", seats, times, List.of("a", "b", "c"))));
+        MAPPER.writeValue(usersFile, List.of(new User("u", null, "x", new ArrayList<>(), "uid")));
+    }
+
+    @Test
+    public void seatsWithoutTicketsAreGivenBackOnStartup() throws Exception {
+        TrainRepository repository = new TrainRepository(trainsFile);
+        bookWithoutTicket(repository, 0, 1);
+
+        TrainRepository restarted = new TrainRepository(trainsFile);
+        assertFalse(isFree(restarted, 0, 1));
+        new UserBookingService(usersFile, new TrainService(restarted));
+        assertTrue(isFree(restarted, 0, 1));
+
+        // Given back for good: it stays free across the next restart
+        assertTrue(isFree(new TrainRepository(trainsFile), 0, 1));
+    }
+
+    @Test
+    public void compactionKeepsSeatsWaitingOnTickets() throws Exception {
+        TrainRepository repository = new TrainRepository(trainsFile);
+        bookWithoutTicket(repository, 1, 2);
+        repository.snapshot();
+
+        TrainRepository restarted = new TrainRepository(trainsFile);
+        new UserBookingService(usersFile, new TrainService(restarted));
+        assertTrue(isFree(restarted, 1, 2));
+    }
+
+    @Test
+    public void ticketedBatchesSurviveRestart() throws Exception {
+        UserBookingService service = new UserBookingService(usersFile, new TrainService(new TrainRepository(trainsFile)));
+        List<Ticket> tickets = service.bookSeats(service.getUser("uid"), List.of(
+                new BookingRequest("T1", RUN.toString(), 0, 0, null, null),
+                new BookingRequest("T1", RUN.toString(), 1, 3, "b", "c")));
+        assertNotNull(tickets);
+
+        TrainRepository restarted = new TrainRepository(trainsFile);
+        UserBookingService reloaded = new UserBookingService(usersFile, new TrainService(restarted));
+        assertFalse(isFree(restarted, 0, 0));
+        assertFalse(isFree(restarted, 1, 3));
+        assertEquals(2, reloaded.getUser("uid").getTicketsBooked().size());
+    }
+
+    @Test
+    public void singleSeatsAreReconciledLikeBatches() throws Exception {
+        UserBookingService service = new UserBookingService(usersFile, new TrainService(new TrainRepository(trainsFile)));
+        assertNotNull(service.bookTrainSeat(service.getUser("uid"), service.getTrain("T1"), RUN, 0, 2, null, null));
+        // A hold confirmed just before the process died, its ticket never logged
+        TrainRepository repository = new TrainRepository(trainsFile);
+        SeatHold hold = new SeatHold(UUID.randomUUID().toString(), "uid", "T1", RUN.toString(), "a", "c", 1, 0, 0, 2,
+                System.currentTimeMillis() + 60_000);
+        assertTrue(repository.getInventory(repository.get("T1"), RUN).tryBook(1, 0));
+        repository.recordHold(repository.get("T1"), hold);
+        assertTrue(repository.confirmHold(hold, UUID.randomUUID().toString()));
+
+        TrainRepository restarted = new TrainRepository(trainsFile);
+        UserBookingService reloaded = new UserBookingService(usersFile, new TrainService(restarted));
+        assertFalse(isFree(restarted, 0, 2));
+        assertTrue(isFree(restarted, 1, 0));
+        assertEquals(1, reloaded.getUser("uid").getTicketsBooked().size());
+    }
+
+    @Test
+    public void seatsClaimedButNeverLoggedAreClearedOnStartup() throws Exception {
+        UserBookingService service = new UserBookingService(usersFile, new TrainService(new TrainRepository(trainsFile)));
+        assertNotNull(service.bookTrainSeat(service.getUser("uid"), service.getTrain("T1"), RUN, 1, 1, null, null));
+        // Claimed in the mapped seat file, then the process died before the BOOK was written
+        TrainRepository repository = new TrainRepository(trainsFile);
+        assertTrue(repository.getInventory(repository.get("T1"), RUN).tryBook(0, 3));
+
+        TrainRepository restarted = new TrainRepository(trainsFile);
+        assertFalse(isFree(restarted, 0, 3));
+        new UserBookingService(usersFile, new TrainService(restarted));
+        assertTrue(isFree(restarted, 0, 3));
+        assertFalse(isFree(restarted, 1, 1));
+    }
+
+    // What bookSeats has logged when the process dies before the tickets are written
+    private static void bookWithoutTicket(TrainRepository repository, int row, int seat) throws Exception {
+        Train train = repository.get("T1");
+        assertTrue(repository.getInventory(train, RUN).tryBook(row, seat));
+        JournalEvent booking = JournalEvent.booking("T1", RUN.toString(), row, seat, 0, 2);
+        booking.setUserId("uid");
+        booking.setTicketId(UUID.randomUUID().toString());
+        repository.recordAll(List.of(booking));
+    }
+
+    private static boolean isFree(TrainRepository repository, int row, int seat) throws Exception {
+        return repository.getInventory(repository.get("T1"), RUN).isFree(row, seat, 0, 2);
+    }
+}
@@ -0,0 +1,255 @@
+package org.example.services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+
+import org.example.entities.BookingRequest;
+import org.example.entities.SeatInventory;
+import org.example.entities.Ticket;
+import org.example.entities.Train;
+import org.example.entities.User;
+import org.example.util.Log;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Many threads booking, batch booking and cancelling on the same runs. Afterwards, and again
+ * after a restart, no (run, row, seat, segment) may be held by two tickets, and the seat bits
+ * must be exactly the live tickets' segments. Prints bookings per second as threads are added.
+ */
+public class BookingStressTest {
+    private static final ObjectMapper MAPPER = new ObjectMapper().setPropertyNamingStrategy(PropertyNamingStrategies.SNAKE_CASE);
+    private static final LocalDate RUN = LocalDate.now().plusDays(1);
+    private static final int STOPS = 5;
+    private static final int ROWS = 4;
+    private static final int SEATS = 16;
+    private static final int ATTEMPTS_PER_THREAD = 400;
+    private static final int[] THREADS = {1, 2, 4, 8};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void setUp() {
+        System.setProperty("irctc.journal.fsync", "off");
+        // Compactions race the bookings too
+        System.setProperty("irctc.journal.snapshotEvery", "200");
+        Log.setLevel(Log.Level.WARN);
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        System.clearProperty("irctc.journal.snapshotEvery");
+        Log.setLevel(Log.Level.INFO);
+    }
+
+    @Test
+    public void oneTrain() throws Exception {
+        for (int threads : THREADS) {
+            hammer(1, threads);
+        }
+    }
+
+    @Test
+    public void severalTrains() throws Exception {
+        for (int threads : THREADS) {
+            hammer(8, threads);
+        }
+    }
+
+    private void hammer(int trainCount, int threadCount) throws Exception {
+        File dir = folder.newFolder();
+        File trainsFile = new File(dir, "trains.json");
+        File usersFile = new File(dir, "users.json");
+        List<Train> trains = new ArrayList<>();
+        for (int t = 0; t < trainCount; t++) {
+            trains.add(train("T" + t));
+        }
+        List<User> users = new ArrayList<>();
+        for (int u = 0; u < threadCount; u++) {
+            users.add(new User("user" + u, null, "x", new ArrayList<>(), "id-" + u));
+        }
+        MAPPER.writeValue(trainsFile, trains);
+        MAPPER.writeValue(usersFile, users);
+
+        TrainRepository repository = new TrainRepository(trainsFile);
+        UserBookingService service = new UserBookingService(usersFile, new TrainService(repository));
+        AtomicLong booked = new AtomicLong();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < threadCount; t++) {
+            User user = service.getUser("id-" + t);
+            SplittableRandom random = new SplittableRandom(31L * t + trainCount);
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < ATTEMPTS_PER_THREAD; i++) {
+                        booked.addAndGet(attempt(service, user, trainCount, random));
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }, "booker-" + t);
+            thread.start();
+            threads.add(thread);
+        }
+        long started = System.nanoTime();
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        double seconds = (System.nanoTime() - started) / 1e9;
+        assertNull("a booking thread failed: " + failure.get(), failure.get());
+        System.out.printf("%d train(s), %d thread(s): %.0f attempts/s, %.0f seats booked/s%n", trainCount, threadCount,
+                threadCount * ATTEMPTS_PER_THREAD / seconds, booked.get() / seconds);
+
+        List<Ticket> sold = tickets(service, threadCount);
+        checkTicketsMatchSeats(sold, repository, trainCount);
+
+        // A copy gets its own journals and seat file mappings, so it only sees what reached the files
+        File copy = folder.newFolder();
+        copyTree(dir.toPath(), copy.toPath());
+        TrainRepository restarted = new TrainRepository(new File(copy, "trains.json"));
+        // Before a UserBookingService can reconcile the seats with the tickets
+        checkTicketsMatchSeats(sold, restarted, trainCount);
+        UserBookingService reloaded = new UserBookingService(new File(copy, "users.json"), new TrainService(restarted));
+        assertEquals(ticketIds(sold), ticketIds(tickets(reloaded, threadCount)));
+        checkTicketsMatchSeats(sold, restarted, trainCount);
+    }
+
+    // One single booking, batch of two or cancellation; the number of seats it booked
+    private static int attempt(UserBookingService service, User user, int trainCount, SplittableRandom random) {
+        int roll = random.nextInt(10);
+        if (roll == 0) {
+            List<Ticket> mine;
+            synchronized (user) {
+                mine = new ArrayList<>(user.getTicketsBooked());
+            }
+            if (!mine.isEmpty()) {
+                service.cancelBooking(user, mine.get(random.nextInt(mine.size())).getTicketId());
+            }
+            return 0;
+        }
+        if (roll < 4) {
+            List<Ticket> tickets = service.bookSeats(user, List.of(request(trainCount, random), request(trainCount, random)));
+            return tickets == null ? 0 : tickets.size();
+        }
+        BookingRequest request = request(trainCount, random);
+        Train train = service.getTrain(request.getTrainId());
+        return service.bookTrainSeat(user, train, RUN, request.getRow(), request.getSeat(),
+                request.getSource(), request.getDestination()) == null ? 0 : 1;
+    }
+
+    private static BookingRequest request(int trainCount, SplittableRandom random) {
+        int from = random.nextInt(STOPS - 1);
+        int to = from + 1 + random.nextInt(STOPS - 1 - from);
+        return new BookingRequest("T" + random.nextInt(trainCount), RUN.toString(),
+                random.nextInt(ROWS), random.nextInt(SEATS), "s" + from, "s" + to);
+    }
+
+    private static List<Ticket> tickets(UserBookingService service, int userCount) {
+        List<Ticket> tickets = new ArrayList<>();
+        for (int u = 0; u < userCount; u++) {
+            tickets.addAll(service.getUser("id-" + u).getTicketsBooked());
+        }
+        return tickets;
+    }
+
+    private static Set<String> ticketIds(List<Ticket> tickets) {
+        Set<String> ids = new HashSet<>();
+        for (Ticket ticket : tickets) {
+            ids.add(ticket.getTicketId());
+        }
+        return ids;
+    }
+
+    private static void copyTree(Path from, Path to) throws IOException {
+        try (Stream<Path> paths = Files.walk(from)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                Path target = to.resolve(from.relativize(path).toString());
+                if (Files.isDirectory(path)) {
+                    Files.createDirectories(target);
+                } else {
+                    Files.copy(path, target, StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+        }
+    }
+
+    private static void checkTicketsMatchSeats(List<Ticket> tickets, TrainRepository repository, int trainCount) throws Exception {
+        Map<String, String> soldTo = new HashMap<>();
+        for (Ticket ticket : tickets) {
+            for (int s = ticket.getFromSegment(); s < ticket.getToSegment(); s++) {
+                String key = ticket.getTrainId() + "/" + ticket.getRow() + "/" + ticket.getSeat() + "/" + s;
+                String other = soldTo.put(key, ticket.getTicketId());
+                if (other != null) {
+                    fail(key + " sold to both " + other + " and " + ticket.getTicketId());
+                }
+            }
+        }
+        int taken = 0;
+        for (int t = 0; t < trainCount; t++) {
+            String trainId = "T" + t;
+            SeatInventory inventory = repository.getInventory(repository.get(trainId), RUN);
+            for (int row = 0; row < ROWS; row++) {
+                for (int seat = 0; seat < SEATS; seat++) {
+                    for (int s = 0; s < STOPS - 1; s++) {
+                        String key = trainId + "/" + row + "/" + seat + "/" + s;
+                        if (!inventory.isFree(row, seat, s, s + 1)) {
+                            taken++;
+                            if (!soldTo.containsKey(key)) {
+                                fail(key + " is taken but no ticket holds it");
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        assertEquals("segments held by tickets", soldTo.size(), taken);
+    }
+
+    private static Train train(String trainId) {
+        List<String> stations = new ArrayList<>();
+        Map<String, String> times = new LinkedHashMap<>();
+        for (int s = 0; s < STOPS; s++) {
+            stations.add("s" + s);
+            times.put("s" + s, String.format("%02d:00:00", 6 + s));
+        }
+        List<List<Integer>> seats = new ArrayList<>();
+        for (int row = 0; row < ROWS; row++) {
+            List<Integer> rowSeats = new ArrayList<>();
+            for (int seat = 0; seat < SEATS; seat++) {
+                rowSeats.add(0);
+            }
+            seats.add(rowSeats);
+        }
+        return new Train(trainId, "1" + trainId, seats, times, stations);
+    }
+}
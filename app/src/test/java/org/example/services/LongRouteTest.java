@@ -0,0 +1,118 @@
+package org.example.services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+
+import org.example.entities.SeatInventory;
+import org.example.entities.Train;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+// Trains with more stops than one 64-bit segment mask covers
+public class LongRouteTest {
+    private static final ObjectMapper MAPPER = new ObjectMapper().setPropertyNamingStrategy(PropertyNamingStrategies.SNAKE_CASE);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void quietJournal() {
+        System.setProperty("irctc.journal.fsync", "off");
+    }
+
+    @Test
+    public void seventyStopsGiveSixtyNineSegments() {
+        SeatInventory inventory = train("long", 70).getInventory();
+        assertEquals(69, inventory.segments());
+
+        assertTrue(inventory.tryBook(0, 0, 60, 69));
+        assertTrue(inventory.isFree(0, 0, 0, 60));
+        assertFalse(inventory.isFree(0, 0, 64, 66));
+        assertFalse(inventory.tryBook(0, 0, 59, 61));
+        assertTrue(inventory.tryBook(0, 0, 0, 60));
+        assertFalse(inventory.hasPartialBookings());
+        assertTrue(inventory.release(0, 0, 30, 31));
+        assertTrue(inventory.hasPartialBookings());
+    }
+
+    @Test
+    public void partialBookingsSurviveJson() throws Exception {
+        Train train = train("long", 70);
+        train.getInventory().tryBook(1, 3, 63, 66);
+        train.getInventory().tryBook(2, 0, 0, 2);
+
+        Map<?, ?> json = MAPPER.readValue(MAPPER.writeValueAsString(train), Map.class);
+        List<?> firstRow = (List<?>) ((List<?>) json.get("seat_segments")).get(0);
+        assertEquals("two longs per seat past 64 segments", 2 * 4, firstRow.size());
+
+        SeatInventory read = MAPPER.readValue(MAPPER.writeValueAsString(train), Train.class).getInventory();
+        assertEquals(train.getInventory().toSegmentMasks(), read.toSegmentMasks());
+        assertFalse(read.isFree(1, 3, 63, 64));
+        assertFalse(read.isFree(1, 3, 65, 66));
+        assertTrue(read.isFree(1, 3, 66, 69));
+        assertFalse(read.isFree(2, 0, 1, 2));
+    }
+
+    @Test
+    public void shortRoutesKeepOneMaskPerSeat() throws Exception {
+        Train train = train("short", 10);
+        train.getInventory().tryBook(0, 1, 2, 5);
+
+        Map<?, ?> json = MAPPER.readValue(MAPPER.writeValueAsString(train), Map.class);
+        List<?> firstRow = (List<?>) ((List<?>) json.get("seat_segments")).get(0);
+        assertEquals(4, firstRow.size());
+        assertEquals(0b11100L, ((Number) firstRow.get(1)).longValue());
+    }
+
+    @Test
+    public void datedBookingsOnTheLastSegmentsAreReplayed() throws Exception {
+        File trainsFile = folder.newFile("trains.json");
+        MAPPER.writeValue(trainsFile, List.of(train("long", 70)));
+        LocalDate runDate = LocalDate.now().plusDays(3);
+
+        TrainRepository repository = new TrainRepository(trainsFile);
+        Train train = repository.get("long");
+        assertTrue(repository.getInventory(train, runDate).tryBook(2, 1, 64, 69));
+        repository.recordBooking(train, runDate, 2, 1, 64, 69);
+
+        // trains.json and its journal only: the run has to come back from the replayed BOOK
+        File copy = new File(folder.newFolder(), "trains.json");
+        for (File file : trainsFile.getParentFile().listFiles((dir, name) -> name.startsWith("trains.json"))) {
+            Files.copy(file.toPath(), copy.toPath().resolveSibling(file.getName()));
+        }
+        TrainRepository reopened = new TrainRepository(copy);
+        SeatInventory inventory = reopened.getInventory(reopened.get("long"), runDate);
+        assertEquals(69, inventory.segments());
+        assertFalse(inventory.isFree(2, 1, 68, 69));
+        assertTrue(inventory.isFree(2, 1, 0, 64));
+    }
+
+    private static Train train(String trainId, int stops) {
+        List<String> stations = new ArrayList<>(stops);
+        Map<String, String> times = new LinkedHashMap<>();
+        for (int s = 0; s < stops; s++) {
+            String name = "stop" + s;
+            stations.add(name);
+            times.put(name, String.format("%02d:%02d:00", s / 60, s % 60));
+        }
+        List<List<Integer>> seats = new ArrayList<>();
+        for (int row = 0; row < 3; row++) {
+            seats.add(new ArrayList<>(List.of(0, 0, 0, 0)));
+        }
+        return new Train(trainId, "12345", seats, times, stations);
+    }
+}